@@ -0,0 +1,170 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Models used by the benchmarks. Version 1 of every model called its 'name' property 'title'.
+ */
+public class BenchmarkModels {
+
+    public static class RenamingConverter implements VersionedModelConverter {
+
+        @Override
+        public ObjectNode convert(ObjectNode modelData, String modelVersion, String targetModelVersion, JsonNodeFactory nodeFactory) {
+            if(modelVersion.equals("1"))
+                modelData.put("name", modelData.remove("title"));
+            else
+                modelData.put("title", modelData.remove("name"));
+            return modelData;
+        }
+    }
+
+    @JsonVersionedModel(currentVersion = "2", toCurrentConverterClass = RenamingConverter.class, toPastConverterClass = RenamingConverter.class)
+    public static class SmallModel {
+        public String name;
+        public int count;
+
+        @JsonSerializeToVersion
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String serializeToVersion;
+    }
+
+    @JsonVersionedModel(currentVersion = "2", toCurrentConverterClass = RenamingConverter.class, toPastConverterClass = RenamingConverter.class)
+    public static class MediumModel {
+        public String name;
+        public String description;
+        public int count;
+        public long createdAt;
+        public long updatedAt;
+        public double price;
+        public boolean active;
+        public String category;
+        public List<String> tags;
+        public Map<String, String> attributes;
+
+        @JsonSerializeToVersion
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String serializeToVersion;
+    }
+
+    public static class LineItem {
+        public String sku;
+        public String description;
+        public int quantity;
+        public double unitPrice;
+        public boolean backordered;
+    }
+
+    @JsonVersionedModel(currentVersion = "2", toCurrentConverterClass = RenamingConverter.class, toPastConverterClass = RenamingConverter.class)
+    public static class LargeModel extends MediumModel {
+        public List<LineItem> items;
+    }
+
+    @JsonVersionedModel(currentVersion = "2", toCurrentConverterClass = RenamingConverter.class, toPastConverterClass = RenamingConverter.class)
+    public static class NestedModel {
+        public String name;
+        public SmallModel primary;
+        public List<MediumModel> children;
+
+        @JsonSerializeToVersion
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String serializeToVersion;
+    }
+
+
+    public static SmallModel small(int i, String serializeToVersion) {
+        SmallModel model = new SmallModel();
+        model.name = "small-" + i;
+        model.count = i;
+        model.serializeToVersion = serializeToVersion;
+        return model;
+    }
+
+    public static MediumModel medium(int i, String serializeToVersion) {
+        return fill(new MediumModel(), i, serializeToVersion);
+    }
+
+    public static LargeModel large(int itemCount, String serializeToVersion) {
+        LargeModel model = fill(new LargeModel(), 0, serializeToVersion);
+        model.items = new ArrayList<LineItem>(itemCount);
+        for(int i = 0; i < itemCount; i++) {
+            LineItem item = new LineItem();
+            item.sku = "SKU-" + (100000 + i);
+            item.description = "line item number " + i;
+            item.quantity = i % 7 + 1;
+            item.unitPrice = 0.99 * (i + 1);
+            item.backordered = i % 5 == 0;
+            model.items.add(item);
+        }
+        return model;
+    }
+
+    public static NestedModel nested(int childCount, String serializeToVersion) {
+        NestedModel model = new NestedModel();
+        model.name = "nested";
+        model.primary = small(0, serializeToVersion);
+        model.children = new ArrayList<MediumModel>(childCount);
+        for(int i = 0; i < childCount; i++)
+            model.children.add(medium(i, serializeToVersion));
+        model.serializeToVersion = serializeToVersion;
+        return model;
+    }
+
+    public static List<SmallModel> collection(int size, String serializeToVersion) {
+        List<SmallModel> models = new ArrayList<SmallModel>(size);
+        for(int i = 0; i < size; i++)
+            models.add(small(i, serializeToVersion));
+        return models;
+    }
+
+    private static <T extends MediumModel> T fill(T model, int i, String serializeToVersion) {
+        model.name = "medium-" + i;
+        model.description = "a medium sized model used to measure the cost of versioning";
+        model.count = i;
+        model.createdAt = 1470000000000L + i;
+        model.updatedAt = 1480000000000L + i;
+        model.price = 19.99 + i;
+        model.active = i % 2 == 0;
+        model.category = "category-" + i % 4;
+        model.tags = new ArrayList<String>();
+        model.tags.add("alpha");
+        model.tags.add("beta");
+        model.tags.add("gamma");
+        model.attributes = new LinkedHashMap<String, String>();
+        model.attributes.put("color", "red");
+        model.attributes.put("size", "large");
+        model.attributes.put("origin", "factory-" + i % 3);
+        model.serializeToVersion = serializeToVersion;
+        return model;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link VersioningBenchmark}'s paths over binary data formats, so the module's cost can be compared with what
+ * each format saves over JSON. Run with {@code -prof gc} to get allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataFormatBenchmark {
+
+    public enum Format {
+        JSON {
+            @Override
+            JsonFactory createFactory() {
+                return new JsonFactory();
+            }
+        },
+        SMILE {
+            @Override
+            JsonFactory createFactory() {
+                return new SmileFactory();
+            }
+        },
+        // only in Jackson 2.4 and higher
+        CBOR {
+            @Override
+            JsonFactory createFactory() {
+                return new CBORFactory();
+            }
+        };
+
+        abstract JsonFactory createFactory();
+    }
+
+    @Param
+    public Format format;
+
+    @Param({"MEDIUM", "LARGE", "NESTED"})
+    public VersioningBenchmark.Shape shape;
+
+    @Param
+    public VersioningBenchmark.Path path;
+
+    private ObjectMapper mapper;
+    private JavaType type;
+    private Object value;
+    private byte[] data;
+
+    @Setup
+    public void setup() throws Exception {
+        ObjectMapper versioningMapper = new ObjectMapper(format.createFactory()).registerModule(new VersioningModule());
+        if(path == VersioningBenchmark.Path.PLAIN) {
+            // the serialized data carries a model version property that plain models don't have
+            mapper = new ObjectMapper(format.createFactory()).configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        } else
+            mapper = versioningMapper;
+
+        type = shape.type(mapper);
+        value = shape.create(path == VersioningBenchmark.Path.CONVERTED ? "1" : null);
+        data = versioningMapper.writeValueAsBytes(value);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return mapper.writeValueAsBytes(value);
+    }
+
+    @Benchmark
+    public Object deserialize() throws Exception {
+        return mapper.readValue(data, type);
+    }
+}
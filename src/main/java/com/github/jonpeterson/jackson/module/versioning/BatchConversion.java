@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs batches of same-version models through a {@link BatchVersionedModelConverter}. Batches larger than the split size
+ * are cut into chunks that are converted on an executor, with the first chunk converted on the calling thread.
+ */
+class BatchConversion {
+    private final ExecutorService executor;
+    private final int splitSize;
+
+    /**
+     * @param executor  executor to convert chunks of large batches on; null to always convert on the calling thread
+     * @param splitSize number of models per chunk
+     */
+    BatchConversion(ExecutorService executor, int splitSize) {
+        this.executor = executor;
+        this.splitSize = splitSize;
+    }
+
+    /**
+     * @return the converted models in the same order
+     */
+    ObjectNode[] convert(final VersionedModelPlan plan, ObjectNode[] modelData, final ModelVersion modelVersion, final ModelVersion targetVersion, final JsonNodeFactory nodeFactory, final VersioningInstrumentation instrumentation, final VersioningInstrumentation.Operation operation) {
+        if(executor == null || modelData.length <= splitSize)
+            return convertChunk(plan, modelData, modelVersion, targetVersion, nodeFactory, instrumentation, operation);
+
+        List<Future<ObjectNode[]>> futures = new ArrayList<Future<ObjectNode[]>>();
+        for(int start = splitSize; start < modelData.length; start += splitSize) {
+            final ObjectNode[] chunk = Arrays.copyOfRange(modelData, start, Math.min(start + splitSize, modelData.length));
+            futures.add(executor.submit(new Callable<ObjectNode[]>() {
+                @Override
+                public ObjectNode[] call() {
+                    return convertChunk(plan, chunk, modelVersion, targetVersion, nodeFactory, instrumentation, operation);
+                }
+            }));
+        }
+
+        ObjectNode[] converted = new ObjectNode[modelData.length];
+        System.arraycopy(convertChunk(plan, Arrays.copyOf(modelData, splitSize), modelVersion, targetVersion, nodeFactory, instrumentation, operation), 0, converted, 0, splitSize);
+        int start = splitSize;
+        try {
+            for(Future<ObjectNode[]> future: futures) {
+                ObjectNode[] chunk = future.get();
+                System.arraycopy(chunk, 0, converted, start, chunk.length);
+                start += chunk.length;
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while converting a batch", e);
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if(cause instanceof Error)
+                throw (Error)cause;
+            throw new RuntimeException(cause.getMessage(), cause);
+        } finally {
+            for(Future<ObjectNode[]> future: futures)
+                future.cancel(false);
+        }
+        return converted;
+    }
+
+    private static ObjectNode[] convertChunk(VersionedModelPlan plan, ObjectNode[] modelData, ModelVersion modelVersion, ModelVersion targetVersion, JsonNodeFactory nodeFactory, VersioningInstrumentation instrumentation, VersioningInstrumentation.Operation operation) {
+        boolean instrumented = instrumentation != VersioningInstrumentation.NONE;
+        long start = instrumented ? System.nanoTime() : 0;
+        ObjectNode[] converted = ((BatchVersionedModelConverter)plan.converter).convertBatch(modelData, modelVersion, targetVersion, nodeFactory);
+        if(converted.length != modelData.length)
+            throw new IllegalStateException(plan.converter.getClass().getName() + " returned " + converted.length + " models for a batch of " + modelData.length);
+
+        // one event per batch with the time it took as a whole
+        if(instrumented)
+            instrumentation.conversion(plan.modelClass, operation, modelVersion, targetVersion, System.nanoTime() - start);
+        return converted;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the data that input to models annotated with {@link JsonVersionedModel#cacheConverted()} is
+ * converted to on deserialization. Entries are keyed by a 64-bit hash of the input model's tokens together with its
+ * version, and evicted least recently used first. A hash match is confirmed by comparing the tokens themselves, so
+ * colliding inputs are never confused. The cache is split into independently locked segments so that threads
+ * deserializing different inputs rarely contend.
+ */
+public class ConvertedModelCache {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
+
+    /**
+     * @param maxEntries maximum number of distinct inputs to keep
+     */
+    public ConvertedModelCache(int maxEntries) {
+        if(maxEntries < SEGMENTS)
+            throw new IllegalArgumentException("maxEntries must be at least " + SEGMENTS);
+
+        for(int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(maxEntries / SEGMENTS + (i < maxEntries % SEGMENTS ? 1 : 0));
+    }
+
+    /**
+     * @return number of times converted data was served from the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of times input had to be converted
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return fraction of lookups served from the cache; 0 if there haven't been any
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long lookupCount = hitCount + misses.sum();
+        return lookupCount == 0 ? 0 : (double)hitCount / lookupCount;
+    }
+
+    /**
+     * @return number of entries evicted to make room for others
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return number of entries in the cache
+     */
+    public int size() {
+        int size = 0;
+        for(Segment segment: segments)
+            synchronized(segment) {
+                size += segment.size();
+            }
+        return size;
+    }
+
+    /**
+     * Removes every entry. Must be called when converters change.
+     */
+    public void clear() {
+        for(Segment segment: segments)
+            synchronized(segment) {
+                segment.clear();
+            }
+    }
+
+    /**
+     * @return the converted data; null if the input hasn't been cached
+     */
+    TokenBuffer get(Key key) {
+        Segment segment = segmentFor(key);
+        TokenBuffer converted;
+        synchronized(segment) {
+            converted = segment.get(key);
+        }
+
+        if(converted != null)
+            hits.increment();
+        else
+            misses.increment();
+        return converted;
+    }
+
+    void put(Key key, TokenBuffer converted) {
+        Segment segment = segmentFor(key);
+        synchronized(segment) {
+            segment.put(key, converted);
+        }
+    }
+
+    private Segment segmentFor(Key key) {
+        return segments[(int)(key.hash >>> 60)];
+    }
+
+
+    private class Segment extends LinkedHashMap<Key, TokenBuffer> {
+        private final int maxEntries;
+
+        Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, TokenBuffer> eldest) {
+            if(size() <= maxEntries)
+                return false;
+            evictions.increment();
+            return true;
+        }
+    }
+
+    /**
+     * Input model data at its version. Holds on to the input's tokens to compare them when hashes match.
+     */
+    static class Key {
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        private final Class<?> modelClass;
+        private final ModelVersion modelVersion;
+        private final TokenBuffer tokens;
+        private final long hash;
+
+        /**
+         * @param tokens input model data; must not be written to afterwards
+         */
+        Key(Class<?> modelClass, ModelVersion modelVersion, TokenBuffer tokens) throws IOException {
+            this.modelClass = modelClass;
+            this.modelVersion = modelVersion;
+            this.tokens = tokens;
+
+            // FNV-1a over the tokens and the hash codes of their values
+            long hash = mix(mix(FNV_OFFSET, modelClass.hashCode()), modelVersion.hashCode());
+            JsonParser parser = tokens.asParser();
+            for(JsonToken token; (token = parser.nextToken()) != null; ) {
+                hash = mix(hash, token.ordinal());
+                Object value = getValue(parser, token);
+                if(value != null)
+                    hash = mix(hash, value.hashCode());
+            }
+            this.hash = hash;
+        }
+
+        private static long mix(long hash, int value) {
+            for(int i = 0; i < 32; i += 8)
+                hash = (hash ^ ((value >>> i) & 0xff)) * FNV_PRIME;
+            return hash;
+        }
+
+        // values as the buffer holds them, so nothing is allocated to read them
+        private static Object getValue(JsonParser parser, JsonToken token) throws IOException {
+            switch(token) {
+                case FIELD_NAME:
+                    return parser.getCurrentName();
+                case VALUE_STRING:
+                    return parser.getText();
+                case VALUE_NUMBER_INT:
+                case VALUE_NUMBER_FLOAT:
+                    return parser.getNumberValue();
+                case VALUE_EMBEDDED_OBJECT:
+                    return parser.getEmbeddedObject();
+                default:
+                    return null;
+            }
+        }
+
+        private static boolean tokensEqual(TokenBuffer a, TokenBuffer b) {
+            try {
+                JsonParser aParser = a.asParser();
+                JsonParser bParser = b.asParser();
+                for(JsonToken token; (token = aParser.nextToken()) != null; ) {
+                    if(bParser.nextToken() != token)
+                        return false;
+
+                    Object aValue = getValue(aParser, token);
+                    Object bValue = getValue(bParser, token);
+                    if(aValue == null ? bValue != null : !aValue.equals(bValue))
+                        return false;
+                }
+                return bParser.nextToken() == null;
+            } catch(IOException e) {
+                // buffers don't do I/O
+                return false;
+            }
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(this == other)
+                return true;
+            if(!(other instanceof Key))
+                return false;
+
+            Key key = (Key)other;
+            return hash == key.hash &&
+                modelClass == key.modelClass &&
+                modelVersion.equals(key.modelVersion) &&
+                tokensEqual(tokens, key.tokens);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int)(hash ^ (hash >>> 32));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Generator a collection of versioned models is written through after the models have been converted in batches. The
+ * serializer of each model takes its converted tree from here instead of converting the model on its own.
+ */
+class ConvertedModelGenerator extends JsonGeneratorDelegate {
+    private final JsonGenerator target;
+    private final Map<Object, ObjectNode> convertedModels;
+
+    /**
+     * @param target          generator to write the collection to
+     * @param convertedModels converted trees, without the model version property, by model instance
+     */
+    ConvertedModelGenerator(JsonGenerator target, IdentityHashMap<Object, ObjectNode> convertedModels) {
+        super(target);
+
+        this.target = target;
+        this.convertedModels = convertedModels;
+    }
+
+    /**
+     * @return the generator the collection is written to
+     */
+    JsonGenerator getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the converted tree of the model; null if it wasn't converted ahead of time
+     */
+    ObjectNode getConvertedModel(Object model) {
+        return convertedModels.get(model);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Converter factory that creates one instance per converter class with its no-argument constructor and returns that
+ * same instance from then on. Converters built elsewhere (ex. by a dependency injection container) can be registered
+ * up front with {@link #register(Class, VersionedModelConverter)}.
+ */
+public class DefaultVersionedModelConverterFactory implements VersionedModelConverterFactory {
+    private final ConcurrentMap<Class<?>, VersionedModelConverter> converters = new ConcurrentHashMap<Class<?>, VersionedModelConverter>();
+
+    /**
+     * Registers a converter instance to be returned for a converter class.
+     *
+     * @param converterClass converter class as referenced by {@link JsonVersionedModel}
+     * @param converter      converter to return for the class
+     * @param <C>            type of the converter
+     * @return this factory
+     */
+    public <C extends VersionedModelConverter> DefaultVersionedModelConverterFactory register(Class<C> converterClass, C converter) {
+        if(converter == null)
+            throw new IllegalArgumentException("converter must not be null");
+        converters.put(converterClass, converter);
+        return this;
+    }
+
+    @Override
+    public VersionedModelConverter getConverter(Class<? extends VersionedModelConverter> converterClass) throws RuntimeException {
+        VersionedModelConverter converter = converters.get(converterClass);
+        if(converter == null)
+            // lock so that a converter's setup only ever runs once
+            synchronized(converters) {
+                converter = converters.get(converterClass);
+                if(converter == null) {
+                    try {
+                        converter = converterClass.getDeclaredConstructor().newInstance();
+                    } catch(InvocationTargetException e) {
+                        throw new RuntimeException("unable to create instance of converter '" + converterClass.getName() + "'", e.getCause());
+                    } catch(NoSuchMethodException e) {
+                        throw new RuntimeException("converter '" + converterClass.getName() + "' has no no-argument constructor", e);
+                    } catch(Exception e) {
+                        throw new RuntimeException("unable to create instance of converter '" + converterClass.getName() + "'", e);
+                    }
+                    converters.put(converterClass, converter);
+                }
+            }
+        return converter;
+    }
+}
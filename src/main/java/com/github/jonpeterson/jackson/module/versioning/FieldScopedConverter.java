@@ -0,0 +1,42 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import java.util.Set;
+
+/**
+ * A {@link VersionedModelConverter} that declares the top-level properties a conversion reads or writes. Only those
+ * properties are built into the tree handed to the converter; the rest of the model is passed through as tokens and
+ * comes out of the conversion unchanged.
+ */
+public interface FieldScopedConverter extends VersionedModelConverter {
+
+    /**
+     * @param modelVersion       version of the data
+     * @param targetModelVersion version the data is converted to
+     * @return names of the top-level properties converting between the versions reads or writes (including properties it
+     *         adds or removes); null if it may use any property
+     */
+    Set<String> getFieldNames(ModelVersion modelVersion, ModelVersion targetModelVersion);
+}
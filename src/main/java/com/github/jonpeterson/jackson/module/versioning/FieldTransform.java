@@ -0,0 +1,340 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Declarative conversion step that renames, drops, adds defaults for, wraps and unwraps top-level properties of a model.
+ * Transforms registered with {@link StepwiseVersionedModelConverter#addTransform(String, String, FieldTransform)} are
+ * applied to the token stream as the model is read or written, without building a tree, whenever every step between
+ * two versions is a transform.
+ * <p>
+ * Each property may have at most one rename, drop, wrap or unwrap rule. Properties moved into a wrapper object keep their
+ * order and the wrapper is written after the model's other properties, followed by any defaults for properties that were
+ * not present. A property already named like a wrapper is dropped unless it has a rule of its own, and no property may
+ * be renamed to a wrapper's name or unwrapped under it.
+ */
+public final class FieldTransform implements StepwiseVersionedModelConverter.Step {
+
+    /**
+     * @return a builder for a new transform
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private final Map<String, Rule> rules = new HashMap<String, Rule>();
+        private final List<String> wrapperNames = new ArrayList<String>();
+        private final List<String> defaultNames = new ArrayList<String>();
+        private final List<JsonNode> defaultValues = new ArrayList<JsonNode>();
+
+        private Builder() {
+        }
+
+        /**
+         * Renames a property.
+         */
+        public Builder rename(String name, String newName) {
+            return addRule(name, new Rule(Rule.RENAME, newName, -1));
+        }
+
+        /**
+         * Removes a property.
+         */
+        public Builder drop(String name) {
+            return addRule(name, new Rule(Rule.DROP, null, -1));
+        }
+
+        /**
+         * Adds a property with a default value if the model doesn't have it.
+         */
+        public Builder addDefault(String name, String value) {
+            return addDefault(name, JsonNodeFactory.instance.textNode(value));
+        }
+
+        /**
+         * Adds a property with a default value if the model doesn't have it.
+         */
+        public Builder addDefault(String name, long value) {
+            return addDefault(name, JsonNodeFactory.instance.numberNode(value));
+        }
+
+        /**
+         * Adds a property with a default value if the model doesn't have it.
+         */
+        public Builder addDefault(String name, double value) {
+            return addDefault(name, JsonNodeFactory.instance.numberNode(value));
+        }
+
+        /**
+         * Adds a property with a default value if the model doesn't have it.
+         */
+        public Builder addDefault(String name, boolean value) {
+            return addDefault(name, JsonNodeFactory.instance.booleanNode(value));
+        }
+
+        /**
+         * Adds a property with a default value if the model doesn't have it.
+         */
+        public Builder addDefault(String name, JsonNode value) {
+            if(defaultNames.contains(name))
+                throw new IllegalArgumentException("default for property '" + name + "' already added");
+            defaultNames.add(name);
+            defaultValues.add(value == null ? JsonNodeFactory.instance.nullNode() : value.deepCopy());
+            return this;
+        }
+
+        /**
+         * Moves properties into a nested object property. The wrapper is only written when at least one of the
+         * properties is present.
+         */
+        public Builder wrap(String wrapperName, String... names) {
+            int wrapperIndex = wrapperNames.indexOf(wrapperName);
+            if(wrapperIndex < 0) {
+                wrapperIndex = wrapperNames.size();
+                wrapperNames.add(wrapperName);
+            }
+            for(String name: names)
+                addRule(name, new Rule(Rule.WRAP, wrapperName, wrapperIndex));
+            return this;
+        }
+
+        /**
+         * Replaces a nested object property with the properties of that object. A null value is removed and any other
+         * value that isn't an object is left as-is.
+         */
+        public Builder unwrap(String name) {
+            return addRule(name, new Rule(Rule.UNWRAP, null, -1));
+        }
+
+        /**
+         * @throws IllegalArgumentException if a property is renamed to a wrapper's name or a wrapper's name is unwrapped
+         */
+        public FieldTransform build() {
+            for(String wrapperName: wrapperNames) {
+                Rule wrapperRule = rules.get(wrapperName);
+                if(wrapperRule != null && wrapperRule.type == Rule.UNWRAP)
+                    throw new IllegalArgumentException("wrapper '" + wrapperName + "' can't also be unwrapped");
+                for(Map.Entry<String, Rule> rule: rules.entrySet())
+                    if(rule.getValue().type == Rule.RENAME && rule.getValue().name.equals(wrapperName))
+                        throw new IllegalArgumentException("property '" + rule.getKey() + "' can't be renamed to wrapper '" + wrapperName + "'");
+            }
+            return new FieldTransform(this);
+        }
+
+        private Builder addRule(String name, Rule rule) {
+            if(rules.containsKey(name))
+                throw new IllegalArgumentException("property '" + name + "' already has a rule");
+            rules.put(name, rule);
+            return this;
+        }
+    }
+
+    static class Rule {
+        static final int RENAME = 0;
+        static final int DROP = 1;
+        static final int WRAP = 2;
+        static final int UNWRAP = 3;
+
+        final int type;
+        final String name;
+        final SerializableString serializedName;
+        final int wrapperIndex;
+
+        Rule(int type, String name, int wrapperIndex) {
+            this.type = type;
+            this.name = name;
+            this.serializedName = name != null ? new SerializedString(name) : null;
+            this.wrapperIndex = wrapperIndex;
+        }
+    }
+
+
+    private final Map<String, Rule> rules;
+    final String[] wrapperNames;
+    final String[] defaultNames;
+    final JsonNode[] defaultValues;
+    private final String[] fieldNames;
+    private final boolean unwraps;
+
+    private FieldTransform(Builder builder) {
+        this(
+            builder.rules,
+            builder.wrapperNames.toArray(new String[builder.wrapperNames.size()]),
+            builder.defaultNames.toArray(new String[builder.defaultNames.size()]),
+            builder.defaultValues.toArray(new JsonNode[builder.defaultValues.size()])
+        );
+    }
+
+    private FieldTransform(Map<String, Rule> rules, String[] wrapperNames, String[] defaultNames, JsonNode[] defaultValues) {
+        this.rules = new HashMap<String, Rule>(rules);
+
+        // the wrapper takes the place of any property with its name
+        for(String wrapperName: wrapperNames)
+            if(!this.rules.containsKey(wrapperName))
+                this.rules.put(wrapperName, new Rule(Rule.DROP, null, -1));
+        this.wrapperNames = wrapperNames;
+        this.defaultNames = defaultNames;
+        this.defaultValues = defaultValues;
+
+        Set<String> fieldNames = new LinkedHashSet<String>(this.rules.keySet());
+        boolean unwraps = false;
+        for(Rule rule: this.rules.values())
+            if(rule.type == Rule.RENAME)
+                fieldNames.add(rule.name);
+            else if(rule.type == Rule.UNWRAP)
+                unwraps = true;
+        fieldNames.addAll(Arrays.asList(wrapperNames));
+        fieldNames.addAll(Arrays.asList(defaultNames));
+        this.fieldNames = fieldNames.toArray(new String[fieldNames.size()]);
+        this.unwraps = unwraps;
+    }
+
+    /**
+     * Whether {@link #fuse(FieldTransform)} can combine this transform with the one applied after it. Transforms that
+     * touch different properties can't see each other's changes, unless the later one unwraps properties, which the
+     * earlier one's rules would then be applied to.
+     */
+    boolean canFuse(FieldTransform next) {
+        if(next.unwraps)
+            return false;
+        Set<String> names = new HashSet<String>(Arrays.asList(fieldNames));
+        for(String name: next.fieldNames)
+            if(names.contains(name))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return a transform that converts in one pass what this one and then the next one convert; only valid if
+     *         {@link #canFuse(FieldTransform)}
+     */
+    FieldTransform fuse(FieldTransform next) {
+        Map<String, Rule> rules = new HashMap<String, Rule>(this.rules);
+        for(Map.Entry<String, Rule> entry: next.rules.entrySet()) {
+            Rule rule = entry.getValue();
+            if(rule.type == Rule.WRAP)
+                rule = new Rule(Rule.WRAP, rule.name, wrapperNames.length + rule.wrapperIndex);
+            rules.put(entry.getKey(), rule);
+        }
+        return new FieldTransform(rules, concat(wrapperNames, next.wrapperNames), concat(defaultNames, next.defaultNames), concat(defaultValues, next.defaultValues));
+    }
+
+    private static <T> T[] concat(T[] a, T[] b) {
+        T[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    /**
+     * @return rule for a top-level property; null if it is left as-is
+     */
+    Rule getRule(String name) {
+        return rules.get(name);
+    }
+
+    /**
+     * @return every top-level property the transform reads or writes
+     */
+    String[] getFieldNames() {
+        return fieldNames.clone();
+    }
+
+    /**
+     * @return index of a property in {@link #defaultNames}; -1 if it has no default
+     */
+    int getDefaultIndex(String name) {
+        for(int i = 0; i < defaultNames.length; i++)
+            if(defaultNames[i].equals(name))
+                return i;
+        return -1;
+    }
+
+    @Override
+    public ObjectNode convert(ObjectNode modelData, JsonNodeFactory nodeFactory) {
+        ObjectNode result = nodeFactory.objectNode();
+        ObjectNode[] wrappers = new ObjectNode[wrapperNames.length];
+        convertFields(modelData, result, wrappers, nodeFactory);
+
+        for(int i = 0; i < wrappers.length; i++)
+            if(wrappers[i] != null)
+                result.set(wrapperNames[i], wrappers[i]);
+
+        for(int i = 0; i < defaultNames.length; i++)
+            if(!result.has(defaultNames[i]))
+                result.set(defaultNames[i], defaultValues[i].deepCopy());
+
+        return result;
+    }
+
+    private void convertFields(ObjectNode modelData, ObjectNode result, ObjectNode[] wrappers, JsonNodeFactory nodeFactory) {
+        for(Iterator<Map.Entry<String, JsonNode>> iterator = modelData.fields(); iterator.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = iterator.next();
+            Rule rule = rules.get(field.getKey());
+            if(rule == null) {
+                result.set(field.getKey(), field.getValue());
+                continue;
+            }
+
+            switch(rule.type) {
+                case Rule.RENAME:
+                    result.set(rule.name, field.getValue());
+                    break;
+
+                case Rule.WRAP:
+                    if(wrappers[rule.wrapperIndex] == null)
+                        wrappers[rule.wrapperIndex] = nodeFactory.objectNode();
+                    wrappers[rule.wrapperIndex].set(field.getKey(), field.getValue());
+                    break;
+
+                case Rule.UNWRAP:
+                    // unwrapped properties are top-level properties and are transformed as such
+                    if(field.getValue().isObject())
+                        convertFields((ObjectNode)field.getValue(), result, wrappers, nodeFactory);
+                    else if(!field.getValue().isNull())
+                        result.set(field.getKey(), field.getValue());
+                    break;
+
+                default:
+                    // dropped
+            }
+        }
+    }
+}
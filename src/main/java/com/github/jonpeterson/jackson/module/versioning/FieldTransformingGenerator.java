@@ -0,0 +1,217 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+import com.fasterxml.jackson.databind.node.TreeTraversingParser;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+
+/**
+ * Generator that applies a {@link FieldTransform} to the top-level properties of the model written through it. Dropped,
+ * wrapped and unwrapped properties are redirected to token buffers while they are written; wrapped properties and
+ * defaults for missing properties are written just before the model's object is closed.
+ */
+class FieldTransformingGenerator extends JsonGeneratorDelegate {
+    private final JsonGenerator target;
+    private final JsonStreamContext parentContext;
+    private final FieldTransform transform;
+
+    private TokenBuffer captureBuffer;
+    private JsonStreamContext captureContext;
+    private boolean captureUnwrapped;
+
+    private TokenBuffer discardBuffer;
+    private TokenBuffer[] wrapperBuffers;
+    private boolean[] defaultsSeen;
+
+    FieldTransformingGenerator(JsonGenerator target, FieldTransform transform) {
+        super(target);
+
+        this.target = target;
+        this.parentContext = target.getOutputContext();
+        this.transform = transform;
+    }
+
+    @Override
+    public void writeFieldName(String name) throws IOException {
+        resumeAfterCapture();
+        if(delegate == target && isAtModelLevel() && transformFieldName(name))
+            return;
+        delegate.writeFieldName(name);
+    }
+
+    @Override
+    public void writeFieldName(SerializableString name) throws IOException {
+        resumeAfterCapture();
+        if(delegate == target && isAtModelLevel() && transformFieldName(name.getValue()))
+            return;
+        delegate.writeFieldName(name);
+    }
+
+    // not an override before Jackson 2.8
+    public void writeFieldId(long id) throws IOException {
+        writeFieldName(Long.toString(id));
+    }
+
+    @Override
+    public void writeEndObject() throws IOException {
+        resumeAfterCapture();
+        if(delegate == target && isAtModelLevel()) {
+            if(wrapperBuffers != null)
+                for(int i = 0; i < wrapperBuffers.length; i++)
+                    if(wrapperBuffers[i] != null) {
+                        wrapperBuffers[i].writeEndObject();
+                        JsonParser wrapperParser = wrapperBuffers[i].asParser();
+                        wrapperParser.nextToken();
+                        fieldSeen(transform.wrapperNames[i]);
+                        target.writeFieldName(transform.wrapperNames[i]);
+                        target.copyCurrentStructure(wrapperParser);
+                        wrapperBuffers[i] = null;
+                    }
+
+            for(int i = 0; i < transform.defaultNames.length; i++)
+                if(defaultsSeen == null || !defaultsSeen[i]) {
+                    JsonParser defaultParser = new TreeTraversingParser(transform.defaultValues[i]);
+                    defaultParser.nextToken();
+                    target.writeFieldName(transform.defaultNames[i]);
+                    target.copyCurrentStructure(defaultParser);
+                }
+        }
+        delegate.writeEndObject();
+    }
+
+    // writes the field name itself and returns true if the transform handled it; otherwise it is written as-is
+    private boolean transformFieldName(String name) throws IOException {
+        FieldTransform.Rule rule = transform.getRule(name);
+        if(rule == null) {
+            fieldSeen(name);
+            return false;
+        }
+
+        switch(rule.type) {
+            case FieldTransform.Rule.RENAME:
+                fieldSeen(rule.name);
+                target.writeFieldName(rule.serializedName);
+                return true;
+
+            case FieldTransform.Rule.DROP:
+                if(discardBuffer == null)
+                    discardBuffer = newCaptureBuffer();
+                startCapture(discardBuffer, false);
+                return false;
+
+            case FieldTransform.Rule.WRAP:
+                if(wrapperBuffers == null)
+                    wrapperBuffers = new TokenBuffer[transform.wrapperNames.length];
+                if(wrapperBuffers[rule.wrapperIndex] == null)
+                    wrapperBuffers[rule.wrapperIndex] = newCaptureBuffer();
+                startCapture(wrapperBuffers[rule.wrapperIndex], false);
+                return false;
+
+            default:
+                // whether it can be unwrapped isn't known until its value has been written
+                startCapture(newCaptureBuffer(), true);
+                return false;
+        }
+    }
+
+    private TokenBuffer newCaptureBuffer() throws IOException {
+        TokenBuffer buffer = VersionedModelUtils.createTokenBuffer(target.getCodec());
+        buffer.writeStartObject();
+        return buffer;
+    }
+
+    private void startCapture(TokenBuffer buffer, boolean unwrapped) {
+        captureBuffer = buffer;
+        captureContext = buffer.getOutputContext();
+        captureUnwrapped = unwrapped;
+        delegate = buffer;
+    }
+
+    // the captured property's value is complete once the buffer is back at the level the property name was written at
+    private void resumeAfterCapture() throws IOException {
+        if(delegate == target || captureBuffer.getOutputContext() != captureContext)
+            return;
+
+        delegate = target;
+        if(captureUnwrapped) {
+            captureBuffer.writeEndObject();
+            JsonParser parser = captureBuffer.asParser();
+            parser.nextToken();
+            parser.nextToken();
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            // unwrapped properties are top-level properties and are transformed as such
+            if(value == JsonToken.START_OBJECT) {
+                while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                    writeFieldName(parser.getCurrentName());
+                    parser.nextToken();
+                    copyCurrentStructure(parser);
+                }
+
+                // the last unwrapped property may have been captured itself
+                resumeAfterCapture();
+            } else if(value != JsonToken.VALUE_NULL) {
+                fieldSeen(name);
+                target.writeFieldName(name);
+                target.copyCurrentStructure(parser);
+            }
+        }
+    }
+
+    // whether the next write lands directly in the model's object; captured writes are at model level while the buffer
+    //   is at its top-level object, and generators stacked on top of each other ask the one below rather than relying
+    //   on its output context, which follows its own captures
+    boolean isAtModelLevel() {
+        if(delegate != target)
+            return captureBuffer.getOutputContext() == captureContext;
+        if(target instanceof FieldTransformingGenerator)
+            return ((FieldTransformingGenerator)target).isAtModelLevel();
+        if(target instanceof VersionPropertyInjectingGenerator)
+            return ((VersionPropertyInjectingGenerator)target).isAtModelLevel();
+
+        JsonStreamContext context = target.getOutputContext();
+        return context.inObject() && context.getParent() == parentContext;
+    }
+
+    private void fieldSeen(String name) {
+        if(transform.defaultNames.length == 0)
+            return;
+
+        int index = transform.getDefaultIndex(name);
+        if(index >= 0) {
+            if(defaultsSeen == null)
+                defaultsSeen = new boolean[transform.defaultNames.length];
+            defaultsSeen[index] = true;
+        }
+    }
+}
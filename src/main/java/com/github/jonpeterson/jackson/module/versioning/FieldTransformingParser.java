@@ -0,0 +1,290 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+import com.fasterxml.jackson.databind.node.TreeTraversingParser;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+
+/**
+ * Parser that applies a {@link FieldTransform} to the top-level properties of the model object it starts at. Wrapped
+ * properties are held in token buffers until the end of the model, where they are replayed along with defaults for
+ * missing properties; everything else streams straight through.
+ */
+class FieldTransformingParser extends JsonParserDelegate {
+    private final JsonParser source;
+    private final FieldTransform transform;
+
+    // number of containers open within the model as of the last token read from the source; 0 outside of the model
+    private int depth;
+    private boolean expectingValue;
+    private int unwrappedObjects;
+    private boolean finished;
+
+    private TokenBuffer[] wrapperBuffers;
+    private boolean[] defaultsSeen;
+
+    // new name of the current field; also kept for the field's first value token since Jackson reports the field name there
+    private String renamedName;
+    private int renamedTokensLeft;
+
+    FieldTransformingParser(JsonParser source, FieldTransform transform) {
+        super(source);
+
+        this.source = source;
+        this.transform = transform;
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        if(renamedName != null && --renamedTokensLeft == 0)
+            renamedName = null;
+
+        // replay injected tokens before going back to the source
+        if(delegate != source) {
+            JsonToken token = delegate.nextToken();
+            if(token != null)
+                return token;
+            delegate = source;
+        }
+
+        while(true) {
+            JsonToken token = source.nextToken();
+            if(token == null || finished)
+                return token;
+
+            if(depth == 0) {
+                // only a model object is transformed
+                if(token == JsonToken.START_OBJECT)
+                    depth = 1;
+                else
+                    finished = true;
+                return token;
+            }
+
+            if(depth > 1 || expectingValue) {
+                expectingValue = false;
+                if(token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY)
+                    depth++;
+                else if(token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY)
+                    depth--;
+                return token;
+            }
+
+            if(token == JsonToken.END_OBJECT) {
+                if(unwrappedObjects > 0) {
+                    unwrappedObjects--;
+                    continue;
+                }
+                return endModel();
+            }
+
+            // at the model's top level, so the token is a field name
+            String name = source.getCurrentName();
+            FieldTransform.Rule rule = transform.getRule(name);
+            if(rule == null) {
+                fieldSeen(name);
+                return enterValue(token);
+            }
+
+            switch(rule.type) {
+                case FieldTransform.Rule.RENAME:
+                    fieldSeen(rule.name);
+                    renamedName = rule.name;
+                    renamedTokensLeft = 2;
+                    return enterValue(token);
+
+                case FieldTransform.Rule.DROP:
+                    source.nextToken();
+                    source.skipChildren();
+                    continue;
+
+                case FieldTransform.Rule.WRAP:
+                    if(wrapperBuffers == null)
+                        wrapperBuffers = new TokenBuffer[transform.wrapperNames.length];
+                    if(wrapperBuffers[rule.wrapperIndex] == null) {
+                        wrapperBuffers[rule.wrapperIndex] = VersionedModelUtils.createTokenBuffer(source.getCodec());
+                        wrapperBuffers[rule.wrapperIndex].writeStartObject();
+                    }
+                    wrapperBuffers[rule.wrapperIndex].copyCurrentStructure(source);
+                    continue;
+
+                default:
+                    JsonToken value = source.nextToken();
+                    if(value == JsonToken.START_OBJECT) {
+                        // the object's properties are now top-level properties
+                        unwrappedObjects++;
+                        continue;
+                    }
+                    if(value == JsonToken.VALUE_NULL)
+                        continue;
+
+                    // not an object; pass the property through as-is
+                    fieldSeen(name);
+                    TokenBuffer injected = VersionedModelUtils.createTokenBuffer(source.getCodec());
+                    injected.writeFieldName(name);
+                    injected.copyCurrentStructure(source);
+                    return inject(injected);
+            }
+        }
+    }
+
+    // the field name token is returned and its value streams through
+    private JsonToken enterValue(JsonToken fieldNameToken) {
+        expectingValue = true;
+        return fieldNameToken;
+    }
+
+    private JsonToken endModel() throws IOException {
+        depth = 0;
+        finished = true;
+
+        TokenBuffer injected = null;
+        if(wrapperBuffers != null)
+            for(int i = 0; i < wrapperBuffers.length; i++)
+                if(wrapperBuffers[i] != null) {
+                    if(injected == null)
+                        injected = VersionedModelUtils.createTokenBuffer(source.getCodec());
+                    wrapperBuffers[i].writeEndObject();
+                    JsonParser wrapperParser = wrapperBuffers[i].asParser();
+                    wrapperParser.nextToken();
+                    fieldSeen(transform.wrapperNames[i]);
+                    injected.writeFieldName(transform.wrapperNames[i]);
+                    injected.copyCurrentStructure(wrapperParser);
+                }
+
+        for(int i = 0; i < transform.defaultNames.length; i++)
+            if(defaultsSeen == null || !defaultsSeen[i]) {
+                if(injected == null)
+                    injected = VersionedModelUtils.createTokenBuffer(source.getCodec());
+                JsonParser defaultParser = new TreeTraversingParser(transform.defaultValues[i]);
+                defaultParser.nextToken();
+                injected.writeFieldName(transform.defaultNames[i]);
+                injected.copyCurrentStructure(defaultParser);
+            }
+
+        if(injected == null)
+            return JsonToken.END_OBJECT;
+
+        injected.writeEndObject();
+        return inject(injected);
+    }
+
+    private JsonToken inject(TokenBuffer injected) throws IOException {
+        delegate = injected.asParser(source);
+        return delegate.nextToken();
+    }
+
+    private void fieldSeen(String name) {
+        if(transform.defaultNames.length == 0)
+            return;
+
+        int index = transform.getDefaultIndex(name);
+        if(index >= 0) {
+            if(defaultsSeen == null)
+                defaultsSeen = new boolean[transform.defaultNames.length];
+            defaultsSeen[index] = true;
+        }
+    }
+
+    @Override
+    public JsonToken nextValue() throws IOException {
+        JsonToken token = nextToken();
+        if(token == JsonToken.FIELD_NAME)
+            token = nextToken();
+        return token;
+    }
+
+    @Override
+    public JsonParser skipChildren() throws IOException {
+        JsonToken token = getCurrentToken();
+        if(token != JsonToken.START_OBJECT && token != JsonToken.START_ARRAY)
+            return this;
+
+        int open = 1;
+        while(open > 0) {
+            token = nextToken();
+            if(token == null)
+                break;
+            if(token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY)
+                open++;
+            else if(token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY)
+                open--;
+        }
+        return this;
+    }
+
+    @Override
+    public String getCurrentName() throws IOException {
+        return renamedName != null ? renamedName : delegate.getCurrentName();
+    }
+
+    // not an override before Jackson 2.10, where deserializers started reading names through it
+    public String currentName() throws IOException {
+        return getCurrentName();
+    }
+
+    @Override
+    public String getText() throws IOException {
+        return isRenamedFieldName() ? renamedName : delegate.getText();
+    }
+
+    @Override
+    public char[] getTextCharacters() throws IOException {
+        return isRenamedFieldName() ? renamedName.toCharArray() : delegate.getTextCharacters();
+    }
+
+    @Override
+    public int getTextLength() throws IOException {
+        return isRenamedFieldName() ? renamedName.length() : delegate.getTextLength();
+    }
+
+    @Override
+    public int getTextOffset() throws IOException {
+        return isRenamedFieldName() ? 0 : delegate.getTextOffset();
+    }
+
+    @Override
+    public boolean hasTextCharacters() {
+        return !isRenamedFieldName() && delegate.hasTextCharacters();
+    }
+
+    @Override
+    public String getValueAsString() throws IOException {
+        return isRenamedFieldName() ? renamedName : delegate.getValueAsString();
+    }
+
+    @Override
+    public String getValueAsString(String defaultValue) throws IOException {
+        return isRenamedFieldName() ? renamedName : delegate.getValueAsString(defaultValue);
+    }
+
+    private boolean isRenamedFieldName() {
+        return renamedName != null && delegate.getCurrentToken() == JsonToken.FIELD_NAME;
+    }
+}
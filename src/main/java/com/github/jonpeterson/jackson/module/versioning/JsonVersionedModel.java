@@ -29,6 +29,7 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.Comparator;
 
 /**
  * Specifies model versioning details.
@@ -73,6 +74,18 @@ public @interface JsonVersionedModel {
      */
     boolean alwaysConvert() default false;
 
+    /**
+     * @return ranges of versions whose data is identical (ex. 1.0 through 1.3); unless {@link #alwaysConvert()} is set,
+     *         data is not sent to converters when converting between two versions in the same range
+     */
+    VersionRange[] compatibleVersionRanges() default {};
+
+    /**
+     * @return class of the comparator used to order versions when checking {@link #compatibleVersionRanges()}; must have
+     *         a no-argument constructor
+     */
+    Class<? extends Comparator<ModelVersion>> versionComparatorClass() default ModelVersion.DottedComparator.class;
+
     /**
      * @return name of property in which the model's version is stored in JSON
      */
@@ -83,4 +96,16 @@ public @interface JsonVersionedModel {
      *         is always serialized
      */
     String versionToSuppressPropertySerialization() default "";
+
+    /**
+     * @return whether to cache the serialized output of instances per target version in the module's
+     *         {@link SerializedModelCache}; only for immutable models
+     */
+    boolean cacheSerialized() default false;
+
+    /**
+     * @return whether to cache the data that input is converted to on deserialization in the module's
+     *         {@link ConvertedModelCache}, keyed by the input's content; for input that arrives repeatedly unchanged
+     */
+    boolean cacheConverted() default false;
 }
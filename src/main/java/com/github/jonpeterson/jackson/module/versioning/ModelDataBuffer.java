@@ -0,0 +1,359 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.json.JsonWriteContext;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.BinaryNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buffer a versioned model's tokens are captured in to build a tree for its converter. Nested versioned models that
+ * have built trees of their own hand them over as embedded nodes, which {@link VersionedModelUtils#readTree} adopts
+ * as-is, so their data isn't turned back into tokens and parsed again at every level of nesting.
+ * <p>
+ * With a {@link ModelDataSpill}, the tokens in memory are appended to a temporary file every time their names and values
+ * add up to more than its threshold, embedded nodes included. They are spilled in a binary form that keeps their number
+ * types, binary data and non-finite numbers, and read back with a {@link SpilledTokenParser}. The buffer must then be
+ * closed to remove the file.
+ */
+class ModelDataBuffer extends JsonGeneratorDelegate {
+
+    // a fresh token buffer takes over the write context of the spilled one so that the output context stays the same
+    //   object for generators wrapping this one; without it spilling is refused, see canSpill()
+    private static final Field WRITE_CONTEXT_FIELD;
+    static {
+        Field field;
+        try {
+            field = TokenBuffer.class.getDeclaredField("_writeContext");
+            field.setAccessible(true);
+            if(!field.getType().isAssignableFrom(JsonWriteContext.class))
+                field = null;
+        } catch(Exception e) {
+            field = null;
+        }
+        WRITE_CONTEXT_FIELD = field;
+    }
+
+    /**
+     * @return whether tokens can be spilled without wrapping generators losing track of the output context
+     */
+    static boolean canSpill() {
+        return WRITE_CONTEXT_FIELD != null;
+    }
+
+    private final ModelDataSpill spill;
+    private final ObjectCodec codec;
+    private TokenBuffer tokens;
+    private long size;
+
+    // once spilled
+    private File spillFile;
+    private DataOutputStream spillOutput;
+    private List<Object> spilledObjects;
+    private JsonParser spillParser;
+
+    ModelDataBuffer(ObjectCodec codec) {
+        this(codec, null);
+    }
+
+    /**
+     * @param spill where to move the tokens once they grow too large; null to keep them in memory
+     */
+    ModelDataBuffer(ObjectCodec codec, ModelDataSpill spill) {
+        this(VersionedModelUtils.createTokenBuffer(codec), codec, spill);
+    }
+
+    private ModelDataBuffer(TokenBuffer tokens, ObjectCodec codec, ModelDataSpill spill) {
+        super(tokens);
+        this.tokens = tokens;
+        this.codec = codec;
+        this.spill = spill;
+    }
+
+    /**
+     * @return the tokens captured in memory; null if any were spilled
+     */
+    TokenBuffer getTokens() {
+        return spillFile == null ? tokens : null;
+    }
+
+    /**
+     * @return parser over the captured tokens
+     */
+    JsonParser asParser() throws IOException {
+        return spillFile == null ? tokens.asParser() : openSpillParser(codec, JsonLocation.NA);
+    }
+
+    /**
+     * @return parser over the captured tokens that reports the source's location
+     */
+    JsonParser asParser(JsonParser source) throws IOException {
+        return spillFile == null ? tokens.asParser(source) : openSpillParser(source.getCodec(), source.getTokenLocation());
+    }
+
+    /**
+     * Appends a nested model's converted data as a single embedded value.
+     */
+    void writeModelData(ObjectNode modelData) throws IOException {
+        // without a codec, trees are embedded rather than serialized
+        tokens.setCodec(null);
+        try {
+            tokens.writeTree(modelData);
+        } finally {
+            tokens.setCodec(codec);
+        }
+        if(spill != null)
+            grow(estimateSize(modelData));
+    }
+
+    /**
+     * Removes the temporary file the tokens were spilled to, if any.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            try {
+                if(spillOutput != null)
+                    spillOutput.close();
+                if(spillParser != null)
+                    spillParser.close();
+            } finally {
+                if(spillFile != null)
+                    spillFile.delete();
+            }
+        }
+    }
+
+    private JsonParser openSpillParser(ObjectCodec codec, JsonLocation location) throws IOException {
+        if(spillOutput != null) {
+            spillTokens();
+            spillOutput.close();
+            spillOutput = null;
+        }
+        if(spillParser != null)
+            spillParser.close();
+        return spillParser = new SpilledTokenParser(spill.openInput(spillFile), codec, spilledObjects, location);
+    }
+
+    // counts roughly what the tokens cost in memory and appends them to the file past the threshold
+    private void grow(long bytes) throws IOException {
+        if(spill == null)
+            return;
+
+        size += bytes + 1;
+        if(size > spill.threshold)
+            spillTokens();
+    }
+
+    private void spillTokens() throws IOException {
+        if(spillFile == null) {
+            spillFile = spill.createFile();
+            spillOutput = spill.openOutput(spillFile);
+            spilledObjects = new ArrayList<Object>();
+        }
+        SpilledTokenParser.writeTokens(tokens.asParser(), spillOutput, spilledObjects);
+
+        TokenBuffer spilled = tokens;
+        tokens = VersionedModelUtils.createTokenBuffer(codec);
+        try {
+            WRITE_CONTEXT_FIELD.set(tokens, WRITE_CONTEXT_FIELD.get(spilled));
+        } catch(IllegalAccessException e) {
+            throw new IllegalStateException("failed to carry over the token buffer's write context", e);
+        }
+        delegate = tokens;
+        size = 0;
+    }
+
+    // names and text count by length, other values as a number's worth
+    private static long estimateSize(JsonNode node) {
+        long size = 1;
+        if(node.isObject())
+            for(Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                size += field.getKey().length() + 1 + estimateSize(field.getValue());
+            }
+        else if(node.isArray())
+            for(JsonNode element: node)
+                size += estimateSize(element);
+        else if(node.isTextual())
+            size += node.textValue().length();
+        else if(node.isBinary())
+            size += ((BinaryNode)node).binaryValue().length;
+        else
+            size += 8;
+        return size;
+    }
+
+    @Override
+    public void copyCurrentEvent(JsonParser parser) throws IOException {
+        delegate.copyCurrentEvent(parser);
+        if(spill != null) {
+            JsonToken token = parser.getCurrentToken();
+            grow(token == JsonToken.FIELD_NAME || token == JsonToken.VALUE_STRING ? parser.getTextLength() : 8);
+        }
+    }
+
+    @Override
+    public void copyCurrentStructure(JsonParser parser) throws IOException {
+        // copied event by event only when the size needs counting
+        if(spill == null) {
+            delegate.copyCurrentStructure(parser);
+            return;
+        }
+
+        JsonToken token = parser.getCurrentToken();
+        if(token == JsonToken.FIELD_NAME) {
+            copyCurrentEvent(parser);
+            token = parser.nextToken();
+        }
+        copyCurrentEvent(parser);
+        if(token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY)
+            for(int depth = 1; depth > 0; ) {
+                token = parser.nextToken();
+                if(token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY)
+                    depth++;
+                else if(token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY)
+                    depth--;
+                copyCurrentEvent(parser);
+            }
+    }
+
+    @Override
+    public void writeStartArray() throws IOException {
+        super.writeStartArray();
+        grow(0);
+    }
+
+    @Override
+    public void writeStartObject() throws IOException {
+        super.writeStartObject();
+        grow(0);
+    }
+
+    @Override
+    public void writeFieldName(String name) throws IOException {
+        super.writeFieldName(name);
+        grow(name.length());
+    }
+
+    @Override
+    public void writeFieldName(SerializableString name) throws IOException {
+        super.writeFieldName(name);
+        grow(name.charLength());
+    }
+
+    @Override
+    public void writeString(String text) throws IOException {
+        super.writeString(text);
+        grow(text == null ? 0 : text.length());
+    }
+
+    @Override
+    public void writeString(char[] text, int offset, int len) throws IOException {
+        super.writeString(text, offset, len);
+        grow(len);
+    }
+
+    @Override
+    public void writeNumber(int value) throws IOException {
+        super.writeNumber(value);
+        grow(4);
+    }
+
+    @Override
+    public void writeNumber(long value) throws IOException {
+        super.writeNumber(value);
+        grow(8);
+    }
+
+    @Override
+    public void writeNumber(double value) throws IOException {
+        super.writeNumber(value);
+        grow(8);
+    }
+
+    @Override
+    public void writeNumber(float value) throws IOException {
+        super.writeNumber(value);
+        grow(4);
+    }
+
+    @Override
+    public void writeNumber(BigInteger value) throws IOException {
+        super.writeNumber(value);
+        grow(16);
+    }
+
+    @Override
+    public void writeNumber(BigDecimal value) throws IOException {
+        super.writeNumber(value);
+        grow(16);
+    }
+
+    @Override
+    public void writeNumber(String encodedValue) throws IOException {
+        super.writeNumber(encodedValue);
+        grow(encodedValue.length());
+    }
+
+    @Override
+    public void writeBinary(Base64Variant base64Variant, byte[] data, int offset, int len) throws IOException {
+        super.writeBinary(base64Variant, data, offset, len);
+        grow(len);
+    }
+
+    @Override
+    public void writeBoolean(boolean state) throws IOException {
+        super.writeBoolean(state);
+        grow(0);
+    }
+
+    @Override
+    public void writeNull() throws IOException {
+        super.writeNull();
+        grow(0);
+    }
+}
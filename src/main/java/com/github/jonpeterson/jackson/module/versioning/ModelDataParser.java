@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TreeTraversingParser;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Parser a versioned model's converted tree is handed to its delegate deserializer through. Nested versioned models take
+ * their part of the tree directly from it instead of copying its tokens and building a tree of their own.
+ */
+class ModelDataParser extends TreeTraversingParser {
+    private final JsonNode root;
+    private final Map<JsonNode, ModelVersion> convertedVersions;
+
+    ModelDataParser(JsonNode modelData, ObjectCodec codec) {
+        this(modelData, codec, Collections.<JsonNode, ModelVersion>emptyMap());
+    }
+
+    /**
+     * @param convertedVersions source versions of the models in the tree that have already been converted, by node
+     *                          identity
+     */
+    ModelDataParser(JsonNode modelData, ObjectCodec codec, Map<JsonNode, ModelVersion> convertedVersions) {
+        super(modelData, codec);
+        this.root = modelData;
+        this.convertedVersions = convertedVersions;
+    }
+
+    /**
+     * @return the node of the current token; the container itself at its start token
+     */
+    JsonNode getCurrentNode() {
+        JsonNode node = currentNode();
+        JsonToken token = getCurrentToken();
+        if(node != null || (token != JsonToken.START_OBJECT && token != JsonToken.START_ARRAY))
+            return node;
+
+        // newer versions of Jackson step into a container as soon as its start token is read, so the container is
+        //   found by walking down from the root along the parsing context
+        LinkedList<JsonStreamContext> path = new LinkedList<JsonStreamContext>();
+        for(JsonStreamContext context = getParsingContext(); context != null && !context.inRoot(); context = context.getParent())
+            path.addFirst(context);
+
+        node = root;
+        for(JsonStreamContext context: path) {
+            if(context.inArray() && context.getCurrentIndex() >= 0)
+                node = node.get(context.getCurrentIndex());
+            else if(context.inObject() && context.getCurrentName() != null)
+                node = node.get(context.getCurrentName());
+            else
+                break;
+        }
+        return node;
+    }
+
+    /**
+     * @return the version the model was converted from; null if it hasn't been converted yet
+     */
+    ModelVersion getConvertedVersion(JsonNode node) {
+        return convertedVersions.get(node);
+    }
+}
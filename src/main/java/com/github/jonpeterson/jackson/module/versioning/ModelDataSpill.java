@@ -0,0 +1,68 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Where a {@link ModelDataBuffer} moves its tokens once they grow past {@link #threshold}. Spilled tokens are appended to
+ * a temporary file in the form written by {@link SpilledTokenParser#writeTokens} and streamed back from it.
+ */
+class ModelDataSpill {
+    final long threshold;
+    private final File directory;
+
+    /**
+     * @param threshold approximate number of bytes of tokens a buffer keeps in memory
+     * @param directory directory to create temporary files in; null for the default temporary directory
+     * @throws IllegalStateException if the Jackson version in use doesn't let buffers spill, see
+     *                               {@link ModelDataBuffer#canSpill()}
+     */
+    ModelDataSpill(long threshold, File directory) {
+        if(!ModelDataBuffer.canSpill())
+            throw new IllegalStateException("model data can't be spilled with this version of Jackson: the token buffer's write context can't be carried over");
+
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    File createFile() throws IOException {
+        return File.createTempFile("versioned-model-", ".tokens", directory);
+    }
+
+    DataOutputStream openOutput(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    DataInputStream openInput(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A parsed model version. Versions declared on models and converters are interned, so {@link #of(String)} returns the
+ * same instance for them every time; other versions, such as those read from input, are parsed per call and must be
+ * compared with {@link #equals(Object)}.
+ * <p>
+ * The natural ordering is {@link DottedComparator dotted}: the version is split on periods and each segment is compared
+ * numerically when both segments are numbers and lexicographically otherwise.
+ * <p>
+ * Note: the natural ordering is inconsistent with equals. Versions are equal only when their strings are, while the
+ * ordering treats numeric segments that differ only in leading zeros as the same (ex. 1.0 and 1.00 compare as 0).
+ * {@link NumericComparator} likewise treats versions with the same decimal value as the same (ex. 1.1 and 1.10). Sorted
+ * sets and maps of versions that may be written more than one way drop all but one of them.
+ */
+public final class ModelVersion implements Comparable<ModelVersion> {
+
+    /**
+     * Compares versions segment by segment (ex. 1.9 &lt; 1.10 &lt; 2). Numeric segments sort before non-numeric ones and
+     * a version sorts before any longer version it is a prefix of. This is the natural ordering of {@link ModelVersion}.
+     */
+    public static class DottedComparator implements Comparator<ModelVersion> {
+
+        @Override
+        public int compare(ModelVersion a, ModelVersion b) {
+            if(a == b)
+                return 0;
+
+            int count = Math.min(a.segments.length, b.segments.length);
+            for(int i = 0; i < count; i++) {
+                int result = compareSegments(a.segments[i], b.segments[i]);
+                if(result != 0)
+                    return result;
+            }
+            return a.segments.length - b.segments.length;
+        }
+
+        private static int compareSegments(String a, String b) {
+            boolean aNumeric = isDigits(a);
+            boolean bNumeric = isDigits(b);
+            if(aNumeric && bNumeric) {
+                a = stripLeadingZeros(a);
+                b = stripLeadingZeros(b);
+                if(a.length() != b.length())
+                    return a.length() < b.length() ? -1 : 1;
+                return a.compareTo(b);
+            }
+            if(aNumeric != bNumeric)
+                return aNumeric ? -1 : 1;
+            return a.compareTo(b);
+        }
+
+        private static String stripLeadingZeros(String digits) {
+            int i = 0;
+            while(i < digits.length() - 1 && digits.charAt(i) == '0')
+                i++;
+            return digits.substring(i);
+        }
+    }
+
+    /**
+     * Compares versions as decimal numbers (ex. 1.10 &lt; 1.9 &lt; 2). Non-numeric versions sort after numeric ones and
+     * are compared {@link DottedComparator dotted} among themselves.
+     */
+    public static class NumericComparator implements Comparator<ModelVersion> {
+
+        @Override
+        public int compare(ModelVersion a, ModelVersion b) {
+            if(a == b)
+                return 0;
+            if(a.decimalValue != null && b.decimalValue != null)
+                return a.decimalValue.compareTo(b.decimalValue);
+            if(a.decimalValue != null || b.decimalValue != null)
+                return a.decimalValue != null ? -1 : 1;
+            return DOTTED.compare(a, b);
+        }
+    }
+
+    /**
+     * Shared instance of {@link DottedComparator}.
+     */
+    public static final Comparator<ModelVersion> DOTTED = new DottedComparator();
+
+    /**
+     * Shared instance of {@link NumericComparator}.
+     */
+    public static final Comparator<ModelVersion> NUMERIC = new NumericComparator();
+
+    // only declared versions are added, so the pool doesn't grow with untrusted input
+    private static final ConcurrentMap<String, ModelVersion> INTERNED = new ConcurrentHashMap<String, ModelVersion>();
+
+    /**
+     * @param value version string
+     * @return the parsed version; the interned instance if the version has been declared
+     */
+    public static ModelVersion of(String value) {
+        ModelVersion version = INTERNED.get(value);
+        return version != null ? version : new ModelVersion(value);
+    }
+
+    /**
+     * Parses a version declared on a model or converter and adds it to the intern pool.
+     *
+     * @param value version string
+     * @return the interned version
+     */
+    static ModelVersion intern(String value) {
+        ModelVersion version = INTERNED.get(value);
+        if(version == null) {
+            version = new ModelVersion(value);
+            ModelVersion existing = INTERNED.putIfAbsent(value, version);
+            if(existing != null)
+                version = existing;
+        }
+        return version;
+    }
+
+    private static boolean isDigits(String value) {
+        if(value.isEmpty())
+            return false;
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c < '0' || c > '9')
+                return false;
+        }
+        return true;
+    }
+
+
+    private final String value;
+    private final String[] segments;
+    private final BigDecimal decimalValue;
+    private final Integer intValue;
+    private SerializableString serializedValue;
+
+    private ModelVersion(String value) {
+        if(value == null)
+            throw new IllegalArgumentException("version must not be null");
+
+        this.value = value;
+        this.segments = value.split("\\.", -1);
+
+        BigDecimal decimalValue = null;
+        Integer intValue = null;
+        if(segments.length <= 2 && isDigits(segments[0]) && (segments.length == 1 || isDigits(segments[1]))) {
+            decimalValue = new BigDecimal(value);
+            if(segments.length == 1 && segments[0].length() < 10)
+                intValue = Integer.valueOf(value);
+        }
+        this.decimalValue = decimalValue;
+        this.intValue = intValue;
+    }
+
+    /**
+     * @return the version string
+     */
+    public String getValue() {
+        return value;
+    }
+
+    // pre-encoded for writing; racing threads at worst encode it twice
+    SerializableString getSerializedValue() {
+        SerializableString serializedValue = this.serializedValue;
+        if(serializedValue == null)
+            this.serializedValue = serializedValue = new SerializedString(value);
+        return serializedValue;
+    }
+
+    /**
+     * @return the number of period-delimited segments in the version
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * @param index index of the segment
+     * @return the period-delimited segment at the index
+     */
+    public String getSegment(int index) {
+        return segments[index];
+    }
+
+    /**
+     * @return whether the version is a plain integer (ex. 3)
+     */
+    public boolean isInteger() {
+        return intValue != null;
+    }
+
+    /**
+     * @return the version as an integer
+     * @throws NumberFormatException if the version is not a plain integer
+     */
+    public int intValue() {
+        if(intValue == null)
+            throw new NumberFormatException("version '" + value + "' is not an integer");
+        return intValue;
+    }
+
+    /**
+     * @param other version to compare to
+     * @return whether this version sorts before the other in the natural ordering
+     */
+    public boolean isBefore(ModelVersion other) {
+        return compareTo(other) < 0;
+    }
+
+    /**
+     * @param other version to compare to
+     * @return whether this version sorts after the other in the natural ordering
+     */
+    public boolean isAfter(ModelVersion other) {
+        return compareTo(other) > 0;
+    }
+
+    @Override
+    public int compareTo(ModelVersion other) {
+        return DOTTED.compare(this, other);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other || (other instanceof ModelVersion && value.equals(((ModelVersion)other).value));
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
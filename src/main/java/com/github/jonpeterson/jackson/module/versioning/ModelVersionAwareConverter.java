@@ -0,0 +1,50 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Converter that receives versions as parsed {@link ModelVersion}s instead of strings, so they don't have to be parsed
+ * again on every call.
+ */
+public abstract class ModelVersionAwareConverter implements VersionedModelConverter {
+
+    /**
+     * Returns JSON data in the target version.
+     *
+     * @param modelData          data to be converted
+     * @param modelVersion       version of the data
+     * @param targetModelVersion version of the data to be returned
+     * @param nodeFactory        node factory
+     * @return model data converted to target version
+     */
+    public abstract ObjectNode convert(ObjectNode modelData, ModelVersion modelVersion, ModelVersion targetModelVersion, JsonNodeFactory nodeFactory);
+
+    @Override
+    public final ObjectNode convert(ObjectNode modelData, String modelVersion, String targetModelVersion, JsonNodeFactory nodeFactory) {
+        return convert(modelData, ModelVersion.of(modelVersion), ModelVersion.of(targetModelVersion), nodeFactory);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generator that converts only the top-level properties a {@link FieldScopedConverter} declares. Those properties are
+ * redirected to a token buffer while they are written; every other property is written straight through. The captured
+ * properties are built into a tree, converted and written just before the model's object is closed.
+ */
+class PartialConvertingGenerator extends JsonGeneratorDelegate {
+    private final VersionPropertyInjectingGenerator target;
+    private final Set<String> fieldNames;
+    private final VersionedModelPlan plan;
+    private final ModelVersion targetVersion;
+    private final VersioningInstrumentation instrumentation;
+
+    private TokenBuffer captureBuffer;
+    private JsonStreamContext captureContext;
+    private boolean converted;
+
+    /**
+     * @param target          generator to write the model to
+     * @param fieldNames      top-level properties the conversion reads or writes
+     * @param plan            plan of the model
+     * @param targetVersion   version to convert the model to
+     * @param instrumentation instrumentation to report the conversion to
+     */
+    PartialConvertingGenerator(VersionPropertyInjectingGenerator target, Set<String> fieldNames, VersionedModelPlan plan, ModelVersion targetVersion, VersioningInstrumentation instrumentation) {
+        super(target);
+
+        this.target = target;
+        this.fieldNames = fieldNames;
+        this.plan = plan;
+        this.targetVersion = targetVersion;
+        this.instrumentation = instrumentation;
+    }
+
+    @Override
+    public void writeFieldName(String name) throws IOException {
+        resumeAfterCapture();
+        if(isCaptured(name))
+            startCapture();
+        delegate.writeFieldName(name);
+    }
+
+    @Override
+    public void writeFieldName(SerializableString name) throws IOException {
+        resumeAfterCapture();
+        if(isCaptured(name.getValue()))
+            startCapture();
+        delegate.writeFieldName(name);
+    }
+
+    // not an override before Jackson 2.8
+    public void writeFieldId(long id) throws IOException {
+        writeFieldName(Long.toString(id));
+    }
+
+    @Override
+    public void writeEndObject() throws IOException {
+        resumeAfterCapture();
+        if(delegate == target && !converted && target.isAtModelLevel()) {
+            converted = true;
+            writeConvertedFields();
+        }
+        delegate.writeEndObject();
+    }
+
+    private void writeConvertedFields() throws IOException {
+        ObjectNode modelData;
+        if(captureBuffer != null) {
+            captureBuffer.writeEndObject();
+            modelData = (ObjectNode)VersionedModelUtils.readTree(captureBuffer.asParser(), JsonNodeFactory.instance);
+            captureBuffer = null;
+        } else
+            modelData = JsonNodeFactory.instance.objectNode();
+
+        modelData.remove(plan.propertyName);
+        if(plan.hasSerializeToVersionProperty())
+            modelData.remove(plan.serializeToVersionPropertyName);
+
+        boolean instrumented = instrumentation != VersioningInstrumentation.NONE;
+        long start = instrumented ? System.nanoTime() : 0;
+        modelData = VersionedModelUtils.convert(plan.converter, modelData, plan.currentVersion, targetVersion, JsonNodeFactory.instance);
+        if(instrumented)
+            instrumentation.conversion(plan.modelClass, VersioningInstrumentation.Operation.SERIALIZATION, plan.currentVersion, targetVersion, System.nanoTime() - start);
+
+        // names go through the target so that it can still drop the version and serializeToVersion properties
+        for(Iterator<Map.Entry<String, JsonNode>> fields = modelData.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonParser valueParser = field.getValue().traverse();
+            valueParser.nextToken();
+            target.writeFieldName(field.getKey());
+            target.copyCurrentStructure(valueParser);
+        }
+    }
+
+    private boolean isCaptured(String name) {
+        return delegate == target && fieldNames.contains(name) && target.isAtModelLevel();
+    }
+
+    private void startCapture() throws IOException {
+        if(captureBuffer == null) {
+            captureBuffer = VersionedModelUtils.createTokenBuffer(target.getCodec());
+            captureBuffer.writeStartObject();
+            captureContext = captureBuffer.getOutputContext();
+        }
+        delegate = captureBuffer;
+    }
+
+    // the captured property's value is complete once the buffer is back at the level the property name was written at
+    private void resumeAfterCapture() {
+        if(delegate == captureBuffer && captureBuffer.getOutputContext() == captureContext)
+            delegate = target;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Keys of serialization attributes that choose the version to serialize versioned models to for a single write call,
+ * so models can be shared as they are instead of copied to set their {@link JsonSerializeToVersion} property.
+ * <pre>
+ * mapper.writer().withAttribute(SerializeToVersionAttributes.forModel(Car.class), "1").writeValueAsString(car);
+ * mapper.writer().withAttribute(SerializeToVersionAttributes.ALL_MODELS, "1").writeValueAsString(cars);
+ * </pre>
+ * Values may be a String or a {@link ModelVersion}; an empty String serializes to the current version. The attribute
+ * for a model class takes precedence over {@link #ALL_MODELS}, which takes precedence over the model's
+ * {@link JsonSerializeToVersion} property and {@link JsonVersionedModel#defaultSerializeToVersion()}. The attributes
+ * are resolved once per model class per write call.
+ * <p>
+ * Attributes were added in Jackson 2.3; they are ignored by earlier versions.
+ */
+public final class SerializeToVersionAttributes {
+
+    /**
+     * Key of the version to serialize every versioned model to that has no attribute of its own.
+     */
+    public static final Object ALL_MODELS = new Key(null);
+
+    // attributes are a per-call map from Jackson 2.3 on, so they are called reflectively; null before then
+    private static final Method GET_ATTRIBUTE = getProviderMethod("getAttribute", Object.class);
+    private static final Method SET_ATTRIBUTE = getProviderMethod("setAttribute", Object.class, Object.class);
+
+    // stands in for no attribute in the per-call map
+    private static final Object NOT_SET = new Object();
+
+    private static Method getProviderMethod(String name, Class<?>... parameterTypes) {
+        try {
+            return SerializerProvider.class.getMethod(name, parameterTypes);
+        } catch(NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Object invoke(Method method, SerializerProvider provider, Object... args) {
+        try {
+            return method.invoke(provider, args);
+        } catch(InvocationTargetException e) {
+            throw new IllegalStateException("failed to access serialization attributes", e.getCause());
+        } catch(IllegalAccessException e) {
+            throw new IllegalStateException("failed to access serialization attributes", e);
+        }
+    }
+
+    private SerializeToVersionAttributes() {
+    }
+
+    /**
+     * @param modelClass versioned model class; subclasses with their own {@link JsonVersionedModel} need their own key
+     * @return key of the version to serialize models of the class to
+     */
+    public static Object forModel(Class<?> modelClass) {
+        if(modelClass == null)
+            throw new IllegalArgumentException("modelClass must not be null");
+        return new Key(modelClass);
+    }
+
+    /**
+     * @return the version set for the plan's model by the write call's attributes; null if none is set
+     */
+    static ModelVersion getSerializeToVersion(SerializerProvider provider, VersionedModelPlan plan) {
+        if(GET_ATTRIBUTE == null || SET_ATTRIBUTE == null || provider == null)
+            return null;
+
+        // the plan is the key of what was resolved for its model earlier in the same call
+        Object resolved = invoke(GET_ATTRIBUTE, provider, plan);
+        if(resolved == null) {
+            Object value = invoke(GET_ATTRIBUTE, provider, new Key(plan.modelClass));
+            if(value == null)
+                value = invoke(GET_ATTRIBUTE, provider, ALL_MODELS);
+            resolved = value == null ? NOT_SET : toModelVersion(value, plan);
+            invoke(SET_ATTRIBUTE, provider, plan, resolved);
+        }
+        return resolved == NOT_SET ? null : (ModelVersion)resolved;
+    }
+
+    private static ModelVersion toModelVersion(Object value, VersionedModelPlan plan) {
+        if(value instanceof ModelVersion)
+            return (ModelVersion)value;
+        if(value instanceof String)
+            return ((String)value).isEmpty() ? plan.currentVersion : ModelVersion.of((String)value);
+        throw new IllegalArgumentException("serialize to version attribute for " + plan.modelClass.getName() + " must be a String or " + ModelVersion.class.getSimpleName() + " but was " + value.getClass().getName());
+    }
+
+
+    private static final class Key {
+        private final Class<?> modelClass;
+
+        private Key(Class<?> modelClass) {
+            this.modelClass = modelClass;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key)other).modelClass == modelClass;
+        }
+
+        @Override
+        public int hashCode() {
+            return modelClass == null ? 0 : modelClass.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "serializeToVersion(" + (modelClass == null ? "*" : modelClass.getName()) + ")";
+        }
+    }
+}
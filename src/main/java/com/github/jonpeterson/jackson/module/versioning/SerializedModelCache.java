@@ -0,0 +1,273 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.json.JsonGeneratorImpl;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the serialized output of models annotated with {@link JsonVersionedModel#cacheSerialized()}, per
+ * target version. Entries are keyed by the model's {@link VersionStamped#versionStamp() version stamp} if it has one
+ * and by its identity otherwise, and evicted least recently used first. The cache is split into independently locked
+ * segments so that threads serializing different models rarely contend.
+ * <p>
+ * Output is kept as tokens. When written to a plain JSON generator without pretty printing or custom escaping, it is
+ * written as a raw value encoded once from those tokens.
+ */
+public class SerializedModelCache {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
+
+    /**
+     * @param maxEntries maximum number of model and target version pairs to keep
+     */
+    public SerializedModelCache(int maxEntries) {
+        if(maxEntries < SEGMENTS)
+            throw new IllegalArgumentException("maxEntries must be at least " + SEGMENTS);
+
+        for(int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(maxEntries / SEGMENTS + (i < maxEntries % SEGMENTS ? 1 : 0));
+    }
+
+    /**
+     * @return number of times output was served from the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of times output had to be serialized
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of entries evicted to make room for others
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return number of entries in the cache
+     */
+    public int size() {
+        int size = 0;
+        for(Segment segment: segments)
+            synchronized(segment) {
+                size += segment.size();
+            }
+        return size;
+    }
+
+    /**
+     * Removes every entry. Must be called when cached models change.
+     */
+    public void clear() {
+        for(Segment segment: segments)
+            synchronized(segment) {
+                segment.clear();
+            }
+    }
+
+    Entry get(Key key) {
+        Segment segment = segmentFor(key);
+        Entry entry;
+        synchronized(segment) {
+            entry = segment.get(key);
+        }
+
+        if(entry != null)
+            hits.increment();
+        else
+            misses.increment();
+        return entry;
+    }
+
+    Entry put(Key key, TokenBuffer tokens) {
+        Entry entry = new Entry(tokens);
+        Segment segment = segmentFor(key);
+        synchronized(segment) {
+            segment.put(key, entry);
+        }
+        return entry;
+    }
+
+    private Segment segmentFor(Key key) {
+        // spread the hash so that segments aren't picked by the low bits of identity hash codes alone
+        int hash = key.hashCode;
+        hash ^= (hash >>> 16);
+        return segments[hash & (SEGMENTS - 1)];
+    }
+
+
+    private class Segment extends LinkedHashMap<Key, Entry> {
+        private final int maxEntries;
+
+        Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if(size() <= maxEntries)
+                return false;
+            evictions.increment();
+            return true;
+        }
+    }
+
+    /**
+     * A model (or its version stamp) and the version it is serialized to.
+     */
+    static class Key {
+        private final Class<?> modelClass;
+        private final Object model;
+        private final Object versionStamp;
+        private final ModelVersion targetVersion;
+        private final int hashCode;
+
+        /**
+         * @return key of the model's output at the target version; null if the model has a null version stamp and its
+         *         output isn't to be cached
+         */
+        static Key of(Class<?> modelClass, Object model, ModelVersion targetVersion) {
+            if(!(model instanceof VersionStamped))
+                return new Key(modelClass, model, null, targetVersion);
+
+            Object versionStamp = ((VersionStamped)model).versionStamp();
+            return versionStamp != null ? new Key(modelClass, null, versionStamp, targetVersion) : null;
+        }
+
+        private Key(Class<?> modelClass, Object model, Object versionStamp, ModelVersion targetVersion) {
+            this.modelClass = modelClass;
+            this.model = model;
+            this.versionStamp = versionStamp;
+            this.targetVersion = targetVersion;
+            int identity = versionStamp != null ? versionStamp.hashCode() : System.identityHashCode(model);
+            this.hashCode = (modelClass.hashCode() * 31 + identity) * 31 + targetVersion.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(this == other)
+                return true;
+            if(!(other instanceof Key))
+                return false;
+
+            Key key = (Key)other;
+            return hashCode == key.hashCode &&
+                modelClass == key.modelClass &&
+                model == key.model &&
+                (versionStamp == null ? key.versionStamp == null : versionStamp.equals(key.versionStamp)) &&
+                targetVersion.equals(key.targetVersion);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Serialized output of a model at a target version.
+     */
+    static class Entry {
+        // looked up by name since the constants are deprecated in favor of JsonWriteFeature from Jackson 2.10 on, which
+        //   older versions don't have; generators still report the JsonWriteFeature settings through them
+        private static final JsonGenerator.Feature QUOTE_FIELD_NAMES = JsonGenerator.Feature.valueOf("QUOTE_FIELD_NAMES");
+        private static final JsonGenerator.Feature QUOTE_NON_NUMERIC_NUMBERS = JsonGenerator.Feature.valueOf("QUOTE_NON_NUMERIC_NUMBERS");
+        private static final JsonGenerator.Feature WRITE_NUMBERS_AS_STRINGS = JsonGenerator.Feature.valueOf("WRITE_NUMBERS_AS_STRINGS");
+        private static final JsonGenerator.Feature ESCAPE_NON_ASCII = JsonGenerator.Feature.valueOf("ESCAPE_NON_ASCII");
+
+        private final TokenBuffer tokens;
+
+        // encoded on the first raw write; racing threads at worst encode it twice
+        private String raw;
+
+        Entry(TokenBuffer tokens) {
+            this.tokens = tokens;
+        }
+
+        void writeTo(JsonGenerator generator) throws IOException {
+            if(isPlainJson(generator)) {
+                String raw = this.raw;
+                if(raw == null)
+                    this.raw = raw = encode(generator.getCodec());
+                generator.writeRawValue(raw);
+            } else
+                replay(generator);
+        }
+
+        private String encode(ObjectCodec codec) throws IOException {
+            StringWriter writer = new StringWriter();
+            JsonGenerator generator = new JsonFactory().createGenerator(writer);
+            generator.setCodec(codec);
+            replay(generator);
+            generator.close();
+            return writer.toString();
+        }
+
+        // trees embedded by nested models are written without a codec, which not every generator has
+        private void replay(JsonGenerator generator) throws IOException {
+            JsonParser parser = tokens.asParser();
+            while(parser.nextToken() != null) {
+                if(parser.getCurrentToken() == JsonToken.VALUE_EMBEDDED_OBJECT && parser.getEmbeddedObject() instanceof JsonNode)
+                    VersionedModelUtils.writeTree((JsonNode)parser.getEmbeddedObject(), generator);
+                else
+                    generator.copyCurrentEvent(parser);
+            }
+        }
+
+        // raw output is encoded with default settings, so only generators that would write the tokens the same way
+        //   can take it
+        private static boolean isPlainJson(JsonGenerator generator) {
+            return generator instanceof JsonGeneratorImpl &&
+                generator.getPrettyPrinter() == null &&
+                generator.getCharacterEscapes() == null &&
+                generator.isEnabled(QUOTE_FIELD_NAMES) &&
+                generator.isEnabled(QUOTE_NON_NUMERIC_NUMBERS) &&
+                !generator.isEnabled(WRITE_NUMBERS_AS_STRINGS) &&
+                !generator.isEnabled(ESCAPE_NON_ASCII);
+        }
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.core.base.ParserMinimalBase;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Parser over tokens spilled to a file by a {@link ModelDataBuffer}. The tokens are encoded as a tag byte followed by
+ * the value in a fixed binary form, so they read back with the same number types (ex. BigDecimal and float), binary
+ * data and non-finite numbers they were written with. Trees embedded by nested models are written as their tokens.
+ * Other embedded objects stay in memory and only their index in a list is written.
+ */
+class SpilledTokenParser extends ParserMinimalBase {
+    private static final int START_OBJECT_TAG = 1;
+    private static final int END_OBJECT_TAG = 2;
+    private static final int START_ARRAY_TAG = 3;
+    private static final int END_ARRAY_TAG = 4;
+    private static final int FIELD_NAME_TAG = 5;
+    private static final int STRING_TAG = 6;
+    private static final int INT_TAG = 7;
+    private static final int LONG_TAG = 8;
+    private static final int BIG_INTEGER_TAG = 9;
+    private static final int FLOAT_TAG = 10;
+    private static final int DOUBLE_TAG = 11;
+    private static final int BIG_DECIMAL_TAG = 12;
+    private static final int TRUE_TAG = 13;
+    private static final int FALSE_TAG = 14;
+    private static final int NULL_TAG = 15;
+    private static final int BINARY_TAG = 16;
+    private static final int EMBEDDED_OBJECT_TAG = 17;
+
+    /**
+     * Writes the parser's remaining tokens.
+     *
+     * @param parser          parser to copy the tokens of
+     * @param output          where to write the tokens
+     * @param embeddedObjects where to keep embedded objects that aren't trees or binary data
+     */
+    static void writeTokens(JsonParser parser, DataOutputStream output, List<Object> embeddedObjects) throws IOException {
+        for(JsonToken token = parser.nextToken(); token != null; token = parser.nextToken())
+            switch(token) {
+                case START_OBJECT:
+                    output.writeByte(START_OBJECT_TAG);
+                    break;
+                case END_OBJECT:
+                    output.writeByte(END_OBJECT_TAG);
+                    break;
+                case START_ARRAY:
+                    output.writeByte(START_ARRAY_TAG);
+                    break;
+                case END_ARRAY:
+                    output.writeByte(END_ARRAY_TAG);
+                    break;
+                case FIELD_NAME:
+                    output.writeByte(FIELD_NAME_TAG);
+                    writeString(parser.getText(), output);
+                    break;
+                case VALUE_STRING:
+                    output.writeByte(STRING_TAG);
+                    writeString(parser.getText(), output);
+                    break;
+                case VALUE_NUMBER_INT:
+                case VALUE_NUMBER_FLOAT:
+                    writeNumber(parser.getNumberType(), parser.getNumberValue(), output);
+                    break;
+                case VALUE_TRUE:
+                    output.writeByte(TRUE_TAG);
+                    break;
+                case VALUE_FALSE:
+                    output.writeByte(FALSE_TAG);
+                    break;
+                case VALUE_NULL:
+                    output.writeByte(NULL_TAG);
+                    break;
+                case VALUE_EMBEDDED_OBJECT:
+                    Object value = parser.getEmbeddedObject();
+                    if(value instanceof JsonNode)
+                        writeTokens(((JsonNode)value).traverse(), output, embeddedObjects);
+                    else if(value instanceof byte[]) {
+                        output.writeByte(BINARY_TAG);
+                        writeBytes((byte[])value, output);
+                    } else {
+                        output.writeByte(EMBEDDED_OBJECT_TAG);
+                        output.writeInt(embeddedObjects.size());
+                        embeddedObjects.add(value);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("unexpected token " + token);
+            }
+    }
+
+    private static void writeNumber(NumberType type, Number value, DataOutputStream output) throws IOException {
+        switch(type) {
+            case INT:
+                output.writeByte(INT_TAG);
+                output.writeInt(value.intValue());
+                break;
+            case LONG:
+                output.writeByte(LONG_TAG);
+                output.writeLong(value.longValue());
+                break;
+            case BIG_INTEGER:
+                output.writeByte(BIG_INTEGER_TAG);
+                writeBytes(((BigInteger)value).toByteArray(), output);
+                break;
+            case FLOAT:
+                output.writeByte(FLOAT_TAG);
+                output.writeFloat(value.floatValue());
+                break;
+            case DOUBLE:
+                output.writeByte(DOUBLE_TAG);
+                output.writeDouble(value.doubleValue());
+                break;
+            default:
+                BigDecimal decimal = (BigDecimal)value;
+                output.writeByte(BIG_DECIMAL_TAG);
+                output.writeInt(decimal.scale());
+                writeBytes(decimal.unscaledValue().toByteArray(), output);
+        }
+    }
+
+    private static void writeString(String value, DataOutputStream output) throws IOException {
+        writeBytes(value.getBytes("UTF-8"), output);
+    }
+
+    private static void writeBytes(byte[] value, DataOutputStream output) throws IOException {
+        output.writeInt(value.length);
+        output.write(value);
+    }
+
+
+    private final DataInputStream input;
+    private final List<Object> embeddedObjects;
+    private final JsonLocation location;
+    private ObjectCodec codec;
+    private Context context = Context.createRoot();
+    private boolean closed;
+
+    // of the current token
+    private String text;
+    private Object value;
+    private NumberType numberType;
+
+    /**
+     * @param input           tokens written by {@link #writeTokens(JsonParser, DataOutputStream, List)}
+     * @param codec           codec of the parser
+     * @param embeddedObjects objects the embedded object indexes in the input refer to
+     * @param location        location reported for every token
+     */
+    SpilledTokenParser(DataInputStream input, ObjectCodec codec, List<Object> embeddedObjects, JsonLocation location) {
+        this.input = input;
+        this.codec = codec;
+        this.embeddedObjects = embeddedObjects;
+        this.location = location;
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        int tag = closed ? -1 : input.read();
+        text = null;
+        value = null;
+        numberType = null;
+
+        switch(tag) {
+            case -1:
+                return _currToken = null;
+            case START_OBJECT_TAG:
+                context.valueStarted();
+                context = context.createChild(true);
+                return _currToken = JsonToken.START_OBJECT;
+            case END_OBJECT_TAG:
+                context = context.getParentOrSelf();
+                return _currToken = JsonToken.END_OBJECT;
+            case START_ARRAY_TAG:
+                context.valueStarted();
+                context = context.createChild(false);
+                return _currToken = JsonToken.START_ARRAY;
+            case END_ARRAY_TAG:
+                context = context.getParentOrSelf();
+                return _currToken = JsonToken.END_ARRAY;
+            case FIELD_NAME_TAG:
+                text = readString();
+                context.fieldStarted(text);
+                return _currToken = JsonToken.FIELD_NAME;
+            case STRING_TAG:
+                text = readString();
+                return valueToken(JsonToken.VALUE_STRING);
+            case INT_TAG:
+                return numberToken(NumberType.INT, input.readInt());
+            case LONG_TAG:
+                return numberToken(NumberType.LONG, input.readLong());
+            case BIG_INTEGER_TAG:
+                return numberToken(NumberType.BIG_INTEGER, new BigInteger(readBytes()));
+            case FLOAT_TAG:
+                return numberToken(NumberType.FLOAT, input.readFloat());
+            case DOUBLE_TAG:
+                return numberToken(NumberType.DOUBLE, input.readDouble());
+            case BIG_DECIMAL_TAG:
+                int scale = input.readInt();
+                return numberToken(NumberType.BIG_DECIMAL, new BigDecimal(new BigInteger(readBytes()), scale));
+            case TRUE_TAG:
+                return valueToken(JsonToken.VALUE_TRUE);
+            case FALSE_TAG:
+                return valueToken(JsonToken.VALUE_FALSE);
+            case NULL_TAG:
+                return valueToken(JsonToken.VALUE_NULL);
+            case BINARY_TAG:
+                value = readBytes();
+                return valueToken(JsonToken.VALUE_EMBEDDED_OBJECT);
+            case EMBEDDED_OBJECT_TAG:
+                value = embeddedObjects.get(input.readInt());
+                return valueToken(JsonToken.VALUE_EMBEDDED_OBJECT);
+            default:
+                throw _constructError("unexpected tag " + tag + " in spilled model data");
+        }
+    }
+
+    private JsonToken valueToken(JsonToken token) {
+        context.valueStarted();
+        return _currToken = token;
+    }
+
+    private JsonToken numberToken(NumberType type, Number number) {
+        numberType = type;
+        value = number;
+        return valueToken(type == NumberType.INT || type == NumberType.LONG || type == NumberType.BIG_INTEGER ? JsonToken.VALUE_NUMBER_INT : JsonToken.VALUE_NUMBER_FLOAT);
+    }
+
+    private String readString() throws IOException {
+        return new String(readBytes(), "UTF-8");
+    }
+
+    private byte[] readBytes() throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    @Override
+    protected void _handleEOF() {
+    }
+
+    @Override
+    public ObjectCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void setCodec(ObjectCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public Version version() {
+        return Version.unknownVersion();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(!closed) {
+            closed = true;
+            input.close();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public JsonStreamContext getParsingContext() {
+        return context;
+    }
+
+    @Override
+    public JsonLocation getTokenLocation() {
+        return location;
+    }
+
+    @Override
+    public JsonLocation getCurrentLocation() {
+        return location;
+    }
+
+    // the name of a structure is the name it has in its parent
+    @Override
+    public String getCurrentName() {
+        if(_currToken == JsonToken.START_OBJECT || _currToken == JsonToken.START_ARRAY)
+            return context.getParentOrSelf().getCurrentName();
+        return context.getCurrentName();
+    }
+
+    @Override
+    public void overrideCurrentName(String name) {
+        if(_currToken == JsonToken.START_OBJECT || _currToken == JsonToken.START_ARRAY)
+            context.getParentOrSelf().setCurrentName(name);
+        else
+            context.setCurrentName(name);
+    }
+
+    @Override
+    public String getText() {
+        if(_currToken == null)
+            return null;
+        if(text != null)
+            return text;
+        if(numberType != null)
+            return value.toString();
+        return _currToken.asString();
+    }
+
+    @Override
+    public char[] getTextCharacters() {
+        String text = getText();
+        return text == null ? null : text.toCharArray();
+    }
+
+    @Override
+    public boolean hasTextCharacters() {
+        return false;
+    }
+
+    @Override
+    public int getTextLength() {
+        String text = getText();
+        return text == null ? 0 : text.length();
+    }
+
+    @Override
+    public int getTextOffset() {
+        return 0;
+    }
+
+    @Override
+    public byte[] getBinaryValue(Base64Variant base64Variant) throws IOException {
+        if(_currToken == JsonToken.VALUE_EMBEDDED_OBJECT && value instanceof byte[])
+            return (byte[])value;
+        if(_currToken != JsonToken.VALUE_STRING)
+            throw _constructError("current token (" + _currToken + ") not VALUE_STRING or VALUE_EMBEDDED_OBJECT, can not access as binary");
+
+        ByteArrayBuilder builder = new ByteArrayBuilder();
+        _decodeBase64(text, builder, base64Variant);
+        return builder.toByteArray();
+    }
+
+    @Override
+    public Object getEmbeddedObject() {
+        return _currToken == JsonToken.VALUE_EMBEDDED_OBJECT ? value : null;
+    }
+
+    @Override
+    public Number getNumberValue() throws IOException {
+        return getNumber();
+    }
+
+    @Override
+    public NumberType getNumberType() throws IOException {
+        getNumber();
+        return numberType;
+    }
+
+    @Override
+    public int getIntValue() throws IOException {
+        return getNumber().intValue();
+    }
+
+    @Override
+    public long getLongValue() throws IOException {
+        return getNumber().longValue();
+    }
+
+    @Override
+    public float getFloatValue() throws IOException {
+        return getNumber().floatValue();
+    }
+
+    @Override
+    public double getDoubleValue() throws IOException {
+        return getNumber().doubleValue();
+    }
+
+    @Override
+    public BigInteger getBigIntegerValue() throws IOException {
+        Number number = getNumber();
+        if(number instanceof BigInteger)
+            return (BigInteger)number;
+        if(_currToken == JsonToken.VALUE_NUMBER_FLOAT)
+            return getDecimalValue().toBigInteger();
+        return BigInteger.valueOf(number.longValue());
+    }
+
+    @Override
+    public BigDecimal getDecimalValue() throws IOException {
+        Number number = getNumber();
+        if(number instanceof BigDecimal)
+            return (BigDecimal)number;
+        if(number instanceof BigInteger)
+            return new BigDecimal((BigInteger)number);
+        if(_currToken == JsonToken.VALUE_NUMBER_FLOAT)
+            return BigDecimal.valueOf(number.doubleValue());
+        return BigDecimal.valueOf(number.longValue());
+    }
+
+    private Number getNumber() throws JsonParseException {
+        if(numberType == null)
+            throw _constructError("current token (" + _currToken + ") not numeric, can not use numeric value accessors");
+        return (Number)value;
+    }
+
+
+    private static final class Context extends JsonStreamContext {
+        private final Context parent;
+        private String currentName;
+
+        private Context(Context parent, int type) {
+            this.parent = parent;
+            _type = type;
+            _index = -1;
+        }
+
+        static Context createRoot() {
+            return new Context(null, TYPE_ROOT);
+        }
+
+        Context createChild(boolean object) {
+            return new Context(this, object ? TYPE_OBJECT : TYPE_ARRAY);
+        }
+
+        Context getParentOrSelf() {
+            return parent != null ? parent : this;
+        }
+
+        void fieldStarted(String name) {
+            _index++;
+            currentName = name;
+        }
+
+        // values in objects were counted along with their names
+        void valueStarted() {
+            if(_type != TYPE_OBJECT)
+                _index++;
+        }
+
+        void setCurrentName(String name) {
+            currentName = name;
+        }
+
+        @Override
+        public JsonStreamContext getParent() {
+            return parent;
+        }
+
+        @Override
+        public String getCurrentName() {
+            return currentName;
+        }
+    }
+}
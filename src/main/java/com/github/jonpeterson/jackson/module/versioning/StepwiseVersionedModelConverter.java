@@ -0,0 +1,281 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Converter built out of single-step conversions between two versions of a model (ex. 3 to 4 and 4 to 5). Steps are
+ * registered with {@link #addStep(String, String, Step, String...)} from the subclass's constructor. The shortest chain
+ * of steps between a pair of versions is computed the first time that pair is converted and cached from then on.
+ * <p>
+ * Steps registered with {@link #addTransform(String, String, FieldTransform)} are declarative. When every step between
+ * two versions is declarative, the module applies them to the token stream instead of calling
+ * {@link #convert(ObjectNode, ModelVersion, ModelVersion, JsonNodeFactory)}. Adjacent transforms that touch different
+ * properties are fused into one, so the stream or tree goes through them in a single pass. When every step declares its
+ * properties, only those properties are built into the tree the steps are run on.
+ */
+public abstract class StepwiseVersionedModelConverter extends ModelVersionAwareConverter implements FieldScopedConverter {
+
+    /**
+     * A single conversion step from one version of a model to another.
+     */
+    public interface Step {
+
+        /**
+         * Returns JSON data in the step's target version.
+         *
+         * @param modelData   data to be converted; may be modified in place
+         * @param nodeFactory node factory
+         * @return model data converted to the step's target version
+         */
+        ObjectNode convert(ObjectNode modelData, JsonNodeFactory nodeFactory);
+    }
+
+    private static final Path EMPTY_PATH = new Path(Collections.<Edge>emptyList());
+
+    // cached for registered versions that aren't connected by steps
+    private static final Path NO_PATH = new Path(Collections.<Edge>emptyList());
+
+    private final Map<ModelVersion, List<Edge>> edges = new HashMap<ModelVersion, List<Edge>>();
+    private final ConcurrentMap<ModelVersion, ConcurrentMap<ModelVersion, Path>> paths = new ConcurrentHashMap<ModelVersion, ConcurrentMap<ModelVersion, Path>>();
+
+    /**
+     * Registers a conversion step. Must only be called while the converter is being constructed.
+     *
+     * @param fromVersion version of the data the step accepts
+     * @param toVersion   version of the data the step returns
+     * @param step        the step
+     * @param fields      top-level properties the step reads or writes; not specifying any means the step may use any of
+     *                    them, so the whole model is built into the tree it is run on
+     */
+    protected final void addStep(String fromVersion, String toVersion, Step step, String... fields) {
+        addStep(ModelVersion.intern(fromVersion), ModelVersion.intern(toVersion), step, fields);
+    }
+
+    /**
+     * Registers a conversion step. Same as {@link #addStep(String, String, Step, String...)}.
+     */
+    protected final void addStep(ModelVersion fromVersion, ModelVersion toVersion, Step step, String... fields) {
+        if(fromVersion.equals(toVersion))
+            throw new IllegalArgumentException("step must be between two different versions");
+
+        List<Edge> fromEdges = edges.get(fromVersion);
+        if(fromEdges == null)
+            edges.put(fromVersion, fromEdges = new ArrayList<Edge>());
+        if(!edges.containsKey(toVersion))
+            edges.put(toVersion, new ArrayList<Edge>());
+
+        for(Edge edge: fromEdges)
+            if(edge.toVersion.equals(toVersion))
+                throw new IllegalArgumentException("step from '" + fromVersion + "' to '" + toVersion + "' already registered");
+
+        fromEdges.add(new Edge(toVersion, step, fields.length == 0 ? null : new HashSet<String>(Arrays.asList(fields))));
+        paths.clear();
+    }
+
+    /**
+     * Registers a declarative conversion step. Must only be called while the converter is being constructed.
+     *
+     * @param fromVersion version of the data the transform accepts
+     * @param toVersion   version of the data the transform returns
+     * @param transform   the transform
+     */
+    protected final void addTransform(String fromVersion, String toVersion, FieldTransform transform) {
+        addTransform(ModelVersion.intern(fromVersion), ModelVersion.intern(toVersion), transform);
+    }
+
+    /**
+     * Registers a declarative conversion step. Same as {@link #addTransform(String, String, FieldTransform)}.
+     */
+    protected final void addTransform(ModelVersion fromVersion, ModelVersion toVersion, FieldTransform transform) {
+        addStep(fromVersion, toVersion, transform, transform.getFieldNames());
+    }
+
+    @Override
+    public ObjectNode convert(ObjectNode modelData, ModelVersion modelVersion, ModelVersion targetModelVersion, JsonNodeFactory nodeFactory) {
+        for(Step step: getPath(modelVersion, targetModelVersion).steps)
+            modelData = step.convert(modelData, nodeFactory);
+        return modelData;
+    }
+
+    @Override
+    public Set<String> getFieldNames(ModelVersion modelVersion, ModelVersion targetModelVersion) {
+        return getPath(modelVersion, targetModelVersion).fields;
+    }
+
+    /**
+     * @return whether there are steps between the versions
+     */
+    boolean hasPath(ModelVersion fromVersion, ModelVersion toVersion) {
+        return findPath(fromVersion, toVersion) != NO_PATH;
+    }
+
+    /**
+     * @return the steps between the versions in the order they are applied; must not be modified
+     */
+    Step[] getSteps(ModelVersion fromVersion, ModelVersion toVersion) {
+        return getPath(fromVersion, toVersion).steps;
+    }
+
+    /**
+     * @return the transforms to stream the data through in order; null if any step between the versions is not a
+     *         {@link FieldTransform}; must not be modified
+     */
+    FieldTransform[] getTransforms(ModelVersion fromVersion, ModelVersion toVersion) {
+        return getPath(fromVersion, toVersion).transforms;
+    }
+
+    // visible for testing
+    Path getPath(String fromVersion, String toVersion) {
+        return getPath(ModelVersion.of(fromVersion), ModelVersion.of(toVersion));
+    }
+
+    private Path getPath(ModelVersion fromVersion, ModelVersion toVersion) {
+        Path path = findPath(fromVersion, toVersion);
+        if(path == NO_PATH)
+            throw new IllegalArgumentException("no conversion path from version '" + fromVersion + "' to '" + toVersion + "'");
+        return path;
+    }
+
+    private Path findPath(ModelVersion fromVersion, ModelVersion toVersion) {
+        if(fromVersion.equals(toVersion))
+            return EMPTY_PATH;
+
+        ConcurrentMap<ModelVersion, Path> fromPaths = paths.get(fromVersion);
+        Path path = fromPaths != null ? fromPaths.get(toVersion) : null;
+        if(path == null) {
+            // unknown versions coming off the wire aren't cached, so they can't grow the cache
+            if(!edges.containsKey(fromVersion) || !edges.containsKey(toVersion))
+                return NO_PATH;
+
+            path = computePath(fromVersion, toVersion);
+            if(fromPaths == null) {
+                fromPaths = new ConcurrentHashMap<ModelVersion, Path>();
+                ConcurrentMap<ModelVersion, Path> existing = paths.putIfAbsent(fromVersion, fromPaths);
+                if(existing != null)
+                    fromPaths = existing;
+            }
+            fromPaths.putIfAbsent(toVersion, path);
+        }
+        return path;
+    }
+
+    private Path computePath(ModelVersion fromVersion, ModelVersion toVersion) {
+        // breadth-first search yields the path with the fewest steps
+        Map<ModelVersion, Edge> reachedBy = new HashMap<ModelVersion, Edge>();
+        Map<ModelVersion, ModelVersion> reachedFrom = new HashMap<ModelVersion, ModelVersion>();
+        LinkedList<ModelVersion> queue = new LinkedList<ModelVersion>();
+        queue.add(fromVersion);
+        reachedFrom.put(fromVersion, null);
+        while(!queue.isEmpty() && !reachedFrom.containsKey(toVersion)) {
+            ModelVersion version = queue.removeFirst();
+            for(Edge edge: edges.get(version))
+                if(!reachedFrom.containsKey(edge.toVersion)) {
+                    reachedFrom.put(edge.toVersion, version);
+                    reachedBy.put(edge.toVersion, edge);
+                    queue.add(edge.toVersion);
+                }
+        }
+
+        if(!reachedFrom.containsKey(toVersion))
+            return NO_PATH;
+
+        List<Edge> path = new ArrayList<Edge>();
+        for(ModelVersion version = toVersion; !version.equals(fromVersion); version = reachedFrom.get(version))
+            path.add(reachedBy.get(version));
+        Collections.reverse(path);
+        return new Path(path);
+    }
+
+
+    private static class Edge {
+        final ModelVersion toVersion;
+        final Step step;
+        final Set<String> fields;
+
+        Edge(ModelVersion toVersion, Step step, Set<String> fields) {
+            this.toVersion = toVersion;
+            this.step = step;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * The steps between two versions along with what the module asks about them, worked out once. Adjacent field
+     * transforms that touch different properties are fused into one, so they are applied in a single pass.
+     */
+    static class Path {
+        final Step[] steps;
+
+        // null unless every step is a FieldTransform
+        final FieldTransform[] transforms;
+
+        // null unless every step declares its properties
+        final Set<String> fields;
+
+        Path(List<Edge> edges) {
+            List<Step> steps = new ArrayList<Step>(edges.size());
+            Set<String> fields = new HashSet<String>();
+            for(Edge edge: edges) {
+                Step last = steps.isEmpty() ? null : steps.get(steps.size() - 1);
+                if(last instanceof FieldTransform && edge.step instanceof FieldTransform && ((FieldTransform)last).canFuse((FieldTransform)edge.step))
+                    steps.set(steps.size() - 1, ((FieldTransform)last).fuse((FieldTransform)edge.step));
+                else
+                    steps.add(edge.step);
+
+                if(edge.fields == null)
+                    fields = null;
+                else if(fields != null)
+                    fields.addAll(edge.fields);
+            }
+
+            FieldTransform[] transforms = new FieldTransform[steps.size()];
+            for(int i = 0; i < transforms.length; i++) {
+                if(!(steps.get(i) instanceof FieldTransform)) {
+                    transforms = null;
+                    break;
+                }
+                transforms[i] = (FieldTransform)steps.get(i);
+            }
+
+            this.steps = steps.toArray(new Step[steps.size()]);
+            this.transforms = transforms;
+            this.fields = fields != null ? Collections.unmodifiableSet(fields) : null;
+        }
+    }
+}
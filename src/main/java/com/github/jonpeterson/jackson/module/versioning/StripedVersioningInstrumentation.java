@@ -0,0 +1,313 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Instrumentation that records counts and conversion latencies per model class, per source version and per pair of
+ * source and target versions. Updates are lock-free and spread over striped counters so it can be left on under load.
+ * <p>
+ * Versions come from the data being deserialized, so at most {@value #MAX_TRACKED_VERSIONS} distinct versions and
+ * version pairs are tracked per model class; events for any others are only counted in
+ * {@link ModelStats#getUntrackedCount()}.
+ */
+public class StripedVersioningInstrumentation implements VersioningInstrumentation {
+
+    /**
+     * Maximum number of distinct source versions and of distinct version pairs tracked per model class.
+     */
+    public static final int MAX_TRACKED_VERSIONS = 256;
+
+    /**
+     * A source and target version.
+     */
+    public static final class VersionPair {
+        private final ModelVersion sourceVersion;
+        private final ModelVersion targetVersion;
+
+        public VersionPair(ModelVersion sourceVersion, ModelVersion targetVersion) {
+            this.sourceVersion = sourceVersion;
+            this.targetVersion = targetVersion;
+        }
+
+        public ModelVersion getSourceVersion() {
+            return sourceVersion;
+        }
+
+        public ModelVersion getTargetVersion() {
+            return targetVersion;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof VersionPair))
+                return false;
+            VersionPair pair = (VersionPair)other;
+            return sourceVersion.equals(pair.sourceVersion) && targetVersion.equals(pair.targetVersion);
+        }
+
+        @Override
+        public int hashCode() {
+            return sourceVersion.hashCode() * 31 + targetVersion.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return sourceVersion + "->" + targetVersion;
+        }
+    }
+
+    /**
+     * Histogram of latencies in power-of-two buckets: bucket 0 holds 0ns and bucket n holds [2^(n-1), 2^n) ns.
+     */
+    public static class LatencyHistogram {
+        private static final int BUCKETS = 64;
+
+        private final StripedCounter count = new StripedCounter();
+        private final StripedCounter totalNanos = new StripedCounter();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            if(nanos < 0)
+                nanos = 0;
+            count.increment();
+            totalNanos.add(nanos);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        }
+
+        /**
+         * @return number of recorded latencies
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @return sum of recorded latencies in nanoseconds
+         */
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        /**
+         * @return number of recorded latencies in each bucket
+         */
+        public long[] getBucketCounts() {
+            long[] counts = new long[BUCKETS];
+            for(int i = 0; i < BUCKETS; i++)
+                counts[i] = buckets.get(i);
+            return counts;
+        }
+
+        /**
+         * @param percentile percentile between 0 and 100
+         * @return upper bound in nanoseconds of the bucket containing the percentile; 0 if nothing has been recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            long[] counts = getBucketCounts();
+            long total = 0;
+            for(long bucketCount: counts)
+                total += bucketCount;
+            if(total == 0)
+                return 0;
+
+            long threshold = (long)Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100);
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if(seen >= threshold && seen > 0)
+                    return i == 0 ? 0 : (1L << i) - 1;
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Statistics for a single model class.
+     */
+    public static class ModelStats {
+        private final StripedCounter[] fastPathCounts = newCounters();
+        private final StripedCounter[] treePathCounts = newCounters();
+        private final StripedCounter bytesBuffered = new StripedCounter();
+        private final StripedCounter untrackedCount = new StripedCounter();
+        private final LatencyHistogram conversionLatency = new LatencyHistogram();
+        private final ConcurrentMap<ModelVersion, StripedCounter> sourceVersionCounts = new ConcurrentHashMap<ModelVersion, StripedCounter>();
+        private final ConcurrentMap<VersionPair, LatencyHistogram> pairConversionLatencies = new ConcurrentHashMap<VersionPair, LatencyHistogram>();
+
+        private static StripedCounter[] newCounters() {
+            StripedCounter[] counters = new StripedCounter[Operation.values().length];
+            for(int i = 0; i < counters.length; i++)
+                counters[i] = new StripedCounter();
+            return counters;
+        }
+
+        private static <K, V> V getOrCreate(ConcurrentMap<K, V> map, K key, V value) {
+            V existing = map.get(key);
+            if(existing != null)
+                return existing;
+            if(map.size() >= MAX_TRACKED_VERSIONS)
+                return null;
+            existing = map.putIfAbsent(key, value);
+            return existing != null ? existing : value;
+        }
+
+        private void sourceVersionSeen(ModelVersion sourceVersion) {
+            StripedCounter counter = sourceVersionCounts.get(sourceVersion);
+            if(counter == null)
+                counter = getOrCreate(sourceVersionCounts, sourceVersion, new StripedCounter());
+            if(counter != null)
+                counter.increment();
+            else
+                untrackedCount.increment();
+        }
+
+        private void conversion(ModelVersion sourceVersion, ModelVersion targetVersion, long nanos) {
+            conversionLatency.record(nanos);
+
+            VersionPair pair = new VersionPair(sourceVersion, targetVersion);
+            LatencyHistogram histogram = pairConversionLatencies.get(pair);
+            if(histogram == null)
+                histogram = getOrCreate(pairConversionLatencies, pair, new LatencyHistogram());
+            if(histogram != null)
+                histogram.record(nanos);
+            else
+                untrackedCount.increment();
+        }
+
+        /**
+         * @param operation serialization or deserialization
+         * @return number of models that were streamed without being materialized as a tree
+         */
+        public long getFastPathCount(Operation operation) {
+            return fastPathCounts[operation.ordinal()].sum();
+        }
+
+        /**
+         * @param operation serialization or deserialization
+         * @return number of models that were materialized as a tree
+         */
+        public long getTreePathCount(Operation operation) {
+            return treePathCounts[operation.ordinal()].sum();
+        }
+
+        /**
+         * @return total bytes (or characters) of input buffered while deserializing
+         */
+        public long getBytesBuffered() {
+            return bytesBuffered.sum();
+        }
+
+        /**
+         * @return number of events whose version or version pair wasn't tracked because the limit was reached
+         */
+        public long getUntrackedCount() {
+            return untrackedCount.sum();
+        }
+
+        /**
+         * @return latencies of all conversions of the model
+         */
+        public LatencyHistogram getConversionLatency() {
+            return conversionLatency;
+        }
+
+        /**
+         * @return latencies of conversions by source and target version
+         */
+        public Map<VersionPair, LatencyHistogram> getConversionLatencies() {
+            return Collections.unmodifiableMap(pairConversionLatencies);
+        }
+
+        /**
+         * @return number of models deserialized from each source version
+         */
+        public Map<ModelVersion, Long> getSourceVersionCounts() {
+            Map<ModelVersion, Long> counts = new HashMap<ModelVersion, Long>();
+            for(Map.Entry<ModelVersion, StripedCounter> entry: sourceVersionCounts.entrySet())
+                counts.put(entry.getKey(), entry.getValue().sum());
+            return counts;
+        }
+    }
+
+
+    private final ConcurrentMap<Class<?>, ModelStats> modelStats = new ConcurrentHashMap<Class<?>, ModelStats>();
+
+    /**
+     * @return statistics by model class
+     */
+    public Map<Class<?>, ModelStats> getModelStats() {
+        return Collections.unmodifiableMap(modelStats);
+    }
+
+    /**
+     * @param modelClass class of the model
+     * @return statistics for the model class; null if no events were received for it
+     */
+    public ModelStats getModelStats(Class<?> modelClass) {
+        return modelStats.get(modelClass);
+    }
+
+    @Override
+    public void fastPath(Class<?> modelClass, Operation operation, ModelVersion sourceVersion, ModelVersion targetVersion) {
+        ModelStats stats = getOrCreateStats(modelClass);
+        stats.fastPathCounts[operation.ordinal()].increment();
+        if(operation == Operation.DESERIALIZATION)
+            stats.sourceVersionSeen(sourceVersion);
+    }
+
+    @Override
+    public void treePath(Class<?> modelClass, Operation operation, ModelVersion sourceVersion, ModelVersion targetVersion) {
+        ModelStats stats = getOrCreateStats(modelClass);
+        stats.treePathCounts[operation.ordinal()].increment();
+        if(operation == Operation.DESERIALIZATION)
+            stats.sourceVersionSeen(sourceVersion);
+    }
+
+    @Override
+    public void conversion(Class<?> modelClass, Operation operation, ModelVersion sourceVersion, ModelVersion targetVersion, long nanos) {
+        getOrCreateStats(modelClass).conversion(sourceVersion, targetVersion, nanos);
+    }
+
+    @Override
+    public void bytesBuffered(Class<?> modelClass, Operation operation, long bytes) {
+        getOrCreateStats(modelClass).bytesBuffered.add(bytes);
+    }
+
+    private ModelStats getOrCreateStats(Class<?> modelClass) {
+        ModelStats stats = modelStats.get(modelClass);
+        if(stats == null) {
+            stats = new ModelStats();
+            ModelStats existing = modelStats.putIfAbsent(modelClass, stats);
+            if(existing != null)
+                stats = existing;
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Comparator;
+
+/**
+ * Resolved {@link JsonVersionedModel#compatibleVersionRanges()} of a model.
+ */
+class VersionCompatibility {
+    private final Comparator<ModelVersion> comparator;
+    private final ModelVersion[] rangeStarts;
+    private final ModelVersion[] rangeEnds;
+
+    VersionCompatibility(JsonVersionedModel jsonVersionedModel) {
+        VersionRange[] ranges = jsonVersionedModel.compatibleVersionRanges();
+        rangeStarts = new ModelVersion[ranges.length];
+        rangeEnds = new ModelVersion[ranges.length];
+        for(int i = 0; i < ranges.length; i++) {
+            rangeStarts[i] = ModelVersion.intern(ranges[i].from());
+            rangeEnds[i] = ModelVersion.intern(ranges[i].to());
+        }
+
+        Class<? extends Comparator<ModelVersion>> comparatorClass = jsonVersionedModel.versionComparatorClass();
+        if(comparatorClass == ModelVersion.DottedComparator.class)
+            comparator = ModelVersion.DOTTED;
+        else if(comparatorClass == ModelVersion.NumericComparator.class)
+            comparator = ModelVersion.NUMERIC;
+        else
+            try {
+                comparator = comparatorClass.getDeclaredConstructor().newInstance();
+            } catch(InvocationTargetException e) {
+                throw new RuntimeException("unable to create instance of comparator '" + comparatorClass.getName() + "'", e.getCause());
+            } catch(NoSuchMethodException e) {
+                throw new RuntimeException("comparator '" + comparatorClass.getName() + "' has no no-argument constructor", e);
+            } catch(Exception e) {
+                throw new RuntimeException("unable to create instance of comparator '" + comparatorClass.getName() + "'", e);
+            }
+    }
+
+    /**
+     * @return whether data of the two versions is identical and needs no conversion between them
+     */
+    boolean areCompatible(ModelVersion a, ModelVersion b) {
+        if(a.equals(b))
+            return true;
+
+        for(int i = 0; i < rangeStarts.length; i++)
+            if(isInRange(a, i) && isInRange(b, i))
+                return true;
+        return false;
+    }
+
+    private boolean isInRange(ModelVersion version, int range) {
+        return comparator.compare(version, rangeStarts[range]) >= 0 && comparator.compare(version, rangeEnds[range]) <= 0;
+    }
+}
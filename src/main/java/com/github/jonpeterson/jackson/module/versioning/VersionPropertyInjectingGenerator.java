@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+
+/**
+ * Generator wrapped around the real output while a model is written by its delegate serializer. Model-level properties
+ * that are to be dropped are redirected to a throwaway buffer and the model version property is written just before the
+ * model's object is closed.
+ */
+class VersionPropertyInjectingGenerator extends JsonGeneratorDelegate {
+    private final JsonGenerator target;
+    private final JsonStreamContext parentContext;
+    private final SerializableString versionPropertyName;
+    private final SerializableString versionPropertyValue;
+    private final String droppedPropertyName;
+
+    private TokenBuffer discardBuffer;
+    private JsonStreamContext discardContext;
+    private boolean versionPropertyWritten;
+
+    /**
+     * @param target               generator to write the model to
+     * @param versionPropertyName  name of the model version property
+     * @param versionPropertyValue value of the model version property; null to not write the property
+     * @param droppedPropertyName  name of an additional model property to drop from the output; may be null
+     */
+    VersionPropertyInjectingGenerator(JsonGenerator target, SerializableString versionPropertyName, SerializableString versionPropertyValue, String droppedPropertyName) {
+        super(target);
+
+        this.target = target;
+        this.parentContext = target.getOutputContext();
+        this.versionPropertyName = versionPropertyName;
+        this.versionPropertyValue = versionPropertyValue;
+        this.droppedPropertyName = droppedPropertyName;
+    }
+
+    @Override
+    public void writeFieldName(String name) throws IOException {
+        resumeAfterDiscard();
+        if(isDropped(name))
+            startDiscard();
+        delegate.writeFieldName(name);
+    }
+
+    @Override
+    public void writeFieldName(SerializableString name) throws IOException {
+        resumeAfterDiscard();
+        if(isDropped(name.getValue()))
+            startDiscard();
+        delegate.writeFieldName(name);
+    }
+
+    // not an override before Jackson 2.8
+    public void writeFieldId(long id) throws IOException {
+        resumeAfterDiscard();
+        delegate.writeFieldName(Long.toString(id));
+    }
+
+    @Override
+    public void writeEndObject() throws IOException {
+        resumeAfterDiscard();
+        if(delegate == target && !versionPropertyWritten && versionPropertyValue != null && isAtModelLevel()) {
+            target.writeFieldName(versionPropertyName);
+            target.writeString(versionPropertyValue);
+            versionPropertyWritten = true;
+        }
+        delegate.writeEndObject();
+    }
+
+    // discarded writes are at model level while the buffer is at its top-level object
+    boolean isAtModelLevel() {
+        if(delegate != target)
+            return discardBuffer.getOutputContext() == discardContext;
+
+        JsonStreamContext context = target.getOutputContext();
+        return context.inObject() && context.getParent() == parentContext;
+    }
+
+    private boolean isDropped(String name) {
+        return delegate == target && isAtModelLevel() && (name.equals(versionPropertyName.getValue()) || name.equals(droppedPropertyName));
+    }
+
+    private void startDiscard() throws IOException {
+        if(discardBuffer == null) {
+            discardBuffer = VersionedModelUtils.createTokenBuffer(target.getCodec());
+            discardBuffer.writeStartObject();
+            discardContext = discardBuffer.getOutputContext();
+        }
+        delegate = discardBuffer;
+    }
+
+    // the dropped property's value is complete once the buffer is back at the level the property name was written at
+    private void resumeAfterDiscard() {
+        if(delegate == discardBuffer && discardBuffer.getOutputContext() == discardContext)
+            delegate = target;
+    }
+}
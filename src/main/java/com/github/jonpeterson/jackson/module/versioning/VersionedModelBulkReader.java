@@ -0,0 +1,318 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads large JSON arrays and newline-delimited JSON streams of models in parallel. Records are split off the input on
+ * the calling thread while version detection, conversion and deserialization run on an executor; results come back in
+ * input order. At most {@code maxPending} records are split off ahead of the one being consumed, which bounds memory
+ * regardless of the size of the input.
+ * <p>
+ * The mapper must have the {@link VersioningModule} registered for models to be converted. The executor is not owned by
+ * the reader and is not shut down by it.
+ *
+ * @param <T> type of the records
+ */
+public class VersionedModelBulkReader<T> {
+    private static final int LINE_CHUNK_SIZE = 64 * 1024;
+
+    private final ObjectMapper mapper;
+    private final Class<T> valueType;
+    private final ExecutorService executor;
+    private final int maxPending;
+
+    /**
+     * @param mapper     mapper to deserialize records with
+     * @param valueType  type of the records
+     * @param executor   executor to deserialize records on; usually sized to the number of cores
+     * @param maxPending maximum number of records split off the input ahead of the consumer
+     */
+    public VersionedModelBulkReader(ObjectMapper mapper, Class<T> valueType, ExecutorService executor, int maxPending) {
+        if(maxPending < 1)
+            throw new IllegalArgumentException("maxPending must be at least 1");
+
+        this.mapper = mapper;
+        this.valueType = valueType;
+        this.executor = executor;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Reads the elements of a JSON array.
+     *
+     * @param input stream containing a single JSON array; closed along with the returned iterator
+     * @return iterator over the deserialized elements
+     * @throws IOException if the input doesn't start with an array
+     */
+    public Records<T> readArray(InputStream input) throws IOException {
+        return readArray(mapper.getFactory().createParser(input));
+    }
+
+    /**
+     * Reads the elements of a JSON array.
+     *
+     * @param parser parser positioned before or at the start of the array; closed along with the returned iterator
+     * @return iterator over the deserialized elements
+     * @throws IOException if the parser isn't at an array
+     */
+    public Records<T> readArray(final JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if(token == null)
+            token = parser.nextToken();
+        if(token != JsonToken.START_ARRAY) {
+            parser.close();
+            throw new IOException("expected the input to start with an array but found " + token);
+        }
+
+        return new Records<T>(this, new RecordSource<T>() {
+            @Override
+            public Callable<T> next() throws IOException {
+                JsonToken token = parser.nextToken();
+                if(token == null || token == JsonToken.END_ARRAY)
+                    return null;
+
+                // only tokenizing happens on this thread; everything else is left to the task
+                final TokenBuffer buffer = VersionedModelUtils.createTokenBuffer(mapper);
+                buffer.copyCurrentStructure(parser);
+                return new Callable<T>() {
+                    @Override
+                    public T call() throws Exception {
+                        return mapper.readValue(buffer.asParser(mapper), valueType);
+                    }
+                };
+            }
+
+            @Override
+            public void close() throws IOException {
+                parser.close();
+            }
+        });
+    }
+
+    /**
+     * Reads newline-delimited JSON with one record per line. Blank lines are skipped. Lines are split on the newline byte,
+     * so the input must be UTF-8 (or plain ASCII); UTF-16 and UTF-32 input fails with an {@link IOException} once its
+     * first zero byte is reached.
+     *
+     * @param input stream of UTF-8 encoded lines; closed along with the returned iterator
+     * @return iterator over the deserialized records
+     */
+    public Records<T> readLines(final InputStream input) {
+        return new Records<T>(this, new RecordSource<T>() {
+            private final byte[] chunk = new byte[LINE_CHUNK_SIZE];
+            private int chunkStart;
+            private int chunkEnd;
+            private boolean exhausted;
+
+            // lines are found by scanning bytes since JSON strings can't contain raw line breaks and UTF-8 never uses the
+            //   newline byte within a multi-byte character; decoding and parsing are left to the task
+            @Override
+            public Callable<T> next() throws IOException {
+                while(true) {
+                    byte[] line = nextLine();
+                    if(line == null)
+                        return null;
+                    if(isBlank(line))
+                        continue;
+
+                    final byte[] record = line;
+                    return new Callable<T>() {
+                        @Override
+                        public T call() throws Exception {
+                            return mapper.readValue(record, valueType);
+                        }
+                    };
+                }
+            }
+
+            private byte[] nextLine() throws IOException {
+                byte[] line = null;
+                int lineLength = 0;
+                while(true) {
+                    if(chunkStart == chunkEnd) {
+                        if(exhausted)
+                            return line == null ? null : Arrays.copyOf(line, lineLength);
+
+                        int read = input.read(chunk);
+                        if(read < 0) {
+                            exhausted = true;
+                            continue;
+                        }
+                        chunkStart = 0;
+                        chunkEnd = read;
+                    }
+
+                    // a zero byte can't appear in UTF-8 JSON, but every ASCII character has one in UTF-16 and UTF-32
+                    int end = chunkStart;
+                    for(; end < chunkEnd && chunk[end] != '\n'; end++)
+                        if(chunk[end] == 0)
+                            throw new IOException("input is not UTF-8 encoded; found a zero byte");
+
+                    int length = end - chunkStart;
+                    if(line == null)
+                        line = new byte[Math.max(length, 64)];
+                    else if(lineLength + length > line.length)
+                        line = Arrays.copyOf(line, Math.max(lineLength + length, line.length * 2));
+                    System.arraycopy(chunk, chunkStart, line, lineLength, length);
+                    lineLength += length;
+
+                    if(end < chunkEnd) {
+                        chunkStart = end + 1;
+                        return Arrays.copyOf(line, lineLength);
+                    }
+                    chunkStart = chunkEnd;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                input.close();
+            }
+        });
+    }
+
+    private static boolean isBlank(byte[] line) {
+        for(byte b: line)
+            if(b != ' ' && b != '\t' && b != '\r' && b != '\n')
+                return false;
+        return true;
+    }
+
+
+    interface RecordSource<T> extends Closeable {
+
+        /**
+         * @return task deserializing the next record; null at the end of the input
+         */
+        Callable<T> next() throws IOException;
+    }
+
+    /**
+     * Iterator over records read in parallel. Failures to read the input or deserialize a record are thrown as runtime
+     * exceptions from {@link #hasNext()} or {@link #next()} when the failed record is reached.
+     *
+     * @param <T> type of the records
+     */
+    public static class Records<T> implements Iterator<T>, Closeable {
+        private final VersionedModelBulkReader<T> reader;
+        private final RecordSource<T> source;
+        private final ArrayDeque<Future<T>> pending;
+        private boolean exhausted;
+        private boolean closed;
+        private RuntimeException inputFailure;
+
+        Records(VersionedModelBulkReader<T> reader, RecordSource<T> source) {
+            this.reader = reader;
+            this.source = source;
+            this.pending = new ArrayDeque<Future<T>>(reader.maxPending);
+        }
+
+        @Override
+        public boolean hasNext() {
+            fill();
+
+            // records split off before the input failed are still handed out first
+            if(pending.isEmpty() && inputFailure != null)
+                throw inputFailure;
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+
+            Future<T> future = pending.pollFirst();
+            try {
+                return future.get();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while waiting for a record", e);
+            } catch(ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof RuntimeException)
+                    throw (RuntimeException)cause;
+                if(cause instanceof Error)
+                    throw (Error)cause;
+                throw new RuntimeException(cause.getMessage(), cause);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Closes the input and cancels records that were split off but not consumed.
+         */
+        @Override
+        public void close() throws IOException {
+            if(closed)
+                return;
+
+            closed = true;
+            exhausted = true;
+            for(Future<T> future: pending)
+                future.cancel(false);
+            pending.clear();
+            source.close();
+        }
+
+        private void fill() {
+            while(!exhausted && pending.size() < reader.maxPending) {
+                Callable<T> task;
+                try {
+                    task = source.next();
+                } catch(IOException e) {
+                    exhausted = true;
+                    inputFailure = new RuntimeException(e.getMessage(), e);
+                    return;
+                }
+
+                if(task == null)
+                    exhausted = true;
+                else
+                    pending.addLast(reader.executor.submit(task));
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.deser.ContextualDeserializer;
+import com.fasterxml.jackson.databind.deser.ResolvableDeserializer;
+import com.fasterxml.jackson.databind.deser.std.CollectionDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.jsontype.TypeDeserializer;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Deserializer wrapped around the deserializer of a collection of versioned models with a
+ * {@link BatchVersionedModelConverter}. The array is built into a tree and the models that need converting are converted
+ * a batch per source version; the wrapped deserializer then reads the collection from the tree as usual with each
+ * model's deserializer taking its converted tree.
+ */
+class VersionedModelCollectionDeserializer extends StdDeserializer<Object> implements ContextualDeserializer, ResolvableDeserializer {
+    private final CollectionDeserializer delegate;
+    private final VersionedModelDeserializer<?> modelDeserializer;
+    private final BatchConversion batchConversion;
+
+    /**
+     * @param modelDeserializer deserializer of the elements; null until the delegate has been contextualized
+     */
+    VersionedModelCollectionDeserializer(CollectionDeserializer delegate, VersionedModelDeserializer<?> modelDeserializer, BatchConversion batchConversion) {
+        super(delegate.getValueClass());
+
+        this.delegate = delegate;
+        this.modelDeserializer = modelDeserializer;
+        this.batchConversion = batchConversion;
+    }
+
+    // the element deserializer is only known once the collection deserializer has been contextualized
+    @Override
+    public JsonDeserializer<?> createContextual(DeserializationContext context, BeanProperty property) throws JsonMappingException {
+        JsonDeserializer<?> contextual = ((ContextualDeserializer)delegate).createContextual(context, property);
+        if(contextual instanceof CollectionDeserializer) {
+            JsonDeserializer<Object> contentDeserializer = ((CollectionDeserializer)contextual).getContentDeserializer();
+            if(contentDeserializer instanceof VersionedModelDeserializer && ((VersionedModelDeserializer<?>)contentDeserializer).getPlan().converter instanceof BatchVersionedModelConverter)
+                return new VersionedModelCollectionDeserializer((CollectionDeserializer)contextual, (VersionedModelDeserializer<?>)contentDeserializer, batchConversion);
+        }
+        return contextual;
+    }
+
+    @Override
+    public void resolve(DeserializationContext context) throws JsonMappingException {
+        if(delegate instanceof ResolvableDeserializer)
+            ((ResolvableDeserializer)delegate).resolve(context);
+    }
+
+    @Override
+    public Object deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        if(modelDeserializer == null || parser.getCurrentToken() != JsonToken.START_ARRAY)
+            return delegate.deserialize(parser, context);
+
+        // nested in a model that has already built a tree; take the array from it
+        ArrayNode elements;
+        if(parser instanceof ModelDataParser && ((ModelDataParser)parser).getCurrentNode() instanceof ArrayNode) {
+            elements = (ArrayNode)((ModelDataParser)parser).getCurrentNode();
+            parser.skipChildren();
+        } else
+            elements = (ArrayNode)VersionedModelUtils.readTree(parser, context.getNodeFactory());
+
+        Map<JsonNode, ModelVersion> convertedVersions = modelDeserializer.convertBatches(elements, batchConversion, context);
+        JsonParser elementsParser = new ModelDataParser(elements, parser.getCodec(), convertedVersions);
+        elementsParser.nextToken();
+        return delegate.deserialize(elementsParser, context);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object deserialize(JsonParser parser, DeserializationContext context, Object intoValue) throws IOException {
+        return delegate.deserialize(parser, context, (Collection<Object>)intoValue);
+    }
+
+    @Override
+    public Object deserializeWithType(JsonParser parser, DeserializationContext context, TypeDeserializer typeDeserializer) throws IOException {
+        return delegate.deserializeWithType(parser, context, typeDeserializer);
+    }
+}
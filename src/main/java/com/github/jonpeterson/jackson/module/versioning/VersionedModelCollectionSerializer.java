@@ -0,0 +1,160 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.ser.ContextualSerializer;
+import com.fasterxml.jackson.databind.ser.ResolvableSerializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializer wrapped around the serializer of a collection of versioned models with a
+ * {@link BatchVersionedModelConverter}. The models that need converting are built into trees and converted a batch per
+ * target version before the collection is written; the wrapped serializer then writes the collection as usual with each
+ * model's serializer taking its converted tree.
+ */
+class VersionedModelCollectionSerializer extends StdSerializer<Collection<?>> implements ContextualSerializer, ResolvableSerializer {
+    private final JsonSerializer<Object> delegate;
+    private final BatchConversion batchConversion;
+    private final VersioningInstrumentation instrumentation;
+
+    @SuppressWarnings("unchecked")
+    VersionedModelCollectionSerializer(JsonSerializer<?> delegate, BatchConversion batchConversion, VersioningInstrumentation instrumentation) {
+        super(Collection.class, false);
+
+        this.delegate = (JsonSerializer<Object>)delegate;
+        this.batchConversion = batchConversion;
+        this.instrumentation = instrumentation;
+    }
+
+    @Override
+    public JsonSerializer<?> createContextual(SerializerProvider provider, BeanProperty property) throws JsonMappingException {
+        if(!(delegate instanceof ContextualSerializer))
+            return this;
+
+        JsonSerializer<?> contextual = ((ContextualSerializer)delegate).createContextual(provider, property);
+        return contextual == delegate ? this : new VersionedModelCollectionSerializer(contextual, batchConversion, instrumentation);
+    }
+
+    @Override
+    public void resolve(SerializerProvider provider) throws JsonMappingException {
+        if(delegate instanceof ResolvableSerializer)
+            ((ResolvableSerializer)delegate).resolve(provider);
+    }
+
+    @Override
+    public boolean isEmpty(Collection<?> value) {
+        return value == null || value.isEmpty();
+    }
+
+    // not an override before Jackson 2.5
+    public boolean isEmpty(SerializerProvider provider, Collection<?> value) {
+        return isEmpty(value);
+    }
+
+    @Override
+    public void serialize(Collection<?> value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        delegate.serialize(value, convertBatches(value, generator, provider), provider);
+    }
+
+    @Override
+    public void serializeWithType(Collection<?> value, JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException {
+        delegate.serializeWithType(value, convertBatches(value, generator, provider), provider, typeSerializer);
+    }
+
+    // returns the generator to write the collection through
+    @SuppressWarnings("unchecked")
+    private JsonGenerator convertBatches(Collection<?> value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        // models are grouped by serializer as well since subclasses can be versioned differently
+        Map<VersionedModelSerializer<Object>, Map<ModelVersion, List<Object>>> batches = new LinkedHashMap<VersionedModelSerializer<Object>, Map<ModelVersion, List<Object>>>();
+        Class<?> modelClass = null;
+        JsonSerializer<Object> serializer = null;
+        for(Object model: value) {
+            if(model == null)
+                continue;
+            if(model.getClass() != modelClass) {
+                modelClass = model.getClass();
+                serializer = provider.findValueSerializer(modelClass, null);
+            }
+            if(!(serializer instanceof VersionedModelSerializer))
+                continue;
+
+            // cached models are left to the cache
+            VersionedModelSerializer<Object> modelSerializer = (VersionedModelSerializer<Object>)serializer;
+            VersionedModelPlan plan = modelSerializer.getPlan();
+            if(!(plan.converter instanceof BatchVersionedModelConverter) || plan.cacheSerialized)
+                continue;
+
+            ModelVersion targetVersion = modelSerializer.getTargetVersion(model, provider);
+            if(!modelSerializer.isConversionRequired(targetVersion))
+                continue;
+
+            Map<ModelVersion, List<Object>> serializerBatches = batches.get(modelSerializer);
+            if(serializerBatches == null)
+                batches.put(modelSerializer, serializerBatches = new LinkedHashMap<ModelVersion, List<Object>>());
+            List<Object> batch = serializerBatches.get(targetVersion);
+            if(batch == null)
+                serializerBatches.put(targetVersion, batch = new ArrayList<Object>());
+            batch.add(model);
+        }
+
+        if(batches.isEmpty())
+            return generator;
+
+        IdentityHashMap<Object, ObjectNode> convertedModels = new IdentityHashMap<Object, ObjectNode>();
+        for(Map.Entry<VersionedModelSerializer<Object>, Map<ModelVersion, List<Object>>> serializerBatches: batches.entrySet()) {
+            VersionedModelSerializer<Object> modelSerializer = serializerBatches.getKey();
+            VersionedModelPlan plan = modelSerializer.getPlan();
+            for(Map.Entry<ModelVersion, List<Object>> entry: serializerBatches.getValue().entrySet()) {
+                ModelVersion targetVersion = entry.getKey();
+                List<Object> models = entry.getValue();
+                ObjectNode[] modelData = new ObjectNode[models.size()];
+                for(int i = 0; i < modelData.length; i++) {
+                    instrumentation.treePath(plan.modelClass, VersioningInstrumentation.Operation.SERIALIZATION, plan.currentVersion, targetVersion);
+                    modelData[i] = modelSerializer.serializeToTree(models.get(i), provider, generator.getCodec());
+                }
+
+                modelData = batchConversion.convert(plan, modelData, plan.currentVersion, targetVersion, JsonNodeFactory.instance, instrumentation, VersioningInstrumentation.Operation.SERIALIZATION);
+                for(int i = 0; i < modelData.length; i++)
+                    convertedModels.put(models.get(i), modelData[i]);
+            }
+        }
+        return new ConvertedModelGenerator(generator, convertedModels);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+/**
+ * Supplies the converters referenced by {@link JsonVersionedModel#toCurrentConverterClass()} and
+ * {@link JsonVersionedModel#toPastConverterClass()}. Converters returned by a factory may be shared between serializers,
+ * deserializers and threads, so they must be thread-safe.
+ *
+ * @see VersioningModule#setConverterFactory(VersionedModelConverterFactory)
+ */
+public interface VersionedModelConverterFactory {
+
+    /**
+     * @param converterClass class of the converter
+     * @return converter instance of the class
+     * @throws RuntimeException if the converter could not be provided
+     */
+    VersionedModelConverter getConverter(Class<? extends VersionedModelConverter> converterClass) throws RuntimeException;
+}
@@ -23,42 +23,75 @@
  */
 package com.github.jonpeterson.jackson.module.versioning;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonLocation;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.util.JsonParserSequence;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.deser.ResolvableDeserializer;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TreeTraversingParser;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class VersionedModelDeserializer<T> extends StdDeserializer<T> implements ResolvableDeserializer {
+    private static final FieldTransform[] NO_TRANSFORMS = new FieldTransform[0];
+
     private final StdDeserializer<T> delegate;
-    private final JsonVersionedModel jsonVersionedModel;
-    private final VersionedModelConverter converter;
-    private final BeanPropertyDefinition serializeToVersionProperty;
-    private final JsonSerializeToVersion serializeToVersionAnnotation;
+    private final VersionedModelPlan plan;
+    private final VersioningInstrumentation instrumentation;
+    private final boolean instrumented;
+    private final ConvertedModelCache cache;
+    private final ModelDataSpill spill;
 
     public VersionedModelDeserializer(StdDeserializer<T> delegate, JsonVersionedModel jsonVersionedModel, BeanPropertyDefinition serializeToVersionProperty) {
+        this(delegate, jsonVersionedModel, serializeToVersionProperty, new DefaultVersionedModelConverterFactory(), VersioningInstrumentation.NONE);
+    }
+
+    public VersionedModelDeserializer(StdDeserializer<T> delegate, JsonVersionedModel jsonVersionedModel, BeanPropertyDefinition serializeToVersionProperty, VersionedModelConverterFactory converterFactory, VersioningInstrumentation instrumentation) {
+        this(delegate, createPlan(delegate, jsonVersionedModel, serializeToVersionProperty, converterFactory), instrumentation, null, null);
+    }
+
+    /**
+     * @param cache cache for models with {@link JsonVersionedModel#cacheConverted()} set; null to never cache
+     * @param spill where buffered model data goes once it grows too large; null to keep it in memory
+     */
+    VersionedModelDeserializer(StdDeserializer<T> delegate, VersionedModelPlan plan, VersioningInstrumentation instrumentation, ConvertedModelCache cache, ModelDataSpill spill) {
         super(delegate.getValueType());
 
         this.delegate = delegate;
-        this.jsonVersionedModel = jsonVersionedModel;
-        this.serializeToVersionProperty = serializeToVersionProperty;
-        this.serializeToVersionAnnotation = serializeToVersionProperty != null ? serializeToVersionProperty.getAccessor().getAnnotation(JsonSerializeToVersion.class) : null;
+        this.plan = plan;
+        this.instrumentation = instrumentation;
+        this.instrumented = instrumentation != VersioningInstrumentation.NONE;
+        this.cache = plan.cacheConverted ? cache : null;
+
+        // cache keys are made of the buffered tokens, so they have to stay in memory
+        this.spill = this.cache == null ? spill : null;
+    }
 
+    static VersionedModelPlan createPlan(StdDeserializer<?> delegate, JsonVersionedModel jsonVersionedModel, BeanPropertyDefinition serializeToVersionProperty, VersionedModelConverterFactory converterFactory) {
         Class<? extends VersionedModelConverter> converterClass = jsonVersionedModel.toCurrentConverterClass();
-        if(converterClass != VersionedModelConverter.class)
-            try {
-                this.converter = converterClass.newInstance();
-            } catch(Exception e) {
-                throw new RuntimeException("unable to create instance of converter '" + converterClass.getName() + "'", e);
-            }
-        else
-            converter = null;
+        return new VersionedModelPlan(
+            delegate.getValueClass(),
+            jsonVersionedModel,
+            serializeToVersionProperty,
+            converterClass != VersionedModelConverter.class ? converterFactory.getConverter(converterClass) : null
+        );
     }
 
     @Override
@@ -69,35 +102,375 @@ public class VersionedModelDeserializer<T> extends StdDeserializer<T> implements
 
     @Override
     public T deserialize(JsonParser parser, DeserializationContext context) throws IOException {
-        JsonNode jsonNode = parser.readValueAsTree();
-        
-        if(!(jsonNode instanceof ObjectNode))
-            throw context.mappingException("value must be a JSON object");
+        // nested in a model that has already built a tree; take this model's part of it instead of re-reading its tokens
+        if(parser instanceof ModelDataParser && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+            JsonNode node = ((ModelDataParser)parser).getCurrentNode();
+            if(node instanceof ObjectNode) {
+                parser.skipChildren();
+
+                // converted ahead of time along with the rest of its collection
+                ModelVersion convertedVersion = ((ModelDataParser)parser).getConvertedVersion(node);
+                if(convertedVersion != null)
+                    return delegateDeserialize((ObjectNode)node, convertedVersion, parser.getCodec(), context);
+                return deserializeModelData((ObjectNode)node, parser, context);
+            }
+        }
+
+        // a tree the caller holds (ex. ObjectMapper.treeToValue); a model that needs its converter is converted from the
+        //   tree without first being copied into tokens, while any other model streams from the tree's tokens as usual
+        if(cache == null && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+            JsonNode node = VersionedModelUtils.getTreeNode(parser);
+            if(node instanceof ObjectNode) {
+                JsonNode modelVersionNode = node.get(plan.propertyName);
+                ModelVersion modelVersion = modelVersionNode == null ? plan.defaultDeserializeToVersion : VersionedModelUtils.toModelVersion(modelVersionNode.asText());
+                if(modelVersion != null && isConversionRequired(modelVersion)) {
+                    checkConvertible(modelVersion, parser);
+                    if(plan.getTransforms(modelVersion, plan.currentVersion) == null) {
+                        parser.skipChildren();
+                        return deserializeTree((ObjectNode)node, modelVersion, parser, context);
+                    }
+                }
+            }
+        }
+
+        // a polymorphic type deserializer may have already consumed the start of the object
+        JsonToken token = parser.getCurrentToken();
+        if(token == JsonToken.START_OBJECT)
+            token = parser.nextToken();
+        else if(token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT)
+            throw JsonMappingException.from(parser, "value must be a JSON object");
+
+        long startOffset = instrumented ? getOffset(parser.getTokenLocation()) : -1;
+
+        // buffer properties only until the model version property is found
+        ModelDataBuffer buffer = new ModelDataBuffer(parser.getCodec(), spill);
+        try {
+            return deserializeBuffered(parser, token, buffer, startOffset, context);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    private T deserializeBuffered(JsonParser parser, JsonToken token, ModelDataBuffer buffer, long startOffset, DeserializationContext context) throws IOException {
+        buffer.writeStartObject();
+
+        String modelVersionValue = null;
+        boolean modelVersionFound = false;
+        for(; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+            if(parser.getCurrentName().equals(plan.propertyName)) {
+                modelVersionValue = readModelVersion(parser);
+                modelVersionFound = true;
+                break;
+            }
+            buffer.copyCurrentStructure(parser);
+        }
+
+        ModelVersion modelVersion;
+        if(modelVersionValue == null)
+            modelVersion = plan.defaultDeserializeToVersion;
+        else
+            modelVersion = VersionedModelUtils.toModelVersion(modelVersionValue);
+
+        if(modelVersion == null)
+            throw JsonMappingException.from(parser, "'" + plan.propertyName + "' property was null and defaultDeserializeToVersion was not set");
+
+        // convert the model if converter specified and model needs converting; conversions made of field transforms
+        //   are streamed
+        boolean convert = isConversionRequired(modelVersion);
+        if(convert)
+            checkConvertible(modelVersion, parser);
+        FieldTransform[] transforms = convert ? plan.getTransforms(modelVersion, plan.currentVersion) : NO_TRANSFORMS;
+        if(transforms != null) {
+            if(instrumented) {
+                instrumentation.fastPath(plan.modelClass, VersioningInstrumentation.Operation.DESERIALIZATION, modelVersion, plan.currentVersion);
+                reportBytesBuffered(startOffset, parser);
+            }
+
+            // replay the buffered properties then stream the rest of the model straight from the source parser
+            JsonParser postInterceptionParser;
+            if(modelVersionFound)
+                postInterceptionParser = JsonParserSequence.createFlattened(buffer.asParser(parser), parser);
+            else {
+                buffer.writeEndObject();
+                postInterceptionParser = buffer.asParser(parser);
+            }
+            for(FieldTransform transform: transforms)
+                postInterceptionParser = new FieldTransformingParser(postInterceptionParser, transform);
+
+            // set the serializeToVersionProperty value to the source model version if the defaultToSource property is
+            //   true; it goes after the rest of the model so that a value in the input can't override it
+            if(plan.serializeToVersionDefaultToSource)
+                postInterceptionParser = new FieldTransformingParser(postInterceptionParser, plan.getSourceVersionTransform(modelVersion));
+            postInterceptionParser.nextToken();
+            return delegate.deserialize(postInterceptionParser, context);
+        }
+
+        // a converter that declares the properties it uses only gets those built into a tree; the rest stay tokens
+        Set<String> fieldNames = cache == null ? plan.getFieldNames(modelVersion, plan.currentVersion) : null;
+        if(fieldNames != null)
+            return deserializePartially(parser, buffer, modelVersionFound, modelVersion, fieldNames, startOffset, context);
+
+        // buffer the rest of the model and build a tree out of it for the converter
+        if(modelVersionFound)
+            while(parser.nextToken() == JsonToken.FIELD_NAME)
+                buffer.copyCurrentStructure(parser);
+        buffer.writeEndObject();
+
+        if(instrumented) {
+            instrumentation.treePath(plan.modelClass, VersioningInstrumentation.Operation.DESERIALIZATION, modelVersion, plan.currentVersion);
+            reportBytesBuffered(startOffset, parser);
+        }
+
+        // input seen before is replayed as it was converted then
+        ConvertedModelCache.Key key = null;
+        if(cache != null) {
+            key = new ConvertedModelCache.Key(plan.modelClass, modelVersion, buffer.getTokens());
+            TokenBuffer converted = cache.get(key);
+            if(converted != null)
+                return replay(converted, parser, context);
+        }
+
+        ObjectNode modelData = (ObjectNode)VersionedModelUtils.readTree(buffer.asParser(parser), context.getNodeFactory());
+        modelData = convert(modelData, modelVersion, context);
+
+        if(key == null)
+            return delegateDeserialize(modelData, modelVersion, parser.getCodec(), context);
+
+        // the tree would be changed by nested models converting their parts of it in place, so tokens are cached
+        if(plan.serializeToVersionDefaultToSource)
+            modelData.put(plan.serializeToVersionPropertyName, modelVersion.getValue());
+
+        TokenBuffer converted = VersionedModelUtils.createTokenBuffer(null);
+        JsonParser modelDataParser = modelData.traverse();
+        modelDataParser.nextToken();
+        converted.copyCurrentStructure(modelDataParser);
+        cache.put(key, converted);
+        return replay(converted, parser, context);
+    }
+
+    private T deserializePartially(JsonParser parser, ModelDataBuffer buffer, boolean modelVersionFound, ModelVersion modelVersion, Set<String> fieldNames, long startOffset, DeserializationContext context) throws IOException {
+        ModelDataBuffer passThrough = new ModelDataBuffer(parser.getCodec(), spill);
+        try {
+            return deserializePartially(parser, buffer, passThrough, modelVersionFound, modelVersion, fieldNames, startOffset, context);
+        } finally {
+            passThrough.close();
+        }
+    }
+
+    // undeclared properties are passed through the buffer, which may spill them, on their way to the delegate
+    private T deserializePartially(JsonParser parser, ModelDataBuffer buffer, ModelDataBuffer passThrough, boolean modelVersionFound, ModelVersion modelVersion, Set<String> fieldNames, long startOffset, DeserializationContext context) throws IOException {
+        passThrough.writeStartObject();
+        ObjectNode modelData = context.getNodeFactory().objectNode();
+
+        // the properties before the version property have already been buffered
+        JsonParser bufferParser = buffer.asParser(parser);
+        bufferParser.nextToken();
+        splitFields(bufferParser, fieldNames, modelData, passThrough, context);
+        if(modelVersionFound)
+            splitFields(parser, fieldNames, modelData, passThrough, context);
+
+        if(instrumented) {
+            instrumentation.treePath(plan.modelClass, VersioningInstrumentation.Operation.DESERIALIZATION, modelVersion, plan.currentVersion);
+            reportBytesBuffered(startOffset, parser);
+        }
+
+        modelData = convert(modelData, modelVersion, context);
+
+        // the converted properties follow the ones passed through
+        JsonParser modelDataParser = modelData.traverse();
+        modelDataParser.nextToken();
+        while(modelDataParser.nextToken() == JsonToken.FIELD_NAME)
+            passThrough.copyCurrentStructure(modelDataParser);
 
-        ObjectNode modelData = (ObjectNode)jsonNode;
+        // set the serializeToVersionProperty value to the source model version if the defaultToSource property is true
+        if(plan.serializeToVersionDefaultToSource)
+            passThrough.writeStringField(plan.serializeToVersionPropertyName, modelVersion.getValue());
+
+        passThrough.writeEndObject();
+        JsonParser postInterceptionParser = passThrough.asParser(parser);
+        postInterceptionParser.nextToken();
+        return delegate.deserialize(postInterceptionParser, context);
+    }
+
+    // builds the declared properties into the tree and copies the others as tokens until the end of the object
+    private static void splitFields(JsonParser parser, Set<String> fieldNames, ObjectNode modelData, JsonGenerator passThrough, DeserializationContext context) throws IOException {
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            if(fieldNames.contains(name)) {
+                parser.nextToken();
+                modelData.set(name, VersionedModelUtils.readTree(parser, context.getNodeFactory()));
+            } else
+                passThrough.copyCurrentStructure(parser);
+        }
+    }
+
+    // the caller's tree is left as it is; only what the converter is given is copied and the rest is shared
+    private T deserializeTree(ObjectNode source, ModelVersion modelVersion, JsonParser parser, DeserializationContext context) throws IOException {
+        if(instrumented)
+            instrumentation.treePath(plan.modelClass, VersioningInstrumentation.Operation.DESERIALIZATION, modelVersion, plan.currentVersion);
+
+        Set<String> fieldNames = plan.getFieldNames(modelVersion, plan.currentVersion);
+        if(fieldNames == null) {
+            ObjectNode modelData = source.deepCopy();
+            modelData.remove(plan.propertyName);
+            return delegateDeserialize(convert(modelData, modelVersion, context), modelVersion, parser.getCodec(), context);
+        }
 
-        JsonNode modelVersionNode = modelData.remove(jsonVersionedModel.propertyName());
+        // a converter that declares the properties it uses only gets copies of those; the converted properties follow
+        //   the shared ones
+        ObjectNode modelData = context.getNodeFactory().objectNode();
+        ObjectNode overlay = context.getNodeFactory().objectNode();
+        for(Iterator<Map.Entry<String, JsonNode>> fields = source.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if(fieldNames.contains(field.getKey()))
+                modelData.set(field.getKey(), field.getValue().deepCopy());
+            else if(!field.getKey().equals(plan.propertyName))
+                overlay.set(field.getKey(), field.getValue());
+        }
+        modelData.remove(plan.propertyName);
+        overlay.setAll(convert(modelData, modelVersion, context));
 
-        String modelVersion = null;
-        if(modelVersionNode != null)
-            modelVersion = modelVersionNode.asText();
+        // set the serializeToVersionProperty value to the source model version if the defaultToSource property is true
+        if(plan.serializeToVersionDefaultToSource)
+            overlay.put(plan.serializeToVersionPropertyName, modelVersion.getValue());
+
+        // the shared parts are read like any other tree the caller holds, so nested models don't change them
+        JsonParser postInterceptionParser = new TreeTraversingParser(overlay, parser.getCodec());
+        postInterceptionParser.nextToken();
+        return delegate.deserialize(postInterceptionParser, context);
+    }
+
+    private ObjectNode convert(ObjectNode modelData, ModelVersion modelVersion, DeserializationContext context) {
+        long start = instrumented ? System.nanoTime() : 0;
+        modelData = VersionedModelUtils.convert(plan.converter, modelData, modelVersion, plan.currentVersion, context.getNodeFactory());
+        if(instrumented)
+            instrumentation.conversion(plan.modelClass, VersioningInstrumentation.Operation.DESERIALIZATION, modelVersion, plan.currentVersion, System.nanoTime() - start);
+        return modelData;
+    }
+
+    private T replay(TokenBuffer converted, JsonParser parser, DeserializationContext context) throws IOException {
+        JsonParser postInterceptionParser = converted.asParser(parser.getCodec());
+        postInterceptionParser.nextToken();
+        return delegate.deserialize(postInterceptionParser, context);
+    }
+
+    VersionedModelPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * @return whether model data at the version is converted before being handed to the delegate deserializer
+     */
+    boolean isConversionRequired(ModelVersion modelVersion) {
+        return plan.converter != null && (plan.alwaysConvert || !plan.versionCompatibility.areCompatible(modelVersion, plan.currentVersion));
+    }
+
+    // a version the converter has no steps from is reported against the input rather than failing in the converter
+    private void checkConvertible(ModelVersion modelVersion, JsonParser parser) throws JsonMappingException {
+        if(!plan.canConvert(modelVersion, plan.currentVersion))
+            throw JsonMappingException.from(parser, "no conversion path from version '" + modelVersion + "' to '" + plan.currentVersion + "'");
+    }
+
+    /**
+     * Converts the elements of an array of models that need converting a batch per version. Converted elements are
+     * replaced in the array and have their model version property removed.
+     *
+     * @return the source versions of the converted elements by node identity
+     */
+    Map<JsonNode, ModelVersion> convertBatches(ArrayNode elements, BatchConversion batchConversion, DeserializationContext context) {
+        Map<ModelVersion, List<Integer>> indexesByVersion = new LinkedHashMap<ModelVersion, List<Integer>>();
+        for(int i = 0; i < elements.size(); i++) {
+            JsonNode element = elements.get(i);
+            if(!(element instanceof ObjectNode))
+                continue;
+
+            // models without a usable version are left to fail when they are deserialized on their own
+            JsonNode modelVersionNode = element.get(plan.propertyName);
+            ModelVersion modelVersion = modelVersionNode == null ? plan.defaultDeserializeToVersion : VersionedModelUtils.toModelVersion(modelVersionNode.asText());
+            if(modelVersion == null || !isConversionRequired(modelVersion) || !plan.canConvert(modelVersion, plan.currentVersion))
+                continue;
+
+            List<Integer> indexes = indexesByVersion.get(modelVersion);
+            if(indexes == null)
+                indexesByVersion.put(modelVersion, indexes = new ArrayList<Integer>());
+            indexes.add(i);
+        }
+
+        Map<JsonNode, ModelVersion> convertedVersions = new IdentityHashMap<JsonNode, ModelVersion>();
+        for(Map.Entry<ModelVersion, List<Integer>> entry: indexesByVersion.entrySet()) {
+            ModelVersion modelVersion = entry.getKey();
+            List<Integer> indexes = entry.getValue();
+            ObjectNode[] batch = new ObjectNode[indexes.size()];
+            for(int i = 0; i < batch.length; i++) {
+                batch[i] = (ObjectNode)elements.get(indexes.get(i));
+                batch[i].remove(plan.propertyName);
+                if(instrumented)
+                    instrumentation.treePath(plan.modelClass, VersioningInstrumentation.Operation.DESERIALIZATION, modelVersion, plan.currentVersion);
+            }
+
+            batch = batchConversion.convert(plan, batch, modelVersion, plan.currentVersion, context.getNodeFactory(), instrumentation, VersioningInstrumentation.Operation.DESERIALIZATION);
+            for(int i = 0; i < batch.length; i++) {
+                elements.set(indexes.get(i), batch[i]);
+                convertedVersions.put(batch[i], modelVersion);
+            }
+        }
+        return convertedVersions;
+    }
+
+    private T deserializeModelData(ObjectNode modelData, JsonParser parser, DeserializationContext context) throws IOException {
+        JsonNode modelVersionNode = modelData.remove(plan.propertyName);
+
+        ModelVersion modelVersion;
+        if(modelVersionNode == null)
+            modelVersion = plan.defaultDeserializeToVersion;
+        else
+            modelVersion = VersionedModelUtils.toModelVersion(modelVersionNode.asText());
 
         if(modelVersion == null)
-            modelVersion = jsonVersionedModel.defaultDeserializeToVersion();
+            throw JsonMappingException.from(parser, "'" + plan.propertyName + "' property was null and defaultDeserializeToVersion was not set");
 
-        if(modelVersion.isEmpty())
-            throw context.mappingException("'" + jsonVersionedModel.propertyName() + "' property was null and defaultDeserializeToVersion was not set");
+        // the data is already a tree, so even field transforms are applied to it as it is
+        if(isConversionRequired(modelVersion)) {
+            checkConvertible(modelVersion, parser);
+            if(instrumented)
+                instrumentation.treePath(plan.modelClass, VersioningInstrumentation.Operation.DESERIALIZATION, modelVersion, plan.currentVersion);
 
-        // convert the model if converter specified and model needs converting
-        if(converter != null && (jsonVersionedModel.alwaysConvert() || !modelVersion.equals(jsonVersionedModel.currentVersion())))
-            modelData = converter.convert(modelData, modelVersion, jsonVersionedModel.currentVersion(), context.getNodeFactory());
+            modelData = convert(modelData, modelVersion, context);
+        } else if(instrumented)
+            instrumentation.fastPath(plan.modelClass, VersioningInstrumentation.Operation.DESERIALIZATION, modelVersion, plan.currentVersion);
 
+        return delegateDeserialize(modelData, modelVersion, parser.getCodec(), context);
+    }
+
+    private T delegateDeserialize(ObjectNode modelData, ModelVersion modelVersion, ObjectCodec codec, DeserializationContext context) throws IOException {
         // set the serializeToVersionProperty value to the source model version if the defaultToSource property is true
-        if(serializeToVersionAnnotation != null && serializeToVersionAnnotation.defaultToSource())
-            modelData.put(serializeToVersionProperty.getName(), modelVersion);
+        if(plan.serializeToVersionDefaultToSource)
+            modelData.put(plan.serializeToVersionPropertyName, modelVersion.getValue());
 
-        JsonParser postInterceptionParser = new TreeTraversingParser(modelData, parser.getCodec());
+        // nested versioned models take their data straight from the tree
+        JsonParser postInterceptionParser = new ModelDataParser(modelData, codec);
         postInterceptionParser.nextToken();
         return delegate.deserialize(postInterceptionParser, context);
     }
+
+    private void reportBytesBuffered(long startOffset, JsonParser parser) {
+        long endOffset = getOffset(parser.getCurrentLocation());
+        if(startOffset >= 0 && endOffset >= startOffset)
+            instrumentation.bytesBuffered(plan.modelClass, VersioningInstrumentation.Operation.DESERIALIZATION, endOffset - startOffset);
+    }
+
+    // byte parsers report byte offsets and character parsers report character offsets; -1 when the source has neither
+    private static long getOffset(JsonLocation location) {
+        return location.getByteOffset() >= 0 ? location.getByteOffset() : location.getCharOffset();
+    }
+
+    // reads the value of the model version property the same way JsonNode.asText() would have
+    static String readModelVersion(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if(token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return "";
+        }
+        return parser.getText();
+    }
 }
\ No newline at end of file
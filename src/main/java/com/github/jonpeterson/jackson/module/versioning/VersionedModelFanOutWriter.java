@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.ser.DefaultSerializerProvider;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link JsonVersionedModel} for several target versions at once. The model is serialized only once, at its
+ * current version, and the tree is converted to each target version with the model's {@code toPastConverterClass}.
+ * Target versions reached through the same steps of a {@link StepwiseVersionedModelConverter} share the results of
+ * those steps; other converters convert a copy of the tree per target version.
+ * <p>
+ * The model's {@link JsonSerializeToVersion} property and {@code defaultSerializeToVersion} are ignored and no type
+ * information is written for the model itself. Nested versioned models are written as usual.
+ */
+public class VersionedModelFanOutWriter {
+    private final ObjectMapper mapper;
+
+    /**
+     * @param mapper mapper with the {@link VersioningModule} registered
+     */
+    public VersionedModelFanOutWriter(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * @param value          versioned model to write
+     * @param targetVersions versions to write the model at
+     * @return the encoded model for each target version, in the order the versions were given
+     * @throws IOException if the model fails to serialize
+     */
+    public Map<String, byte[]> writeValueAsBytes(Object value, String... targetVersions) throws IOException {
+        DefaultSerializerProvider provider = ((DefaultSerializerProvider)mapper.getSerializerProvider()).createInstance(mapper.getSerializationConfig(), mapper.getSerializerFactory());
+        JsonSerializer<Object> serializer = provider.findValueSerializer(value.getClass(), null);
+        if(!(serializer instanceof VersionedModelSerializer))
+            throw new IllegalArgumentException(value.getClass().getName() + " is not a versioned model or the mapper doesn't have the " + VersioningModule.class.getSimpleName() + " registered");
+
+        @SuppressWarnings("unchecked")
+        VersionedModelSerializer<Object> versionedSerializer = (VersionedModelSerializer<Object>)serializer;
+        VersionedModelPlan plan = versionedSerializer.getPlan();
+        ObjectNode currentData = versionedSerializer.serializeToTree(value, provider, mapper);
+
+        // the tree at the current version is written for each target that needs no conversion before anything converts it
+        Map<ModelVersion, byte[]> payloads = new LinkedHashMap<ModelVersion, byte[]>();
+        List<ModelVersion> convertedVersions = new ArrayList<ModelVersion>();
+        for(String targetVersionValue: targetVersions) {
+            ModelVersion targetVersion = ModelVersion.of(targetVersionValue);
+            if(payloads.containsKey(targetVersion) || convertedVersions.contains(targetVersion))
+                continue;
+
+            if(plan.converter != null && (plan.alwaysConvert || !plan.versionCompatibility.areCompatible(plan.currentVersion, targetVersion)))
+                convertedVersions.add(targetVersion);
+            else
+                payloads.put(targetVersion, write(plan, currentData, targetVersion));
+        }
+
+        // versions with conversion steps in common are converted along a tree of steps; the rest from their own copy
+        PathNode root = new PathNode();
+        List<ModelVersion> unsharedVersions = new ArrayList<ModelVersion>();
+        for(ModelVersion targetVersion: convertedVersions) {
+            StepwiseVersionedModelConverter.Step[] steps = plan.getSteps(plan.currentVersion, targetVersion);
+            if(steps == null) {
+                unsharedVersions.add(targetVersion);
+                continue;
+            }
+
+            PathNode node = root;
+            for(StepwiseVersionedModelConverter.Step step: steps) {
+                PathNode child = node.children.get(step);
+                if(child == null)
+                    node.children.put(step, child = new PathNode());
+                node = child;
+            }
+            node.targetVersions.add(targetVersion);
+        }
+
+        for(ModelVersion targetVersion: unsharedVersions) {
+            ObjectNode modelData = VersionedModelUtils.convert(plan.converter, currentData.deepCopy(), plan.currentVersion, targetVersion, JsonNodeFactory.instance);
+            payloads.put(targetVersion, write(plan, modelData, targetVersion));
+        }
+        convertAlong(plan, root, currentData, payloads);
+
+        Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+        for(String targetVersionValue: targetVersions)
+            result.put(targetVersionValue, payloads.get(ModelVersion.of(targetVersionValue)));
+        return result;
+    }
+
+    // steps modify the data in place, so every branch but the last gets its own copy
+    private void convertAlong(VersionedModelPlan plan, PathNode node, ObjectNode modelData, Map<ModelVersion, byte[]> payloads) throws IOException {
+        for(ModelVersion targetVersion: node.targetVersions)
+            payloads.put(targetVersion, write(plan, modelData, targetVersion));
+
+        int remaining = node.children.size();
+        for(Map.Entry<StepwiseVersionedModelConverter.Step, PathNode> child: node.children.entrySet()) {
+            ObjectNode childData = --remaining == 0 ? modelData : modelData.deepCopy();
+            convertAlong(plan, child.getValue(), child.getKey().convert(childData, JsonNodeFactory.instance), payloads);
+        }
+    }
+
+    // adds the version property only for as long as it takes to write the data since it may be converted further
+    private byte[] write(VersionedModelPlan plan, ObjectNode modelData, ModelVersion targetVersion) throws IOException {
+        if(targetVersion.equals(plan.versionToSuppressPropertySerialization))
+            return mapper.writeValueAsBytes(modelData);
+
+        JsonNode previous = modelData.get(plan.propertyName);
+        modelData.put(plan.propertyName, targetVersion.getValue());
+        try {
+            return mapper.writeValueAsBytes(modelData);
+        } finally {
+            if(previous == null)
+                modelData.remove(plan.propertyName);
+            else
+                modelData.set(plan.propertyName, previous);
+        }
+    }
+
+
+    private static class PathNode {
+        // steps are shared by identity between the paths of a converter
+        final Map<StepwiseVersionedModelConverter.Step, PathNode> children = new IdentityHashMap<StepwiseVersionedModelConverter.Step, PathNode>();
+        final List<ModelVersion> targetVersions = new ArrayList<ModelVersion>(1);
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads a single {@link JsonVersionedModel} from input that arrives in chunks (ex. from an event loop) without a thread
+ * blocking on the rest of the input. Chunks are handed over with {@link #feed(byte[], int, int)} as they arrive and the
+ * model is produced by {@link #end()} once the last one has.
+ * <p>
+ * With Jackson 2.9 and up and a JSON mapper, each chunk is parsed as soon as it is fed. The model's version is known as
+ * soon as its version property has been parsed, so input at unwanted versions can be dropped early, and only the
+ * converter and delegate deserializer are left to run at the end. Otherwise, chunks are collected and parsed at the
+ * end. Either way, the model is converted and deserialized by the mapper's versioned model deserializer.
+ * <p>
+ * Not thread-safe; use one feeder per input.
+ */
+public class VersionedModelFeeder<T> {
+    private static final Method CREATE_NON_BLOCKING_PARSER;
+    private static final Method GET_INPUT_FEEDER;
+    private static final Method FEED_INPUT;
+    private static final Method END_OF_INPUT;
+
+    static {
+        // the non-blocking parser was added in Jackson 2.9
+        Method createNonBlockingParser = null;
+        Method getInputFeeder = null;
+        Method feedInput = null;
+        Method endOfInput = null;
+        try {
+            createNonBlockingParser = JsonFactory.class.getMethod("createNonBlockingByteArrayParser");
+            getInputFeeder = JsonParser.class.getMethod("getNonBlockingInputFeeder");
+            feedInput = Class.forName("com.fasterxml.jackson.core.async.ByteArrayFeeder").getMethod("feedInput", byte[].class, int.class, int.class);
+            endOfInput = Class.forName("com.fasterxml.jackson.core.async.NonBlockingInputFeeder").getMethod("endOfInput");
+        } catch(NoSuchMethodException e) {
+            createNonBlockingParser = null;
+        } catch(ClassNotFoundException e) {
+            createNonBlockingParser = null;
+        }
+        CREATE_NON_BLOCKING_PARSER = createNonBlockingParser;
+        GET_INPUT_FEEDER = getInputFeeder;
+        FEED_INPUT = feedInput;
+        END_OF_INPUT = endOfInput;
+    }
+
+
+    private final ObjectMapper mapper;
+    private final Class<T> modelClass;
+    private final VersionedModelPlan plan;
+
+    // incremental parsing
+    private final JsonParser parser;
+    private final Object inputFeeder;
+    private final TokenBuffer buffer;
+    private int depth;
+    private boolean versionValueNext;
+    private boolean complete;
+
+    // collected input
+    private byte[] input;
+    private int inputLength;
+
+    private ModelVersion modelVersion;
+    private boolean ended;
+
+    /**
+     * @param mapper     mapper with the {@link VersioningModule} registered
+     * @param modelClass versioned model class to read
+     */
+    public VersionedModelFeeder(ObjectMapper mapper, Class<T> modelClass) throws IOException {
+        this.mapper = mapper;
+        this.modelClass = modelClass;
+        this.plan = VersionedModelUtils.findVersionedDeserializer(mapper, modelClass).getPlan();
+
+        JsonParser parser = null;
+        Object inputFeeder = null;
+        if(CREATE_NON_BLOCKING_PARSER != null) {
+            try {
+                parser = (JsonParser)CREATE_NON_BLOCKING_PARSER.invoke(mapper.getFactory());
+                inputFeeder = GET_INPUT_FEEDER.invoke(parser);
+            } catch(InvocationTargetException e) {
+                // formats other than JSON can't be parsed incrementally
+                parser = null;
+            } catch(IllegalAccessException e) {
+                parser = null;
+            }
+        }
+
+        if(parser != null && FEED_INPUT.getDeclaringClass().isInstance(inputFeeder)) {
+            this.parser = parser;
+            this.inputFeeder = inputFeeder;
+            this.buffer = VersionedModelUtils.createTokenBuffer(mapper);
+        } else {
+            this.parser = null;
+            this.inputFeeder = null;
+            this.buffer = null;
+            this.input = new byte[1024];
+        }
+    }
+
+    /**
+     * @return whether chunks are parsed as they are fed rather than when the input ends
+     */
+    public boolean isIncremental() {
+        return parser != null;
+    }
+
+    /**
+     * @return the model's version once its version property has been parsed; null before then and until the input
+     *         ends if chunks aren't parsed incrementally
+     */
+    public ModelVersion getModelVersion() {
+        return modelVersion;
+    }
+
+    /**
+     * Feeds the next chunk of input. The chunk isn't referenced after this returns.
+     *
+     * @param data   chunk
+     * @param offset offset of the chunk in the array
+     * @param length length of the chunk
+     * @throws IOException if the input isn't valid JSON or isn't an object
+     */
+    public void feed(byte[] data, int offset, int length) throws IOException {
+        if(ended)
+            throw new IllegalStateException("input has already ended");
+        if(length == 0)
+            return;
+
+        if(parser == null) {
+            if(inputLength + length > input.length)
+                input = Arrays.copyOf(input, Math.max(input.length * 2, inputLength + length));
+            System.arraycopy(data, offset, input, inputLength, length);
+            inputLength += length;
+            return;
+        }
+
+        // anything after the model is ignored, like it would be when reading a whole input
+        if(complete)
+            return;
+
+        invoke(FEED_INPUT, data, offset, length);
+        parseAvailable();
+    }
+
+    /**
+     * Feeds the remaining bytes of the buffer. Same as {@link #feed(byte[], int, int)}.
+     */
+    public void feed(ByteBuffer chunk) throws IOException {
+        if(chunk.hasArray()) {
+            feed(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+            chunk.position(chunk.limit());
+        } else {
+            byte[] data = new byte[chunk.remaining()];
+            chunk.get(data);
+            feed(data, 0, data.length);
+        }
+    }
+
+    /**
+     * Ends the input and reads the model out of it.
+     *
+     * @return the model, converted to its current version
+     * @throws IOException if the input is incomplete or the model fails to deserialize
+     */
+    public T end() throws IOException {
+        if(ended)
+            throw new IllegalStateException("input has already ended");
+        ended = true;
+
+        if(parser == null)
+            return mapper.readValue(input, 0, inputLength, modelClass);
+
+        if(!complete) {
+            invoke(END_OF_INPUT);
+            parseAvailable();
+            if(!complete)
+                throw JsonMappingException.from(parser, "input ended before the model did");
+        }
+        parser.close();
+
+        // the versioned deserializer finds the version and converts from the tokens already parsed
+        return mapper.readValue(buffer.asParser(mapper), modelClass);
+    }
+
+    // copies the tokens parsed out of the input so far into the buffer while tracking the model's version property
+    private void parseAvailable() throws IOException {
+        JsonToken token;
+        while(!complete && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if(depth == 0 && token != JsonToken.START_OBJECT)
+                throw JsonMappingException.from(parser, "value must be a JSON object");
+
+            // read the same way JsonNode.asText() would have
+            if(versionValueNext) {
+                String value = token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY ? "" : parser.getText();
+                modelVersion = VersionedModelUtils.toModelVersion(value);
+                versionValueNext = false;
+            }
+
+            buffer.copyCurrentEvent(parser);
+
+            if(token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY)
+                depth++;
+            else if(token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+                if(--depth == 0) {
+                    complete = true;
+                    if(modelVersion == null)
+                        modelVersion = plan.defaultDeserializeToVersion;
+                }
+            } else if(depth == 1 && token == JsonToken.FIELD_NAME && parser.getCurrentName().equals(plan.propertyName))
+                versionValueNext = true;
+        }
+    }
+
+    private void invoke(Method method, Object... args) throws IOException {
+        try {
+            method.invoke(inputFeeder, args);
+        } catch(InvocationTargetException e) {
+            if(e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            throw new IOException("failed to feed input", e.getCause());
+        } catch(IllegalAccessException e) {
+            throw new IOException("failed to feed input", e);
+        }
+    }
+}
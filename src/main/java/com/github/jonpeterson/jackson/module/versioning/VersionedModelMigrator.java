@@ -0,0 +1,700 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Rewrites stored documents of a {@link JsonVersionedModel} at its current version so that reading them no longer pays
+ * for conversion. Documents are converted with the model's {@code toCurrentConverterClass}, obtained from the module's
+ * {@link VersionedModelConverterFactory}, on multiple threads. Documents that wouldn't be converted on read (ex. already
+ * at the current version) are copied byte for byte; they are only parsed as far as the version property.
+ * <p>
+ * Input is either a newline-delimited JSON file with one document per line or a directory tree of {@code .json} files
+ * with one document per file. Input files are memory-mapped. With a checkpoint file set, progress is recorded every
+ * {@link #setCheckpointInterval(int) few documents} and when a document fails to migrate; running the migration again
+ * with the same checkpoint file resumes after the last document recorded.
+ * <p>
+ * Can also be run from the command line:
+ * <pre>
+ * java ... VersionedModelMigrator [--dry-run] [--threads=N] [--checkpoint=FILE] MODEL_CLASS INPUT [OUTPUT]
+ * </pre>
+ */
+public class VersionedModelMigrator {
+    private static final int WINDOW_SIZE = 256 * 1024 * 1024;
+    private static final int MAP_THRESHOLD = 64 * 1024;
+    private static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+    private static final int PENDING_PER_THREAD = 64;
+    private static final String TEMP_SUFFIX = ".migrating";
+
+    /**
+     * Counts of the documents migrated.
+     */
+    public static class Report {
+        private final Map<ModelVersion, Long> sourceVersionCounts = new TreeMap<ModelVersion, Long>();
+        private long convertedCount;
+        private long copiedCount;
+
+        /**
+         * @return number of documents per version they were stored at
+         */
+        public Map<ModelVersion, Long> getSourceVersionCounts() {
+            return Collections.unmodifiableMap(sourceVersionCounts);
+        }
+
+        /**
+         * @return number of documents converted (or that would have been during a dry run)
+         */
+        public long getConvertedCount() {
+            return convertedCount;
+        }
+
+        /**
+         * @return number of documents copied as-is
+         */
+        public long getCopiedCount() {
+            return copiedCount;
+        }
+
+        /**
+         * @return number of documents migrated
+         */
+        public long getDocumentCount() {
+            return convertedCount + copiedCount;
+        }
+
+        @Override
+        public String toString() {
+            return getDocumentCount() + " documents (" + convertedCount + " converted, " + copiedCount + " copied); source versions: " + sourceVersionCounts;
+        }
+
+        private void add(Document document) {
+            Long count = sourceVersionCounts.get(document.sourceVersion);
+            sourceVersionCounts.put(document.sourceVersion, count == null ? 1 : count + 1);
+            if(document.converted)
+                convertedCount++;
+            else
+                copiedCount++;
+        }
+
+        private void save(Properties properties) {
+            properties.setProperty("converted", Long.toString(convertedCount));
+            properties.setProperty("copied", Long.toString(copiedCount));
+            for(Map.Entry<ModelVersion, Long> entry: sourceVersionCounts.entrySet())
+                properties.setProperty("version." + entry.getKey(), entry.getValue().toString());
+        }
+
+        private void restore(Properties properties) {
+            convertedCount = Long.parseLong(properties.getProperty("converted"));
+            copiedCount = Long.parseLong(properties.getProperty("copied"));
+            for(String name: properties.stringPropertyNames())
+                if(name.startsWith("version."))
+                    sourceVersionCounts.put(ModelVersion.of(name.substring(8)), Long.valueOf(properties.getProperty(name)));
+        }
+    }
+
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonNodeFactory nodeFactory = mapper.getNodeFactory();
+    private final VersionedModelPlan plan;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int checkpointInterval = 10000;
+    private File checkpointFile;
+    private boolean dryRun;
+
+    /**
+     * @param module     module supplying the converter
+     * @param modelClass class annotated with {@link JsonVersionedModel}
+     */
+    public VersionedModelMigrator(VersioningModule module, Class<?> modelClass) {
+        JsonVersionedModel jsonVersionedModel = mapper.getDeserializationConfig().introspectClassAnnotations(modelClass).getClassAnnotations().get(JsonVersionedModel.class);
+        if(jsonVersionedModel == null)
+            throw new IllegalArgumentException("@" + JsonVersionedModel.class.getSimpleName() + " must be present on " + modelClass.getName());
+
+        Class<? extends VersionedModelConverter> converterClass = jsonVersionedModel.toCurrentConverterClass();
+        this.plan = new VersionedModelPlan(
+            modelClass,
+            jsonVersionedModel,
+            null,
+            converterClass != VersionedModelConverter.class ? module.getConverterFactory().getConverter(converterClass) : null
+        );
+    }
+
+    /**
+     * @param threads number of threads to migrate documents on; defaults to the number of processors
+     * @return this migrator
+     */
+    public VersionedModelMigrator setThreads(int threads) {
+        if(threads < 1)
+            throw new IllegalArgumentException("threads must be at least 1");
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param checkpointFile file to record progress in and resume from; null to not record progress
+     * @return this migrator
+     */
+    public VersionedModelMigrator setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+        return this;
+    }
+
+    /**
+     * @param checkpointInterval number of documents between checkpoints; defaults to 10000
+     * @return this migrator
+     */
+    public VersionedModelMigrator setCheckpointInterval(int checkpointInterval) {
+        if(checkpointInterval < 1)
+            throw new IllegalArgumentException("checkpointInterval must be at least 1");
+        this.checkpointInterval = checkpointInterval;
+        return this;
+    }
+
+    /**
+     * @param dryRun whether to only detect versions and count documents without converting or writing anything
+     * @return this migrator
+     */
+    public VersionedModelMigrator setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+        return this;
+    }
+
+    /**
+     * Migrates a newline-delimited JSON file. Blank lines are dropped.
+     *
+     * @param input  file with one document per line
+     * @param output file to write the migrated documents to; may be null for a dry run
+     * @return counts of the documents migrated, including those migrated before resuming
+     * @throws IOException if a file can't be read or written or a document fails to migrate
+     */
+    public Report migrateLines(File input, File output) throws IOException {
+        if(!dryRun && (output == null || input.getCanonicalFile().equals(output.getCanonicalFile())))
+            throw new IllegalArgumentException("output must be a different file than input");
+
+        final Properties checkpoint = loadCheckpoint(input);
+        RandomAccessFile inputFile = new RandomAccessFile(input, "r");
+        final RandomAccessFile outputFile = dryRun ? null : new RandomAccessFile(output, "rw");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final ByteBuffer outputBuffer = dryRun ? null : ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+            final FileChannel outputChannel = dryRun ? null : outputFile.getChannel();
+            final long[] offsets = new long[2];
+            if(checkpoint.containsKey("inputOffset")) {
+                offsets[0] = Long.parseLong(checkpoint.getProperty("inputOffset"));
+                offsets[1] = Long.parseLong(checkpoint.getProperty("outputOffset"));
+            }
+
+            // anything written after the last checkpoint is written again
+            if(outputChannel != null) {
+                outputFile.setLength(offsets[1]);
+                outputChannel.position(offsets[1]);
+            }
+
+            Run run = new Run(executor, input, checkpoint) {
+                @Override
+                void completed(Pending pending, Document document) throws IOException {
+                    if(document != null && outputChannel != null) {
+                        offsets[1] += write(document.converted ? ByteBuffer.wrap(document.data) : pending.data.duplicate());
+                        offsets[1] += write(ByteBuffer.wrap(new byte[] {'\n'}));
+                    }
+                    offsets[0] = pending.inputEnd;
+                }
+
+                @Override
+                void flush(Properties properties) throws IOException {
+                    if(outputChannel != null) {
+                        outputBuffer.flip();
+                        while(outputBuffer.hasRemaining())
+                            outputChannel.write(outputBuffer);
+                        outputBuffer.clear();
+                        outputChannel.force(false);
+                    }
+                    properties.setProperty("inputOffset", Long.toString(offsets[0]));
+                    properties.setProperty("outputOffset", Long.toString(offsets[1]));
+                }
+
+                private int write(ByteBuffer data) throws IOException {
+                    int length = data.remaining();
+                    if(length > outputBuffer.remaining()) {
+                        outputBuffer.flip();
+                        while(outputBuffer.hasRemaining())
+                            outputChannel.write(outputBuffer);
+                        outputBuffer.clear();
+                    }
+                    if(length > outputBuffer.capacity())
+                        while(data.hasRemaining())
+                            outputChannel.write(data);
+                    else
+                        outputBuffer.put(data);
+                    return length;
+                }
+            };
+
+            // lines are found by scanning the mapped input on this thread; windows end at the last complete line
+            FileChannel inputChannel = inputFile.getChannel();
+            long size = inputChannel.size();
+            long position = offsets[0];
+            while(position < size) {
+                int windowSize = (int)Math.min(WINDOW_SIZE, size - position);
+                MappedByteBuffer window = inputChannel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+                boolean last = position + windowSize == size;
+
+                int lineStart = 0;
+                for(int i = 0; i < windowSize; i++)
+                    if(window.get(i) == '\n') {
+                        submitLine(run, slice(window, lineStart, i), position + i + 1);
+                        lineStart = i + 1;
+                    }
+                if(last && lineStart < windowSize) {
+                    submitLine(run, slice(window, lineStart, windowSize), size);
+                    lineStart = windowSize;
+                }
+                if(lineStart == 0)
+                    throw new IOException("line at offset " + position + " is longer than " + WINDOW_SIZE + " bytes");
+                position += lineStart;
+            }
+
+            return run.finish();
+        } finally {
+            executor.shutdownNow();
+            inputFile.close();
+            if(outputFile != null)
+                outputFile.close();
+        }
+    }
+
+    /**
+     * Migrates every {@code .json} file in a directory tree. Files are processed in order of their relative paths.
+     *
+     * @param input  directory to read documents from
+     * @param output directory to write the migrated documents to at the same relative paths; may be the input
+     *               directory to migrate in place or null for a dry run
+     * @return counts of the documents migrated, including those migrated before resuming
+     * @throws IOException if a file can't be read or written or a document fails to migrate
+     */
+    public Report migrateDirectory(final File input, final File output) throws IOException {
+        if(!input.isDirectory())
+            throw new IllegalArgumentException("input must be a directory");
+        if(!dryRun && output == null)
+            throw new IllegalArgumentException("output must be set unless running dry");
+
+        final Properties checkpoint = loadCheckpoint(input);
+        final boolean inPlace = output != null && input.getCanonicalFile().equals(output.getCanonicalFile());
+        String lastPath = checkpoint.getProperty("lastPath");
+
+        List<String> paths = new ArrayList<String>();
+        listDocuments(input, "", paths);
+        Collections.sort(paths);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final String[] completedPath = {lastPath};
+            Run run = new Run(executor, input, checkpoint) {
+                @Override
+                void completed(Pending pending, Document document) {
+                    completedPath[0] = pending.path;
+                }
+
+                @Override
+                void flush(Properties properties) {
+                    if(completedPath[0] != null)
+                        properties.setProperty("lastPath", completedPath[0]);
+                }
+            };
+
+            // documents are read and written on the worker threads; only their order is tracked here
+            for(final String path: paths)
+                if(lastPath == null || path.compareTo(lastPath) > 0)
+                    run.submit(new Pending(null, 0, path), new Callable<Document>() {
+                        @Override
+                        public Document call() throws Exception {
+                            return migrateFile(new File(input, path), output != null ? new File(output, path) : null, inPlace);
+                        }
+                    });
+
+            return run.finish();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void submitLine(Run run, final ByteBuffer data, long inputEnd) throws IOException {
+        run.submit(new Pending(data, inputEnd, null), new Callable<Document>() {
+            @Override
+            public Document call() throws Exception {
+                return migrate(data);
+            }
+        });
+    }
+
+    /**
+     * Command line entry point. Migrates a directory tree if the input is a directory and a newline-delimited JSON file
+     * otherwise, then prints the report. Converters are instantiated by a {@link DefaultVersionedModelConverterFactory}.
+     */
+    public static void main(String[] args) throws Exception {
+        boolean dryRun = false;
+        Integer threads = null;
+        File checkpointFile = null;
+        boolean invalid = false;
+        List<String> operands = new ArrayList<String>();
+        for(String arg: args)
+            if(arg.equals("--dry-run"))
+                dryRun = true;
+            else if(arg.startsWith("--threads="))
+                threads = Integer.valueOf(arg.substring(10));
+            else if(arg.startsWith("--checkpoint="))
+                checkpointFile = new File(arg.substring(13));
+            else if(!arg.startsWith("--"))
+                operands.add(arg);
+            else
+                invalid = true;
+
+        if(invalid || operands.size() < (dryRun ? 2 : 3) || operands.size() > 3) {
+            System.err.println("usage: " + VersionedModelMigrator.class.getName() + " [--dry-run] [--threads=N] [--checkpoint=FILE] MODEL_CLASS INPUT [OUTPUT]");
+            System.exit(2);
+            return;
+        }
+
+        VersionedModelMigrator migrator = new VersionedModelMigrator(new VersioningModule(), Class.forName(operands.get(0)))
+            .setDryRun(dryRun)
+            .setCheckpointFile(checkpointFile);
+        if(threads != null)
+            migrator.setThreads(threads);
+
+        File input = new File(operands.get(1));
+        File output = operands.size() > 2 ? new File(operands.get(2)) : null;
+        System.out.println(input.isDirectory() ? migrator.migrateDirectory(input, output) : migrator.migrateLines(input, output));
+    }
+
+    private Document migrateFile(File inputFile, File outputFile, boolean inPlace) throws IOException {
+        FileInputStream inputStream = new FileInputStream(inputFile);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            long size = channel.size();
+            ByteBuffer data;
+            if(size >= MAP_THRESHOLD)
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            else {
+                data = ByteBuffer.allocate((int)size);
+                while(data.hasRemaining() && channel.read(data) >= 0) {
+                }
+                data.flip();
+            }
+
+            Document document = migrate(data);
+            if(document == null)
+                throw new IOException("document is blank");
+            if(dryRun || (!document.converted && inPlace))
+                return document;
+
+            // written next to the target and renamed over it so that an interrupted migration never leaves a partial file
+            File parent = outputFile.getParentFile();
+            if(!parent.isDirectory() && !parent.mkdirs())
+                throw new IOException("failed to create directory " + parent);
+            File tempFile = new File(parent, outputFile.getName() + TEMP_SUFFIX);
+            FileOutputStream outputStream = new FileOutputStream(tempFile);
+            try {
+                FileChannel outputChannel = outputStream.getChannel();
+                if(document.converted) {
+                    ByteBuffer converted = ByteBuffer.wrap(document.data);
+                    while(converted.hasRemaining())
+                        outputChannel.write(converted);
+                } else
+                    for(long position = 0; position < size; )
+                        position += channel.transferTo(position, size - position, outputChannel);
+            } finally {
+                outputStream.close();
+            }
+            replace(tempFile, outputFile);
+            return document;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * @return the migrated document; null if the data is blank
+     */
+    private Document migrate(ByteBuffer data) throws IOException {
+        // find the version without parsing further than the version property
+        JsonParser parser = mapper.getFactory().createParser(new ByteBufferInputStream(data.duplicate()));
+        String modelVersionValue = null;
+        try {
+            JsonToken token = parser.nextToken();
+            if(token == null)
+                return null;
+            if(token != JsonToken.START_OBJECT)
+                throw new IOException("document must be a JSON object");
+
+            modelVersionValue = VersionedModelSniffer.readVersionProperty(parser, plan.propertyName);
+        } finally {
+            parser.close();
+        }
+
+        ModelVersion modelVersion;
+        if(modelVersionValue == null)
+            modelVersion = plan.defaultDeserializeToVersion;
+        else
+            modelVersion = VersionedModelUtils.toModelVersion(modelVersionValue);
+
+        if(modelVersion == null)
+            throw new IOException("'" + plan.propertyName + "' property was null and defaultDeserializeToVersion was not set");
+
+        // documents that reading would pass straight through are left as they are
+        if(plan.converter == null || modelVersion.equals(plan.currentVersion) || (!plan.alwaysConvert && plan.versionCompatibility.areCompatible(modelVersion, plan.currentVersion)))
+            return new Document(modelVersion, false, null);
+        if(dryRun)
+            return new Document(modelVersion, true, null);
+
+        parser = mapper.getFactory().createParser(new ByteBufferInputStream(data.duplicate()));
+        ObjectNode modelData;
+        try {
+            modelData = (ObjectNode)VersionedModelUtils.readTree(parser, nodeFactory);
+        } finally {
+            parser.close();
+        }
+
+        modelData.remove(plan.propertyName);
+        modelData = VersionedModelUtils.convert(plan.converter, modelData, modelVersion, plan.currentVersion, nodeFactory);
+        modelData.put(plan.propertyName, plan.currentVersion.getValue());
+        return new Document(modelVersion, true, mapper.writeValueAsBytes(modelData));
+    }
+
+    private Properties loadCheckpoint(File input) throws IOException {
+        Properties checkpoint = new Properties();
+        if(dryRun || checkpointFile == null || !checkpointFile.exists())
+            return checkpoint;
+
+        FileInputStream inputStream = new FileInputStream(checkpointFile);
+        try {
+            checkpoint.load(inputStream);
+        } finally {
+            inputStream.close();
+        }
+
+        if(!input.getCanonicalPath().equals(checkpoint.getProperty("input")))
+            throw new IOException("checkpoint " + checkpointFile + " is for input " + checkpoint.getProperty("input"));
+        return checkpoint;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(end);
+        slice.position(start);
+        return slice.slice();
+    }
+
+    private static void listDocuments(File directory, String prefix, List<String> paths) throws IOException {
+        File[] files = directory.listFiles();
+        if(files == null)
+            throw new IOException("failed to list " + directory);
+
+        for(File file: files)
+            if(file.isDirectory())
+                listDocuments(file, prefix + file.getName() + "/", paths);
+            else if(file.getName().endsWith(".json"))
+                paths.add(prefix + file.getName());
+    }
+
+    private static void replace(File source, File target) throws IOException {
+        // renaming over an existing file fails on some platforms
+        if(!source.renameTo(target) && !(target.delete() && source.renameTo(target)))
+            throw new IOException("failed to replace " + target);
+    }
+
+
+    /**
+     * Tracks documents submitted to the executor and completes them in input order, with at most
+     * {@link #PENDING_PER_THREAD} per thread outstanding.
+     */
+    private abstract class Run {
+        private final ExecutorService executor;
+        private final File input;
+        private final Properties checkpoint;
+        private final Report report = new Report();
+        private final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+        private int sinceCheckpoint;
+
+        Run(ExecutorService executor, File input, Properties checkpoint) {
+            this.executor = executor;
+            this.input = input;
+            this.checkpoint = checkpoint;
+            if(checkpoint.containsKey("converted"))
+                report.restore(checkpoint);
+        }
+
+        /**
+         * Called on the submitting thread for each document in input order once it is migrated.
+         *
+         * @param document the document; null for blank input
+         */
+        abstract void completed(Pending pending, Document document) throws IOException;
+
+        /**
+         * Makes everything completed so far durable and records the position to resume from.
+         */
+        abstract void flush(Properties properties) throws IOException;
+
+        void submit(Pending next, Callable<Document> task) throws IOException {
+            while(pending.size() >= threads * PENDING_PER_THREAD)
+                completeNext();
+
+            next.future = executor.submit(task);
+            pending.addLast(next);
+        }
+
+        Report finish() throws IOException {
+            while(!pending.isEmpty())
+                completeNext();
+            checkpoint();
+            return report;
+        }
+
+        private void completeNext() throws IOException {
+            Pending next = pending.removeFirst();
+            Document document;
+            try {
+                document = next.future.get();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while migrating");
+            } catch(ExecutionException e) {
+                // everything before the failed document is kept
+                checkpoint();
+                String location = next.path != null ? next.path : "line ending at offset " + next.inputEnd;
+                Throwable cause = e.getCause();
+                throw new IOException("failed to migrate " + location + ": " + cause.getMessage(), cause);
+            }
+
+            if(document != null)
+                report.add(document);
+            completed(next, document);
+
+            if(++sinceCheckpoint >= checkpointInterval)
+                checkpoint();
+        }
+
+        private void checkpoint() throws IOException {
+            sinceCheckpoint = 0;
+            if(dryRun)
+                return;
+
+            flush(checkpoint);
+            if(checkpointFile == null)
+                return;
+
+            checkpoint.setProperty("input", input.getCanonicalPath());
+            report.save(checkpoint);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            checkpoint.store(bytes, "migration of " + plan.modelClass.getName() + " to version " + plan.currentVersion);
+
+            File tempFile = new File(checkpointFile.getPath() + TEMP_SUFFIX);
+            FileOutputStream outputStream = new FileOutputStream(tempFile);
+            try {
+                bytes.writeTo(outputStream);
+                outputStream.getFD().sync();
+            } finally {
+                outputStream.close();
+            }
+            replace(tempFile, checkpointFile);
+        }
+    }
+
+    private static class Pending {
+        final ByteBuffer data;
+        final long inputEnd;
+        final String path;
+        Future<Document> future;
+
+        Pending(ByteBuffer data, long inputEnd, String path) {
+            this.data = data;
+            this.inputEnd = inputEnd;
+            this.path = path;
+        }
+    }
+
+    private static class Document {
+        final ModelVersion sourceVersion;
+        final boolean converted;
+        final byte[] data;
+
+        Document(ModelVersion sourceVersion, boolean converted, byte[] data) {
+            this.sourceVersion = sourceVersion;
+            this.converted = converted;
+            this.data = data;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if(!buffer.hasRemaining())
+                return -1;
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Everything a versioned model's serializer or deserializer needs, resolved once when it is created so that nothing is
+ * looked up per model: annotation values, parsed versions, pre-encoded property names, the converter and direct access
+ * to the {@link JsonSerializeToVersion} property.
+ */
+class VersionedModelPlan {
+
+    // source versions come from input, so only this many keep their transform
+    private static final int MAX_SOURCE_VERSION_TRANSFORMS = 64;
+
+    final Class<?> modelClass;
+    final String propertyName;
+    final SerializableString serializedPropertyName;
+    final ModelVersion currentVersion;
+    final ModelVersion defaultSerializeToVersion;
+    final ModelVersion defaultDeserializeToVersion;
+    final ModelVersion versionToSuppressPropertySerialization;
+    final boolean alwaysConvert;
+    final boolean cacheSerialized;
+    final boolean cacheConverted;
+    final VersionCompatibility versionCompatibility;
+    final VersionedModelConverter converter;
+    final String serializeToVersionPropertyName;
+    final boolean serializeToVersionDefaultToSource;
+
+    private final StepwiseVersionedModelConverter stepwiseConverter;
+    private final Field serializeToVersionField;
+    private final Method serializeToVersionGetter;
+    private final ConcurrentMap<ModelVersion, FieldTransform> sourceVersionTransforms = new ConcurrentHashMap<ModelVersion, FieldTransform>();
+
+    /**
+     * @param modelClass                 class of the model
+     * @param jsonVersionedModel         the model's annotation
+     * @param serializeToVersionProperty the model's {@link JsonSerializeToVersion} property; may be null
+     * @param converter                  converter for the direction the plan is used in; may be null
+     */
+    VersionedModelPlan(Class<?> modelClass, JsonVersionedModel jsonVersionedModel, BeanPropertyDefinition serializeToVersionProperty, VersionedModelConverter converter) {
+        this.modelClass = modelClass;
+        this.propertyName = jsonVersionedModel.propertyName();
+        this.serializedPropertyName = new SerializedString(propertyName);
+        this.currentVersion = ModelVersion.intern(jsonVersionedModel.currentVersion());
+        this.defaultSerializeToVersion = VersionedModelUtils.toDeclaredModelVersion(jsonVersionedModel.defaultSerializeToVersion());
+        this.defaultDeserializeToVersion = VersionedModelUtils.toDeclaredModelVersion(jsonVersionedModel.defaultDeserializeToVersion());
+        this.versionToSuppressPropertySerialization = VersionedModelUtils.toDeclaredModelVersion(jsonVersionedModel.versionToSuppressPropertySerialization());
+        this.alwaysConvert = jsonVersionedModel.alwaysConvert();
+        this.cacheSerialized = jsonVersionedModel.cacheSerialized();
+        this.cacheConverted = jsonVersionedModel.cacheConverted();
+        this.versionCompatibility = new VersionCompatibility(jsonVersionedModel);
+        this.converter = converter;
+        this.stepwiseConverter = converter instanceof StepwiseVersionedModelConverter ? (StepwiseVersionedModelConverter)converter : null;
+
+        if(serializeToVersionProperty != null) {
+            this.serializeToVersionPropertyName = serializeToVersionProperty.getName();
+            this.serializeToVersionDefaultToSource = serializeToVersionProperty.getAccessor().getAnnotation(JsonSerializeToVersion.class).defaultToSource();
+
+            Member member = serializeToVersionProperty.getAccessor().getMember();
+            if(!Modifier.isPublic(member.getModifiers()) || !Modifier.isPublic(member.getDeclaringClass().getModifiers()))
+                try {
+                    ((AccessibleObject)member).setAccessible(true);
+                } catch(SecurityException e) {
+                    // fall back to whatever access is allowed
+                }
+            this.serializeToVersionField = member instanceof Field ? (Field)member : null;
+            this.serializeToVersionGetter = member instanceof Method ? (Method)member : null;
+        } else {
+            this.serializeToVersionPropertyName = null;
+            this.serializeToVersionDefaultToSource = false;
+            this.serializeToVersionField = null;
+            this.serializeToVersionGetter = null;
+        }
+    }
+
+    /**
+     * @return false if the converter is made of steps and none lead from one version to the other
+     */
+    boolean canConvert(ModelVersion fromVersion, ModelVersion toVersion) {
+        return stepwiseConverter == null || stepwiseConverter.hasPath(fromVersion, toVersion);
+    }
+
+    /**
+     * @return the field transforms that convert between the versions when streamed in order; null if the conversion
+     *         needs a tree
+     */
+    FieldTransform[] getTransforms(ModelVersion fromVersion, ModelVersion toVersion) {
+        return stepwiseConverter != null ? stepwiseConverter.getTransforms(fromVersion, toVersion) : null;
+    }
+
+    /**
+     * @return the top-level properties the conversion between the versions reads or writes; null if it may use any
+     */
+    Set<String> getFieldNames(ModelVersion fromVersion, ModelVersion toVersion) {
+        return converter instanceof FieldScopedConverter ? ((FieldScopedConverter)converter).getFieldNames(fromVersion, toVersion) : null;
+    }
+
+    /**
+     * @return the conversion steps between the versions; null if the converter isn't made of steps
+     */
+    StepwiseVersionedModelConverter.Step[] getSteps(ModelVersion fromVersion, ModelVersion toVersion) {
+        return stepwiseConverter != null ? stepwiseConverter.getSteps(fromVersion, toVersion) : null;
+    }
+
+    /**
+     * @return transform that replaces any value of the {@link JsonSerializeToVersion} property with the source version
+     *         and writes it after the model's other properties
+     */
+    FieldTransform getSourceVersionTransform(ModelVersion sourceVersion) {
+        FieldTransform transform = sourceVersionTransforms.get(sourceVersion);
+        if(transform == null) {
+            transform = FieldTransform.builder()
+                .drop(serializeToVersionPropertyName)
+                .addDefault(serializeToVersionPropertyName, sourceVersion.getValue())
+                .build();
+            if(sourceVersionTransforms.size() < MAX_SOURCE_VERSION_TRANSFORMS)
+                sourceVersionTransforms.putIfAbsent(sourceVersion, transform);
+        }
+        return transform;
+    }
+
+    /**
+     * @return whether the model has a {@link JsonSerializeToVersion} property
+     */
+    boolean hasSerializeToVersionProperty() {
+        return serializeToVersionPropertyName != null;
+    }
+
+    /**
+     * @return the value of the model's {@link JsonSerializeToVersion} property; null if it has none
+     */
+    String getSerializeToVersion(Object model) {
+        try {
+            if(serializeToVersionField != null)
+                return (String)serializeToVersionField.get(model);
+            if(serializeToVersionGetter != null)
+                return (String)serializeToVersionGetter.invoke(model);
+            return null;
+        } catch(InvocationTargetException e) {
+            throw new IllegalArgumentException("failed to get value of '" + serializeToVersionPropertyName + "'", e.getCause());
+        } catch(IllegalAccessException e) {
+            throw new IllegalArgumentException("failed to get value of '" + serializeToVersionPropertyName + "'", e);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Annotation processor that checks {@link JsonVersionedModel} and {@link JsonSerializeToVersion} usage at compile time
+ * and lists the versioned model classes it compiles in {@link VersionedModelRegistry#RESOURCE}, so that
+ * {@link VersioningModule#setWarmUpRegisteredModels(boolean)} can prepare them up front. Picked up by javac from the
+ * classpath; pass {@code -proc:none} to turn it off.
+ */
+@SupportedAnnotationTypes({
+    "com.github.jonpeterson.jackson.module.versioning.JsonVersionedModel",
+    "com.github.jonpeterson.jackson.module.versioning.JsonSerializeToVersion"
+})
+public class VersionedModelProcessor extends AbstractProcessor {
+    private final Set<String> modelClassNames = new TreeSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnvironment) {
+        if(roundEnvironment.processingOver()) {
+            if(!modelClassNames.isEmpty())
+                writeRegistry();
+            return false;
+        }
+
+        for(Element element: roundEnvironment.getElementsAnnotatedWith(JsonVersionedModel.class)) {
+            TypeElement type = (TypeElement)element;
+            checkVersionedModel(type);
+            if(type.getKind() == ElementKind.CLASS)
+                modelClassNames.add(processingEnv.getElementUtils().getBinaryName(type).toString());
+        }
+
+        Map<Element, String> serializeToVersionProperties = new HashMap<Element, String>();
+        for(Element element: roundEnvironment.getElementsAnnotatedWith(JsonSerializeToVersion.class)) {
+            String propertyName = checkSerializeToVersion(element);
+            if(propertyName == null)
+                continue;
+
+            // a field and its getter are the same property
+            String existing = serializeToVersionProperties.put(element.getEnclosingElement(), propertyName);
+            if(existing != null && !existing.equals(propertyName))
+                error(element, "@" + JsonSerializeToVersion.class.getSimpleName() + " must be present on at most one field or method");
+        }
+        return false;
+    }
+
+    private void checkVersionedModel(TypeElement type) {
+        JsonVersionedModel jsonVersionedModel = type.getAnnotation(JsonVersionedModel.class);
+        if(jsonVersionedModel.currentVersion().isEmpty())
+            error(type, "currentVersion must not be empty");
+        if(jsonVersionedModel.propertyName().isEmpty())
+            error(type, "propertyName must not be empty");
+
+        AnnotationMirror mirror = getAnnotationMirror(type, JsonVersionedModel.class);
+        TypeElement comparatorClass = getClassValue(mirror, "versionComparatorClass");
+        if(comparatorClass != null && !isInstantiable(comparatorClass))
+            error(type, "versionComparatorClass '" + comparatorClass.getQualifiedName() + "' must be a concrete class with a no-argument constructor");
+
+        // other converter factories may be able to supply converters that can't be created with their constructors
+        for(String name: new String[] {"toCurrentConverterClass", "toPastConverterClass"}) {
+            TypeElement converterClass = getClassValue(mirror, name);
+            if(converterClass != null && !converterClass.getQualifiedName().contentEquals(VersionedModelConverter.class.getName()) && !isInstantiable(converterClass))
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, name + " '" + converterClass.getQualifiedName() + "' can't be created by " + DefaultVersionedModelConverterFactory.class.getSimpleName() + " as it isn't a concrete class with a no-argument constructor", type);
+        }
+    }
+
+    // returns the name of the property the annotated field or method belongs to; null if it is misplaced
+    private String checkSerializeToVersion(Element element) {
+        TypeMirror stringType = processingEnv.getElementUtils().getTypeElement(String.class.getName()).asType();
+        if(element.getKind() == ElementKind.FIELD && processingEnv.getTypeUtils().isSameType(element.asType(), stringType))
+            return element.getSimpleName().toString();
+
+        // setters are allowed as their annotations are merged onto the property's field or getter
+        if(element.getKind() == ElementKind.METHOD) {
+            ExecutableElement method = (ExecutableElement)element;
+            if(method.getParameters().isEmpty() && processingEnv.getTypeUtils().isSameType(method.getReturnType(), stringType))
+                return toPropertyName(method.getSimpleName().toString());
+            if(method.getParameters().size() == 1 && processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), stringType))
+                return toPropertyName(method.getSimpleName().toString());
+        }
+
+        error(element, "@" + JsonSerializeToVersion.class.getSimpleName() + " must be on a field or a getter method that returns a String");
+        return null;
+    }
+
+    // strips the accessor prefix and lower-cases the leading capitals the way Jackson does by default
+    private static String toPropertyName(String methodName) {
+        String name = methodName;
+        for(String prefix: new String[] {"get", "set", "is"})
+            if(methodName.startsWith(prefix) && methodName.length() > prefix.length()) {
+                name = methodName.substring(prefix.length());
+                break;
+            }
+
+        StringBuilder propertyName = new StringBuilder(name);
+        for(int i = 0; i < propertyName.length() && Character.isUpperCase(propertyName.charAt(i)); i++)
+            propertyName.setCharAt(i, Character.toLowerCase(propertyName.charAt(i)));
+        return propertyName.toString();
+    }
+
+    private static boolean isInstantiable(TypeElement type) {
+        if(type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT))
+            return false;
+        if(type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC))
+            return false;
+
+        for(ExecutableElement constructor: ElementFilter.constructorsIn(type.getEnclosedElements()))
+            if(constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE))
+                return true;
+        return false;
+    }
+
+    private static AnnotationMirror getAnnotationMirror(Element element, Class<?> annotationClass) {
+        for(AnnotationMirror mirror: element.getAnnotationMirrors())
+            if(((TypeElement)mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationClass.getName()))
+                return mirror;
+        return null;
+    }
+
+    // class values can't be read off the annotation itself at compile time
+    private TypeElement getClassValue(AnnotationMirror mirror, String name) {
+        Map<? extends ExecutableElement, ? extends AnnotationValue> values = processingEnv.getElementUtils().getElementValuesWithDefaults(mirror);
+        for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry: values.entrySet())
+            if(entry.getKey().getSimpleName().contentEquals(name)) {
+                Object value = entry.getValue().getValue();
+                return value instanceof DeclaredType ? (TypeElement)((DeclaredType)value).asElement() : null;
+            }
+        return null;
+    }
+
+    private void writeRegistry() {
+        Filer filer = processingEnv.getFiler();
+
+        // incremental builds only compile some of the models, so the list from the previous build is kept
+        try {
+            FileObject existing = filer.getResource(StandardLocation.CLASS_OUTPUT, "", VersionedModelRegistry.RESOURCE);
+            VersionedModelRegistry.readClassNames(existing.openReader(true), modelClassNames);
+        } catch(IOException e) {
+            // no previous list
+        }
+
+        try {
+            FileObject resource = filer.createResource(StandardLocation.CLASS_OUTPUT, "", VersionedModelRegistry.RESOURCE);
+            Writer writer = new OutputStreamWriter(resource.openOutputStream(), "UTF-8");
+            try {
+                for(String className: modelClassNames)
+                    writer.write(className + "\n");
+            } finally {
+                writer.close();
+            }
+        } catch(IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "failed to write " + VersionedModelRegistry.RESOURCE + ": " + e.getMessage());
+        }
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
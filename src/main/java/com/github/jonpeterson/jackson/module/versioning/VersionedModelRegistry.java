@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads the versioned model classes listed by {@link VersionedModelProcessor} at compile time. Every jar or class
+ * directory built with the processor has its own list; all of them visible to a class loader are combined.
+ */
+final class VersionedModelRegistry {
+
+    /**
+     * Location of the lists. Each line is the binary name of a class annotated with {@link JsonVersionedModel}.
+     */
+    static final String RESOURCE = "META-INF/jackson-module-model-versioning/versioned-models";
+
+    /**
+     * @param classLoader class loader to find the lists and load the classes with
+     * @return the listed classes that still exist and are still versioned models
+     */
+    static List<Class<?>> load(ClassLoader classLoader) {
+        Set<String> classNames = new LinkedHashSet<String>();
+        try {
+            Enumeration<URL> resources = classLoader.getResources(RESOURCE);
+            while(resources.hasMoreElements())
+                readClassNames(new InputStreamReader(resources.nextElement().openStream(), "UTF-8"), classNames);
+        } catch(IOException e) {
+            throw new IllegalStateException("failed to read " + RESOURCE, e);
+        }
+
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        for(String className: classNames) {
+            // incremental builds leave the names of deleted classes behind
+            Class<?> modelClass;
+            try {
+                modelClass = Class.forName(className, false, classLoader);
+            } catch(ClassNotFoundException e) {
+                continue;
+            }
+            if(isVersionedModel(modelClass))
+                classes.add(modelClass);
+        }
+        return classes;
+    }
+
+    // Jackson finds class annotations on supertypes as well
+    private static boolean isVersionedModel(Class<?> modelClass) {
+        if(modelClass == null)
+            return false;
+        if(modelClass.isAnnotationPresent(JsonVersionedModel.class) || isVersionedModel(modelClass.getSuperclass()))
+            return true;
+        for(Class<?> modelInterface: modelClass.getInterfaces())
+            if(isVersionedModel(modelInterface))
+                return true;
+        return false;
+    }
+
+    /**
+     * Reads a list into the set of class names and closes the reader.
+     */
+    static void readClassNames(Reader source, Set<String> classNames) throws IOException {
+        BufferedReader reader = new BufferedReader(source);
+        try {
+            for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+                line = line.trim();
+                if(!line.isEmpty() && !line.startsWith("#"))
+                    classNames.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+
+    private VersionedModelRegistry() {
+    }
+}
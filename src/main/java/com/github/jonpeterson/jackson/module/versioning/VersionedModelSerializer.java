@@ -23,8 +23,9 @@
  */
 package com.github.jonpeterson.jackson.module.versioning;
 
-import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.ObjectCodec;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
@@ -33,32 +34,52 @@ import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.ser.ResolvableSerializer;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Set;
 
 public class VersionedModelSerializer<T> extends StdSerializer<T> implements ResolvableSerializer {
+    private static final FieldTransform[] NO_TRANSFORMS = new FieldTransform[0];
+
     private final StdSerializer<T> delegate;
-    private final JsonVersionedModel jsonVersionedModel;
-    private final VersionedModelConverter converter;
-    private final BeanPropertyDefinition serializeToVersionProperty;
+    private final VersionedModelPlan plan;
+    private final VersioningInstrumentation instrumentation;
+    private final boolean instrumented;
+    private final SerializedModelCache cache;
+    private final ModelDataSpill spill;
 
     public VersionedModelSerializer(StdSerializer<T> delegate, JsonVersionedModel jsonVersionedModel, BeanPropertyDefinition serializeToVersionProperty) {
+        this(delegate, jsonVersionedModel, serializeToVersionProperty, new DefaultVersionedModelConverterFactory(), VersioningInstrumentation.NONE);
+    }
+
+    public VersionedModelSerializer(StdSerializer<T> delegate, JsonVersionedModel jsonVersionedModel, BeanPropertyDefinition serializeToVersionProperty, VersionedModelConverterFactory converterFactory, VersioningInstrumentation instrumentation) {
+        this(delegate, createPlan(delegate, jsonVersionedModel, serializeToVersionProperty, converterFactory), instrumentation, null, null);
+    }
+
+    /**
+     * @param cache cache for models with {@link JsonVersionedModel#cacheSerialized()} set; null to never cache
+     * @param spill where buffered model data goes once it grows too large; null to keep it in memory
+     */
+    VersionedModelSerializer(StdSerializer<T> delegate, VersionedModelPlan plan, VersioningInstrumentation instrumentation, SerializedModelCache cache, ModelDataSpill spill) {
         super(delegate.handledType());
 
         this.delegate = delegate;
-        this.jsonVersionedModel = jsonVersionedModel;
-        this.serializeToVersionProperty = serializeToVersionProperty;
+        this.plan = plan;
+        this.instrumentation = instrumentation;
+        this.instrumented = instrumentation != VersioningInstrumentation.NONE;
+        this.cache = plan.cacheSerialized ? cache : null;
+        this.spill = spill;
+    }
 
+    static VersionedModelPlan createPlan(StdSerializer<?> delegate, JsonVersionedModel jsonVersionedModel, BeanPropertyDefinition serializeToVersionProperty, VersionedModelConverterFactory converterFactory) {
         Class<? extends VersionedModelConverter> converterClass = jsonVersionedModel.toPastConverterClass();
-        if(converterClass != VersionedModelConverter.class)
-            try {
-                this.converter = converterClass.newInstance();
-            } catch(Exception e) {
-                throw new RuntimeException("unable to create instance of converter '" + converterClass.getName() + "'", e);
-            }
-        else
-            converter = null;
+        return new VersionedModelPlan(
+            delegate.handledType(),
+            jsonVersionedModel,
+            serializeToVersionProperty,
+            converterClass != VersionedModelConverter.class ? converterFactory.getConverter(converterClass) : null
+        );
     }
 
     @Override
@@ -78,44 +99,160 @@ public class VersionedModelSerializer<T> extends StdSerializer<T> implements Res
     }
 
     private void doSerialize(T value, JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException {
-        // serialize the value into a byte array buffer then parse it back out into a JsonNode tree
-        // TODO: find a better way to convert the value into a tree
-        JsonFactory factory = generator.getCodec().getFactory();
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
-        JsonGenerator bufferGenerator = factory.createGenerator(buffer);
+        ModelVersion targetVersion = getTargetVersion(value, provider);
+
+        // converted ahead of time along with the rest of its collection
+        if(generator instanceof ConvertedModelGenerator && typeSerializer == null) {
+            ObjectNode modelData = ((ConvertedModelGenerator)generator).getConvertedModel(value);
+            if(modelData != null) {
+                writeModelData(modelData, targetVersion, ((ConvertedModelGenerator)generator).getTarget());
+                return;
+            }
+        }
+
+        // type information depends on where the model is written, so only untyped output is cached
+        SerializedModelCache.Key key = cache != null && typeSerializer == null ? SerializedModelCache.Key.of(plan.modelClass, value, targetVersion) : null;
+        if(key != null) {
+            SerializedModelCache.Entry entry = cache.get(key);
+            if(entry == null) {
+                TokenBuffer buffer = VersionedModelUtils.createTokenBuffer(generator.getCodec());
+                serializeToVersion(value, buffer, provider, null, targetVersion);
+                entry = cache.put(key, buffer);
+            }
+            entry.writeTo(generator);
+            return;
+        }
+
+        serializeToVersion(value, generator, provider, typeSerializer, targetVersion);
+    }
+
+    /**
+     * @return the version the value is to be serialized to
+     */
+    ModelVersion getTargetVersion(T value, SerializerProvider provider) {
+        // set target version to the write call's attribute, @SerializeToVersion's value, @JsonVersionModel's
+        //   defaultSerializeToVersion, or @JsonVersionModel's currentVersion in that order
+        ModelVersion attributeVersion = SerializeToVersionAttributes.getSerializeToVersion(provider, plan);
+        if(attributeVersion != null)
+            return attributeVersion;
+
+        String serializeToVersion = plan.getSerializeToVersion(value);
+
+        ModelVersion targetVersion = plan.currentVersion;
+        if(serializeToVersion == null) {
+            if(plan.defaultSerializeToVersion != null)
+                targetVersion = plan.defaultSerializeToVersion;
+        } else if(!serializeToVersion.isEmpty())
+            targetVersion = ModelVersion.of(serializeToVersion);
+        return targetVersion;
+    }
+
+    /**
+     * @return whether model data is converted before being written at the version
+     */
+    boolean isConversionRequired(ModelVersion targetVersion) {
+        // convert model data if there is a converter and targetVersion is not compatible with the currentVersion or if
+        //   alwaysConvert is true
+        return plan.converter != null && (plan.alwaysConvert || !plan.versionCompatibility.areCompatible(plan.currentVersion, targetVersion));
+    }
+
+    private void serializeToVersion(T value, JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer, ModelVersion targetVersion) throws IOException {
+        boolean convert = isConversionRequired(targetVersion);
+
+        // add target version to model data if it wasn't the version to suppress
+        boolean writeVersion = !targetVersion.equals(plan.versionToSuppressPropertySerialization);
+
+        // nothing to convert or a conversion made of field transforms; stream the value straight through the delegate
+        //   and any transforms while dropping the serializeToVersion property and injecting the version property
+        //   (wrapper arrays have no object to inject into)
+        FieldTransform[] transforms = convert ? plan.getTransforms(plan.currentVersion, targetVersion) : NO_TRANSFORMS;
+        if(transforms != null && (typeSerializer == null || typeSerializer.getTypeInclusion() != JsonTypeInfo.As.WRAPPER_ARRAY)) {
+            instrumentation.fastPath(plan.modelClass, VersioningInstrumentation.Operation.SERIALIZATION, plan.currentVersion, targetVersion);
+            JsonGenerator transformingGenerator = new VersionPropertyInjectingGenerator(
+                generator,
+                plan.serializedPropertyName,
+                writeVersion ? targetVersion.getSerializedValue() : null,
+                plan.serializeToVersionPropertyName
+            );
+            for(int i = transforms.length - 1; i >= 0; i--)
+                transformingGenerator = new FieldTransformingGenerator(transformingGenerator, transforms[i]);
+
+            delegateSerialize(value, transformingGenerator, provider, typeSerializer);
+            return;
+        }
+
+        // a converter that declares the properties it uses only gets those captured and built into a tree; the rest
+        //   stream straight through
+        Set<String> fieldNames = convert ? plan.getFieldNames(plan.currentVersion, targetVersion) : null;
+        if(fieldNames != null && (typeSerializer == null || typeSerializer.getTypeInclusion() != JsonTypeInfo.As.WRAPPER_ARRAY)) {
+            instrumentation.treePath(plan.modelClass, VersioningInstrumentation.Operation.SERIALIZATION, plan.currentVersion, targetVersion);
+            VersionPropertyInjectingGenerator injectingGenerator = new VersionPropertyInjectingGenerator(
+                generator,
+                plan.serializedPropertyName,
+                writeVersion ? targetVersion.getSerializedValue() : null,
+                plan.serializeToVersionPropertyName
+            );
+            delegateSerialize(value, new PartialConvertingGenerator(injectingGenerator, fieldNames, plan, targetVersion, instrumentation), provider, typeSerializer);
+            return;
+        }
+
+        // capture the value's tokens in memory and build a tree out of them for the converter
+        instrumentation.treePath(plan.modelClass, VersioningInstrumentation.Operation.SERIALIZATION, plan.currentVersion, targetVersion);
+        ObjectNode modelData;
+        ModelDataBuffer buffer = new ModelDataBuffer(generator.getCodec(), spill);
         try {
-            if(typeSerializer != null)
-                delegate.serializeWithType(value, bufferGenerator, provider, typeSerializer);
-            else
-                delegate.serialize(value, bufferGenerator, provider);
+            delegateSerialize(value, buffer, provider, typeSerializer);
+            modelData = (ObjectNode)VersionedModelUtils.readTree(buffer.asParser(), JsonNodeFactory.instance);
         } finally {
-            bufferGenerator.close();
+            buffer.close();
         }
 
-        ObjectNode modelData = factory.createParser(buffer.toByteArray()).readValueAsTree();
+        if(plan.hasSerializeToVersionProperty())
+            modelData.remove(plan.serializeToVersionPropertyName);
 
-        // set target version to @SerializeToVersion's value, @JsonVersionModel's defaultSerializeToVersion, or
-        //   @JsonVersionModel's currentVersion in that order
-        String targetVersion = null;
-        if(serializeToVersionProperty != null) {
-            targetVersion = (String)serializeToVersionProperty.getAccessor().getValue(value);
-            modelData.remove(serializeToVersionProperty.getName());
+        if(convert) {
+            long start = instrumented ? System.nanoTime() : 0;
+            modelData = VersionedModelUtils.convert(plan.converter, modelData, plan.currentVersion, targetVersion, JsonNodeFactory.instance);
+            if(instrumented)
+                instrumentation.conversion(plan.modelClass, VersioningInstrumentation.Operation.SERIALIZATION, plan.currentVersion, targetVersion, System.nanoTime() - start);
         }
-        if(targetVersion == null)
-            targetVersion = jsonVersionedModel.defaultSerializeToVersion();
-        if(targetVersion.isEmpty())
-            targetVersion = jsonVersionedModel.currentVersion();
 
-        // convert model data if there is a converter and targetVersion is different than the currentVersion or if
-        //   alwaysConvert is true
-        if(converter != null && (jsonVersionedModel.alwaysConvert() || !targetVersion.equals(jsonVersionedModel.currentVersion())))
-            modelData = converter.convert(modelData, jsonVersionedModel.currentVersion(), targetVersion, JsonNodeFactory.instance);
+        writeModelData(modelData, targetVersion, generator);
+    }
 
+    private void writeModelData(ObjectNode modelData, ModelVersion targetVersion, JsonGenerator generator) throws IOException {
         // add target version to model data if it wasn't the version to suppress
-        if(!targetVersion.equals(jsonVersionedModel.versionToSuppressPropertySerialization()))
-            modelData.put(jsonVersionedModel.propertyName(), targetVersion);
+        if(!targetVersion.equals(plan.versionToSuppressPropertySerialization))
+            modelData.put(plan.propertyName, targetVersion.getValue());
 
-        // write node
-        generator.writeTree(modelData);
+        // write node; an enclosing model building its own tree takes it as-is
+        if(generator instanceof ModelDataBuffer)
+            ((ModelDataBuffer)generator).writeModelData(modelData);
+        else
+            VersionedModelUtils.writeTree(modelData, generator);
+    }
+
+    VersionedModelPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * @return tree of the value at its current version without the model version and serializeToVersion properties
+     */
+    ObjectNode serializeToTree(T value, SerializerProvider provider, ObjectCodec codec) throws IOException {
+        ModelDataBuffer buffer = new ModelDataBuffer(codec);
+        try {
+            delegate.serialize(value, new VersionPropertyInjectingGenerator(buffer, plan.serializedPropertyName, null, plan.serializeToVersionPropertyName), provider);
+            return (ObjectNode)VersionedModelUtils.readTree(buffer.asParser(), JsonNodeFactory.instance);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    private void delegateSerialize(T value, JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException {
+        if(typeSerializer != null)
+            delegate.serializeWithType(value, generator, provider, typeSerializer);
+        else
+            delegate.serialize(value, generator, provider);
     }
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Finds the version of serialized {@link JsonVersionedModel} data without deserializing it. The data is parsed only as
+ * far as the model version property; the values of the properties before it are skipped without being read into
+ * strings or trees. Whether the data would be converted on deserialization can then be checked with
+ * {@link #isConversionRequired(Class, ModelVersion)}.
+ */
+public class VersionedModelSniffer {
+    private final ObjectMapper mapper;
+    private final ConcurrentMap<Class<?>, VersionedModelDeserializer<?>> deserializers = new ConcurrentHashMap<Class<?>, VersionedModelDeserializer<?>>();
+
+    /**
+     * @param mapper mapper with the {@link VersioningModule} registered
+     */
+    public VersionedModelSniffer(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * @param modelClass versioned model class the data is of
+     * @param data       serialized model
+     * @return version of the data; the model's {@code defaultDeserializeToVersion} if it has no version property
+     * @throws IOException if the data is not a JSON object or has no version and there is no default version
+     */
+    public ModelVersion sniff(Class<?> modelClass, byte[] data) throws IOException {
+        return sniff(modelClass, data, 0, data.length);
+    }
+
+    /**
+     * Same as {@link #sniff(Class, byte[])} for part of an array.
+     */
+    public ModelVersion sniff(Class<?> modelClass, byte[] data, int offset, int length) throws IOException {
+        JsonParser parser = mapper.getFactory().createParser(data, offset, length);
+        try {
+            return sniff(modelClass, parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Same as {@link #sniff(Class, byte[])} for data read from a parser. The parser must be either before the model's
+     * object or on its start. It is left on the value of the version property, or on the end of the object if there is
+     * none, and is not closed.
+     */
+    public ModelVersion sniff(Class<?> modelClass, JsonParser parser) throws IOException {
+        VersionedModelPlan plan = getDeserializer(modelClass).getPlan();
+
+        JsonToken token = parser.getCurrentToken();
+        if(token == null)
+            token = parser.nextToken();
+        if(token != JsonToken.START_OBJECT)
+            throw JsonMappingException.from(parser, "value must be a JSON object");
+
+        String modelVersionValue = readVersionProperty(parser, plan.propertyName);
+        ModelVersion modelVersion;
+        if(modelVersionValue == null)
+            modelVersion = plan.defaultDeserializeToVersion;
+        else
+            modelVersion = VersionedModelUtils.toModelVersion(modelVersionValue);
+
+        if(modelVersion == null)
+            throw JsonMappingException.from(parser, "'" + plan.propertyName + "' property was null and defaultDeserializeToVersion was not set");
+        return modelVersion;
+    }
+
+    /**
+     * @param modelClass versioned model class
+     * @param version    version of serialized data of the model
+     * @return whether data at the version is converted when deserialized
+     */
+    public boolean isConversionRequired(Class<?> modelClass, ModelVersion version) throws JsonMappingException {
+        return getDeserializer(modelClass).isConversionRequired(version);
+    }
+
+    private VersionedModelDeserializer<?> getDeserializer(Class<?> modelClass) throws JsonMappingException {
+        VersionedModelDeserializer<?> deserializer = deserializers.get(modelClass);
+        if(deserializer == null) {
+            deserializer = VersionedModelUtils.findVersionedDeserializer(mapper, modelClass);
+            deserializers.putIfAbsent(modelClass, deserializer);
+        }
+        return deserializer;
+    }
+
+    /**
+     * Reads the object the parser is on up to the version property, skipping the values of the properties before it.
+     *
+     * @return value of the version property; null if the object doesn't have it
+     */
+    static String readVersionProperty(JsonParser parser, String propertyName) throws IOException {
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            if(parser.getCurrentName().equals(propertyName))
+                return VersionedModelDeserializer.readModelVersion(parser);
+            parser.nextToken();
+            parser.skipChildren();
+        }
+        return null;
+    }
+}
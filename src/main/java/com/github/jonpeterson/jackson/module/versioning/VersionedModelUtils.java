@@ -23,13 +23,137 @@
  */
 package com.github.jonpeterson.jackson.module.versioning;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
 import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.cfg.MapperConfig;
+import com.fasterxml.jackson.databind.deser.DefaultDeserializationContext;
+import com.fasterxml.jackson.databind.introspect.AnnotatedClass;
 import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
 import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
 import com.fasterxml.jackson.databind.introspect.POJOPropertyBuilder;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.POJONode;
+import com.fasterxml.jackson.databind.node.TreeTraversingParser;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 
 public class VersionedModelUtils {
 
+    // TokenBuffer(ObjectCodec) is all Jackson 2.2 has, but it was later replaced by TokenBuffer(ObjectCodec, boolean)
+    private static final Constructor<TokenBuffer> TOKEN_BUFFER_CONSTRUCTOR;
+    private static final boolean TOKEN_BUFFER_TAKES_NATIVE_IDS;
+
+    static {
+        Constructor<TokenBuffer> constructor;
+        boolean takesNativeIds;
+        try {
+            constructor = TokenBuffer.class.getConstructor(ObjectCodec.class, boolean.class);
+            takesNativeIds = true;
+        } catch(NoSuchMethodException e) {
+            try {
+                constructor = TokenBuffer.class.getConstructor(ObjectCodec.class);
+                takesNativeIds = false;
+            } catch(NoSuchMethodException e2) {
+                throw new IllegalStateException("unsupported Jackson version; no TokenBuffer constructor found", e2);
+            }
+        }
+        TOKEN_BUFFER_CONSTRUCTOR = constructor;
+        TOKEN_BUFFER_TAKES_NATIVE_IDS = takesNativeIds;
+    }
+
+    // the return types of these changed from NumericNode to ValueNode in Jackson 2.9, so they're called reflectively to
+    //   work with either
+    private static final Method BIG_INTEGER_NODE_FACTORY = getNodeFactoryMethod(BigInteger.class);
+    private static final Method BIG_DECIMAL_NODE_FACTORY = getNodeFactoryMethod(BigDecimal.class);
+
+    private static Method getNodeFactoryMethod(Class<?> numberClass) {
+        try {
+            return JsonNodeFactory.class.getMethod("numberNode", numberClass);
+        } catch(NoSuchMethodException e) {
+            throw new IllegalStateException("unsupported Jackson version; no JsonNodeFactory.numberNode(" + numberClass.getSimpleName() + ")", e);
+        }
+    }
+
+    private static JsonNode bigNumberNode(JsonNodeFactory nodeFactory, Method factoryMethod, Number value) {
+        try {
+            return (JsonNode)factoryMethod.invoke(nodeFactory, value);
+        } catch(InvocationTargetException e) {
+            throw new IllegalStateException("failed to create number node", e.getCause());
+        } catch(IllegalAccessException e) {
+            throw new IllegalStateException("failed to create number node", e);
+        }
+    }
+
+    // TreeTraversingParser doesn't expose the node it is at, but its parsing context is a cursor that does; null where
+    //   the cursor can't be reached, leaving trees to be read through their tokens
+    private static final Method NODE_CURSOR_CURRENT_NODE = getNodeCursorMethod();
+
+    private static Method getNodeCursorMethod() {
+        try {
+            Method method = Class.forName("com.fasterxml.jackson.databind.node.NodeCursor").getMethod("currentNode");
+            method.setAccessible(true);
+            return method;
+        } catch(Exception e) {
+            return null;
+        }
+    }
+
+    private static JsonNode getCursorNode(JsonStreamContext cursor) {
+        try {
+            return (JsonNode)NODE_CURSOR_CURRENT_NODE.invoke(cursor);
+        } catch(InvocationTargetException e) {
+            throw new IllegalStateException("failed to get current node", e.getCause());
+        } catch(IllegalAccessException e) {
+            throw new IllegalStateException("failed to get current node", e);
+        }
+    }
+
+    /**
+     * Serializes a value to a tree. Same as {@link ObjectMapper#valueToTree(Object)}, except that versioned models that
+     * are converted hand over the trees their converters return instead of writing them out as tokens to be built into a
+     * tree again.
+     *
+     * @param mapper mapper with the {@link VersioningModule} registered
+     * @param value  value to serialize
+     * @return the value as a tree; null if the value is null
+     * @throws IllegalArgumentException if the value can't be serialized
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends JsonNode> T valueToTree(ObjectMapper mapper, Object value) throws IllegalArgumentException {
+        if(value == null)
+            return null;
+
+        try {
+            ModelDataBuffer buffer = new ModelDataBuffer(mapper);
+            try {
+                mapper.writeValue(buffer, value);
+                return (T)readTree(buffer.asParser(), mapper.getNodeFactory());
+            } finally {
+                buffer.close();
+            }
+        } catch(IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
     public static BeanPropertyDefinition getSerializeToVersionProperty(BeanDescription beanDescription) throws RuntimeException {
         BeanPropertyDefinition serializeToVersionProperty = null;
         for(BeanPropertyDefinition definition: beanDescription.findProperties()) {
@@ -51,6 +175,186 @@ public class VersionedModelUtils {
         return serializeToVersionProperty;
     }
 
+    /**
+     * @return the node of the container a tree parser is at the start token of; null if the parser isn't reading a tree
+     *         or the node can't be reached
+     */
+    static JsonNode getTreeNode(JsonParser parser) {
+        JsonToken token = parser.getCurrentToken();
+        if(!(parser instanceof TreeTraversingParser) || NODE_CURSOR_CURRENT_NODE == null || (token != JsonToken.START_OBJECT && token != JsonToken.START_ARRAY))
+            return null;
+
+        // newer versions of Jackson step into a container as soon as its start token is read, leaving the container
+        //   with the enclosing cursor
+        JsonStreamContext cursor = parser.getParsingContext();
+        JsonNode node = getCursorNode(cursor);
+        if(node == null && cursor.getParent() != null)
+            node = getCursorNode(cursor.getParent());
+        return node;
+    }
+
+    /**
+     * @return the parsed version or null if the version is empty
+     */
+    static ModelVersion toModelVersion(String version) {
+        return version.isEmpty() ? null : ModelVersion.of(version);
+    }
+
+    /**
+     * @return the interned version declared on a model or null if the version is empty
+     */
+    static ModelVersion toDeclaredModelVersion(String version) {
+        return version.isEmpty() ? null : ModelVersion.intern(version);
+    }
+
+    /**
+     * @param codec codec for the buffer; may be null
+     * @return a new token buffer, created through whichever constructor the Jackson version at runtime has
+     */
+    static TokenBuffer createTokenBuffer(ObjectCodec codec) {
+        try {
+            return TOKEN_BUFFER_TAKES_NATIVE_IDS ? TOKEN_BUFFER_CONSTRUCTOR.newInstance(codec, false) : TOKEN_BUFFER_CONSTRUCTOR.newInstance(codec);
+        } catch(InvocationTargetException e) {
+            throw new IllegalStateException("failed to create token buffer", e.getCause());
+        } catch(InstantiationException e) {
+            throw new IllegalStateException("failed to create token buffer", e);
+        } catch(IllegalAccessException e) {
+            throw new IllegalStateException("failed to create token buffer", e);
+        }
+    }
+
+    /**
+     * @return the mapper's deserializer for the versioned model class
+     * @throws IllegalArgumentException if the class isn't a versioned model or the mapper doesn't have the module
+     */
+    static VersionedModelDeserializer<?> findVersionedDeserializer(ObjectMapper mapper, Class<?> modelClass) throws JsonMappingException {
+        DeserializationContext context = ((DefaultDeserializationContext)mapper.getDeserializationContext()).createInstance(mapper.getDeserializationConfig(), null, null);
+        JsonDeserializer<Object> deserializer = context.findContextualValueDeserializer(mapper.constructType(modelClass), null);
+        if(!(deserializer instanceof VersionedModelDeserializer))
+            throw new IllegalArgumentException(modelClass.getName() + " is not a versioned model or the mapper doesn't have the " + VersioningModule.class.getSimpleName() + " registered");
+        return (VersionedModelDeserializer<?>)deserializer;
+    }
+
+    /**
+     * @return whether collections of the type are converted in batches: the type is a versioned model with a
+     *         {@link BatchVersionedModelConverter} for the direction and no type information, as that would be read or
+     *         written around each model rather than be part of its data
+     */
+    static boolean isBatchConverted(MapperConfig<?> config, JavaType type, boolean toCurrent, VersionedModelConverterFactory converterFactory) {
+        AnnotatedClass annotatedClass = config.introspectClassAnnotations(type.getRawClass()).getClassInfo();
+        JsonVersionedModel jsonVersionedModel = annotatedClass.getAnnotation(JsonVersionedModel.class);
+        if(jsonVersionedModel == null)
+            return false;
+        if(config.getAnnotationIntrospector().findTypeResolver(config, annotatedClass, type) != null || config.getDefaultTyper(type) != null)
+            return false;
+
+        Class<? extends VersionedModelConverter> converterClass = toCurrent ? jsonVersionedModel.toCurrentConverterClass() : jsonVersionedModel.toPastConverterClass();
+        return converterClass != VersionedModelConverter.class && converterFactory.getConverter(converterClass) instanceof BatchVersionedModelConverter;
+    }
+
+    /**
+     * Runs a converter, handing it parsed versions if it accepts them.
+     */
+    static ObjectNode convert(VersionedModelConverter converter, ObjectNode modelData, ModelVersion modelVersion, ModelVersion targetModelVersion, JsonNodeFactory nodeFactory) {
+        if(converter instanceof ModelVersionAwareConverter)
+            return ((ModelVersionAwareConverter)converter).convert(modelData, modelVersion, targetModelVersion, nodeFactory);
+        return converter.convert(modelData, modelVersion.getValue(), targetModelVersion.getValue(), nodeFactory);
+    }
+
+    /**
+     * Writes a tree to a generator. Unlike {@link JsonGenerator#writeTree}, no codec is needed; generators without one
+     * (ex. created straight from a factory) have the tree's tokens copied into them.
+     */
+    static void writeTree(JsonNode node, JsonGenerator generator) throws IOException {
+        if(generator.getCodec() != null) {
+            generator.writeTree(node);
+            return;
+        }
+
+        JsonParser parser = new TreeTraversingParser(node);
+        parser.nextToken();
+        generator.copyCurrentStructure(parser);
+    }
+
+    /**
+     * Builds a tree out of the value at the parser's current token, advancing to the first token if there is no current
+     * token. Unlike {@link JsonParser#readValueAsTree()}, no codec is needed and embedded {@link JsonNode}s (as written
+     * to a {@link com.fasterxml.jackson.databind.util.TokenBuffer} by nested versioned models) are used as-is instead of
+     * being wrapped or copied.
+     */
+    static JsonNode readTree(JsonParser parser, JsonNodeFactory nodeFactory) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if(token == null)
+            token = parser.nextToken();
+        if(token == null)
+            return null;
+
+        switch(token) {
+            case START_OBJECT:
+                token = parser.nextToken();
+                // fall through
+            case FIELD_NAME:
+                ObjectNode objectNode = nodeFactory.objectNode();
+                for(; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    objectNode.set(name, readTree(parser, nodeFactory));
+                }
+                return objectNode;
+
+            case START_ARRAY:
+                ArrayNode arrayNode = nodeFactory.arrayNode();
+                while(parser.nextToken() != JsonToken.END_ARRAY)
+                    arrayNode.add(readTree(parser, nodeFactory));
+                return arrayNode;
+
+            case VALUE_STRING:
+                return nodeFactory.textNode(parser.getText());
+
+            case VALUE_NUMBER_INT:
+                switch(parser.getNumberType()) {
+                    case INT:
+                        return nodeFactory.numberNode(parser.getIntValue());
+                    case LONG:
+                        return nodeFactory.numberNode(parser.getLongValue());
+                    default:
+                        return bigNumberNode(nodeFactory, BIG_INTEGER_NODE_FACTORY, parser.getBigIntegerValue());
+                }
+
+            case VALUE_NUMBER_FLOAT:
+                switch(parser.getNumberType()) {
+                    case FLOAT:
+                        return nodeFactory.numberNode(parser.getFloatValue());
+                    case BIG_DECIMAL:
+                        return bigNumberNode(nodeFactory, BIG_DECIMAL_NODE_FACTORY, parser.getDecimalValue());
+                    default:
+                        return nodeFactory.numberNode(parser.getDoubleValue());
+                }
+
+            case VALUE_TRUE:
+                return nodeFactory.booleanNode(true);
+
+            case VALUE_FALSE:
+                return nodeFactory.booleanNode(false);
+
+            case VALUE_NULL:
+                return nodeFactory.nullNode();
+
+            case VALUE_EMBEDDED_OBJECT:
+                Object embedded = parser.getEmbeddedObject();
+                if(embedded == null)
+                    return nodeFactory.nullNode();
+                if(embedded instanceof JsonNode)
+                    return (JsonNode)embedded;
+                if(embedded instanceof byte[])
+                    return nodeFactory.binaryNode((byte[])embedded);
+                return new POJONode(embedded);
+
+            default:
+                throw new IllegalStateException("unexpected token '" + token + "' while building tree");
+        }
+    }
+
 
     private VersionedModelUtils() {
     }
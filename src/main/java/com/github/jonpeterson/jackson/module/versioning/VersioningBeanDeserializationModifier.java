@@ -27,14 +27,29 @@ import com.fasterxml.jackson.databind.BeanDescription;
 import com.fasterxml.jackson.databind.DeserializationConfig;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
+import com.fasterxml.jackson.databind.deser.std.CollectionDeserializer;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.type.CollectionType;
 
 class VersioningBeanDeserializationModifier extends BeanDeserializerModifier {
 
     // here just to make generics work without warnings
-    private static <T> VersionedModelDeserializer<T> createVersioningDeserializer(StdDeserializer<T> deserializer, JsonVersionedModel jsonVersionedModel, BeanPropertyDefinition serializeToVersionProperty) {
-        return new VersionedModelDeserializer<T>(deserializer, jsonVersionedModel, serializeToVersionProperty);
+    private static <T> VersionedModelDeserializer<T> createVersioningDeserializer(StdDeserializer<T> deserializer, JsonVersionedModel jsonVersionedModel, BeanPropertyDefinition serializeToVersionProperty, VersioningModule module) {
+        return new VersionedModelDeserializer<T>(
+            deserializer,
+            VersionedModelDeserializer.createPlan(deserializer, jsonVersionedModel, serializeToVersionProperty, module.getConverterFactory()),
+            module.getInstrumentation(),
+            module.getConvertedModelCache(),
+            module.getModelDataSpill()
+        );
+    }
+
+
+    private final VersioningModule module;
+
+    VersioningBeanDeserializationModifier(VersioningModule module) {
+        this.module = module;
     }
 
 
@@ -46,10 +61,20 @@ class VersioningBeanDeserializationModifier extends BeanDeserializerModifier {
                 return createVersioningDeserializer(
                     (StdDeserializer)deserializer,
                     jsonVersionedModel,
-                    VersionedModelUtils.getSerializeToVersionProperty(beanDescription)
+                    VersionedModelUtils.getSerializeToVersionProperty(beanDescription),
+                    module
                 );
         }
 
         return deserializer;
     }
+
+    @Override
+    public JsonDeserializer<?> modifyCollectionDeserializer(DeserializationConfig config, CollectionType type, BeanDescription beanDescription, JsonDeserializer<?> deserializer) {
+        // other collection deserializers may not hand elements to the element deserializer as they are
+        if(deserializer.getClass() == CollectionDeserializer.class && VersionedModelUtils.isBatchConverted(config, type.getContentType(), true, module.getConverterFactory()))
+            return new VersionedModelCollectionDeserializer((CollectionDeserializer)deserializer, null, module.getBatchConversion());
+
+        return deserializer;
+    }
 }
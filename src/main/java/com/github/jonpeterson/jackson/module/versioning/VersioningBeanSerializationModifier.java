@@ -29,12 +29,26 @@ import com.fasterxml.jackson.databind.SerializationConfig;
 import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
 import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.type.CollectionType;
 
 class VersioningBeanSerializationModifier extends BeanSerializerModifier {
 
     // here just to make generics work without warnings
-    private static <T> VersionedModelSerializer<T> createVersioningSerializer(StdSerializer<T> serializer, JsonVersionedModel jsonVersionedModel, BeanPropertyDefinition serializeToVersionProperty) {
-        return new VersionedModelSerializer<T>(serializer, jsonVersionedModel, serializeToVersionProperty);
+    private static <T> VersionedModelSerializer<T> createVersioningSerializer(StdSerializer<T> serializer, JsonVersionedModel jsonVersionedModel, BeanPropertyDefinition serializeToVersionProperty, VersioningModule module) {
+        return new VersionedModelSerializer<T>(
+            serializer,
+            VersionedModelSerializer.createPlan(serializer, jsonVersionedModel, serializeToVersionProperty, module.getConverterFactory()),
+            module.getInstrumentation(),
+            module.getSerializedModelCache(),
+            module.getModelDataSpill()
+        );
+    }
+
+
+    private final VersioningModule module;
+
+    VersioningBeanSerializationModifier(VersioningModule module) {
+        this.module = module;
     }
 
 
@@ -43,9 +57,17 @@ class VersioningBeanSerializationModifier extends BeanSerializerModifier {
         if(serializer instanceof StdSerializer) {
             JsonVersionedModel jsonVersionedModel = beanDescription.getClassAnnotations().get(JsonVersionedModel.class);
             if(jsonVersionedModel != null)
-                return createVersioningSerializer((StdSerializer)serializer, jsonVersionedModel, VersionedModelUtils.getSerializeToVersionProperty(beanDescription));
+                return createVersioningSerializer((StdSerializer)serializer, jsonVersionedModel, VersionedModelUtils.getSerializeToVersionProperty(beanDescription), module);
         }
 
         return serializer;
     }
+
+    @Override
+    public JsonSerializer<?> modifyCollectionSerializer(SerializationConfig config, CollectionType type, BeanDescription beanDescription, JsonSerializer<?> serializer) {
+        if(VersionedModelUtils.isBatchConverted(config, type.getContentType(), false, module.getConverterFactory()))
+            return new VersionedModelCollectionSerializer(serializer, module.getBatchConversion(), module.getInstrumentation());
+
+        return serializer;
+    }
 }
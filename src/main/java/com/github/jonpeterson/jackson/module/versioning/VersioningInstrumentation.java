@@ -0,0 +1,102 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning;
+
+/**
+ * Receives events from the versioning serializers and deserializers. Implementations must be thread-safe and should
+ * return quickly as they are called inline with every versioned model that is serialized or deserialized.
+ *
+ * @see VersioningModule#VersioningModule(VersioningInstrumentation)
+ * @see StripedVersioningInstrumentation
+ */
+public interface VersioningInstrumentation {
+
+    enum Operation {
+        SERIALIZATION,
+        DESERIALIZATION
+    }
+
+    /**
+     * Instrumentation that ignores every event; used when none is configured.
+     */
+    VersioningInstrumentation NONE = new VersioningInstrumentation() {
+
+        @Override
+        public void fastPath(Class<?> modelClass, Operation operation, ModelVersion sourceVersion, ModelVersion targetVersion) {
+        }
+
+        @Override
+        public void treePath(Class<?> modelClass, Operation operation, ModelVersion sourceVersion, ModelVersion targetVersion) {
+        }
+
+        @Override
+        public void conversion(Class<?> modelClass, Operation operation, ModelVersion sourceVersion, ModelVersion targetVersion, long nanos) {
+        }
+
+        @Override
+        public void bytesBuffered(Class<?> modelClass, Operation operation, long bytes) {
+        }
+    };
+
+    /**
+     * Called when a model is streamed through its delegate without being materialized as a tree.
+     *
+     * @param modelClass    class of the model
+     * @param operation     whether the model was serialized or deserialized
+     * @param sourceVersion version of the model data before serialization or deserialization
+     * @param targetVersion version of the model data after serialization or deserialization
+     */
+    void fastPath(Class<?> modelClass, Operation operation, ModelVersion sourceVersion, ModelVersion targetVersion);
+
+    /**
+     * Called when a model is buffered and materialized as a tree, which is usually to convert it.
+     *
+     * @param modelClass    class of the model
+     * @param operation     whether the model was serialized or deserialized
+     * @param sourceVersion version of the model data before serialization or deserialization
+     * @param targetVersion version of the model data after serialization or deserialization
+     */
+    void treePath(Class<?> modelClass, Operation operation, ModelVersion sourceVersion, ModelVersion targetVersion);
+
+    /**
+     * Called after a converter returns.
+     *
+     * @param modelClass    class of the model
+     * @param operation     whether the model was being serialized or deserialized
+     * @param sourceVersion version of the model data passed to the converter
+     * @param targetVersion version of the model data returned by the converter
+     * @param nanos         time spent in the converter
+     */
+    void conversion(Class<?> modelClass, Operation operation, ModelVersion sourceVersion, ModelVersion targetVersion, long nanos);
+
+    /**
+     * Called with the amount of input held in memory for a model while deserializing it. Only reported when the source
+     * parser tracks its byte or character offset.
+     *
+     * @param modelClass class of the model
+     * @param operation  whether the model was being serialized or deserialized
+     * @param bytes      number of bytes (or characters for character sources) buffered
+     */
+    void bytesBuffered(Class<?> modelClass, Operation operation, long bytes);
+}
@@ -23,16 +23,204 @@
  */
 package com.github.jonpeterson.jackson.module.versioning;
 
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.deser.DefaultDeserializationContext;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.DefaultSerializerProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Jackson module to load when using {@link JsonVersionedModel}.
  */
 public class VersioningModule extends SimpleModule {
+    private VersionedModelConverterFactory converterFactory = new DefaultVersionedModelConverterFactory();
+    private VersioningInstrumentation instrumentation;
+    private SerializedModelCache serializedModelCache = new SerializedModelCache(10000);
+    private ConvertedModelCache convertedModelCache = new ConvertedModelCache(10000);
+    private boolean warmUpRegisteredModels;
+    private BatchConversion batchConversion = new BatchConversion(null, Integer.MAX_VALUE);
+    private ModelDataSpill modelDataSpill;
 
     public VersioningModule() {
+        this(VersioningInstrumentation.NONE);
+    }
+
+    /**
+     * @param instrumentation receives events for every versioned model serialized or deserialized
+     */
+    public VersioningModule(VersioningInstrumentation instrumentation) {
         super("VersioningModule");
-        setDeserializerModifier(new VersioningBeanDeserializationModifier());
-        setSerializerModifier(new VersioningBeanSerializationModifier());
+        this.instrumentation = instrumentation;
+        setDeserializerModifier(new VersioningBeanDeserializationModifier(this));
+        setSerializerModifier(new VersioningBeanSerializationModifier(this));
+    }
+
+    /**
+     * Sets the factory that supplies converters to every versioned model handled by this module. Defaults to a
+     * {@link DefaultVersionedModelConverterFactory} that shares one instance per converter class. Must be set before
+     * the module is used.
+     *
+     * @param converterFactory converter factory
+     * @return this module
+     */
+    public VersioningModule setConverterFactory(VersionedModelConverterFactory converterFactory) {
+        if(converterFactory == null)
+            throw new IllegalArgumentException("converterFactory must not be null");
+        this.converterFactory = converterFactory;
+        return this;
+    }
+
+    /**
+     * Sets the instrumentation that receives events for every versioned model serialized or deserialized. Must be set
+     * before the module is used.
+     *
+     * @param instrumentation instrumentation
+     * @return this module
+     */
+    public VersioningModule setInstrumentation(VersioningInstrumentation instrumentation) {
+        if(instrumentation == null)
+            throw new IllegalArgumentException("instrumentation must not be null");
+        this.instrumentation = instrumentation;
+        return this;
+    }
+
+    /**
+     * Sets the cache that holds the serialized output of models with {@link JsonVersionedModel#cacheSerialized()} set.
+     * Defaults to a cache of 10000 entries. Must be set before the module is used.
+     *
+     * @param serializedModelCache serialized model cache
+     * @return this module
+     */
+    public VersioningModule setSerializedModelCache(SerializedModelCache serializedModelCache) {
+        if(serializedModelCache == null)
+            throw new IllegalArgumentException("serializedModelCache must not be null");
+        this.serializedModelCache = serializedModelCache;
+        return this;
+    }
+
+    /**
+     * @return the cache that holds the serialized output of models with {@link JsonVersionedModel#cacheSerialized()} set
+     */
+    public SerializedModelCache getSerializedModelCache() {
+        return serializedModelCache;
+    }
+
+    /**
+     * Sets the cache that holds the converted input of models with {@link JsonVersionedModel#cacheConverted()} set.
+     * Defaults to a cache of 10000 entries. Must be set before the module is used.
+     *
+     * @param convertedModelCache converted model cache
+     * @return this module
+     */
+    public VersioningModule setConvertedModelCache(ConvertedModelCache convertedModelCache) {
+        if(convertedModelCache == null)
+            throw new IllegalArgumentException("convertedModelCache must not be null");
+        this.convertedModelCache = convertedModelCache;
+        return this;
+    }
+
+    /**
+     * @return the cache that holds the converted input of models with {@link JsonVersionedModel#cacheConverted()} set
+     */
+    public ConvertedModelCache getConvertedModelCache() {
+        return convertedModelCache;
+    }
+
+    /**
+     * Sets the executor that large batches of models with a {@link BatchVersionedModelConverter} are split across. A
+     * {@code ForkJoinPool} can be used where available. The executor is not owned by the module and is not shut down by
+     * it. By default batches are converted whole on the calling thread. Must be set before the module is used.
+     *
+     * @param executor  executor to convert chunks of large batches on; null to convert batches on the calling thread
+     * @param splitSize number of models per chunk; batches no larger than this are converted on the calling thread
+     * @return this module
+     */
+    public VersioningModule setBatchConversionExecutor(ExecutorService executor, int splitSize) {
+        if(splitSize < 1)
+            throw new IllegalArgumentException("splitSize must be at least 1");
+        this.batchConversion = new BatchConversion(executor, splitSize);
+        return this;
+    }
+
+    /**
+     * Sets how much of a versioned model's data may be buffered in memory while it is converted. Past the threshold,
+     * the buffered tokens are moved to a temporary file and streamed back into the converter or delegate from there
+     * with the same value types they were buffered with. Models whose converter is a {@link FieldScopedConverter} only
+     * ever hold their declared properties in memory, since the rest pass through the file; other converters still get
+     * the whole model as a tree, which is then the only copy held. The size is estimated from the length of the
+     * buffered names and values, including the data of nested models. Models with
+     * {@link JsonVersionedModel#cacheConverted()} set keep their input in memory. By default nothing is spilled. Must be
+     * set before the module is used.
+     *
+     * @param spillThreshold approximate number of bytes of a model's data to buffer in memory
+     * @param spillDirectory directory to create temporary files in; null for the default temporary directory
+     * @return this module
+     * @throws IllegalStateException if the Jackson version in use doesn't allow spilling (buffers carry their write
+     *                               context over to the next buffer through a non-public field of TokenBuffer)
+     */
+    public VersioningModule setSpillThreshold(long spillThreshold, File spillDirectory) {
+        if(spillThreshold < 0)
+            throw new IllegalArgumentException("spillThreshold must not be negative");
+        this.modelDataSpill = new ModelDataSpill(spillThreshold, spillDirectory);
+        return this;
+    }
+
+    /**
+     * Sets whether the serializers and deserializers of the versioned models listed at compile time by
+     * {@link VersionedModelProcessor} are built as soon as the module is registered with an {@link ObjectMapper},
+     * instead of on first use. Misconfigured models then fail registration. The mapper keeps what is built, so it should
+     * be configured and have any other modules registered before this one. Defaults to false.
+     *
+     * @param warmUpRegisteredModels whether to warm up registered models
+     * @return this module
+     */
+    public VersioningModule setWarmUpRegisteredModels(boolean warmUpRegisteredModels) {
+        this.warmUpRegisteredModels = warmUpRegisteredModels;
+        return this;
+    }
+
+    @Override
+    public void setupModule(SetupContext context) {
+        super.setupModule(context);
+
+        ObjectCodec owner = context.getOwner();
+        if(warmUpRegisteredModels && owner instanceof ObjectMapper) {
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            warmUp((ObjectMapper)owner, VersionedModelRegistry.load(classLoader != null ? classLoader : VersioningModule.class.getClassLoader()));
+        }
+    }
+
+    // builds the mapper's serializer and deserializer for each model, which resolves its plan and converters
+    private static void warmUp(ObjectMapper mapper, Iterable<Class<?>> modelClasses) {
+        DefaultSerializerProvider provider = ((DefaultSerializerProvider)mapper.getSerializerProvider()).createInstance(mapper.getSerializationConfig(), mapper.getSerializerFactory());
+        DeserializationContext context = ((DefaultDeserializationContext)mapper.getDeserializationContext()).createInstance(mapper.getDeserializationConfig(), null, null);
+        for(Class<?> modelClass: modelClasses)
+            try {
+                provider.findValueSerializer(modelClass, null);
+                context.findContextualValueDeserializer(mapper.constructType(modelClass), null);
+            } catch(IOException e) {
+                throw new IllegalStateException("failed to warm up versioned model " + modelClass.getName(), e);
+            }
+    }
+
+    VersionedModelConverterFactory getConverterFactory() {
+        return converterFactory;
+    }
+
+    ModelDataSpill getModelDataSpill() {
+        return modelDataSpill;
+    }
+
+    BatchConversion getBatchConversion() {
+        return batchConversion;
+    }
+
+    VersioningInstrumentation getInstrumentation() {
+        return instrumentation;
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ModelVersionTest extends Specification {
+
+    def 'interned'() {
+        expect:
+        ModelVersion.intern('1.2').is(ModelVersion.of('1.2'))
+        ModelVersion.of('1.2').is(ModelVersion.of('1.2'))
+        !ModelVersion.of('undeclared').is(ModelVersion.of('undeclared'))
+        ModelVersion.of('1.2') == ModelVersion.of('1.2')
+        ModelVersion.of('1.2') != ModelVersion.of('1.20')
+        ModelVersion.of('1.2').segmentCount == 2
+        ModelVersion.of('1.2').getSegment(1) == '2'
+    }
+
+    def 'integer'() {
+        expect:
+        ModelVersion.of('42').integer
+        ModelVersion.of('42').intValue() == 42
+        !ModelVersion.of('4.2').integer
+
+        when:
+        ModelVersion.of('4.2').intValue()
+
+        then:
+        thrown NumberFormatException
+    }
+
+    @Unroll
+    def 'ordering: #a vs #b'() {
+        expect:
+        Integer.signum(ModelVersion.DOTTED.compare(ModelVersion.of(a), ModelVersion.of(b))) == dotted
+        Integer.signum(ModelVersion.NUMERIC.compare(ModelVersion.of(a), ModelVersion.of(b))) == numeric
+        Integer.signum(ModelVersion.of(a).compareTo(ModelVersion.of(b))) == dotted
+
+        where:
+        a        | b        | dotted | numeric
+        '1'      | '1'      | 0      | 0
+        '1'      | '2'      | -1     | -1
+        '9'      | '10'     | -1     | -1
+        '1.9'    | '1.10'   | -1     | 1
+        '1.10'   | '2'      | -1     | -1
+        '01'     | '1'      | 0      | 0
+        '1'      | '1.0'    | -1     | 0
+        '1.0'    | '1.00'   | 0      | 0
+        '1.2'    | '1.2.1'  | -1     | -1
+        '1.2.10' | '1.2.9'  | 1      | 1
+        '2'      | 'beta'   | -1     | -1
+        '1.a'    | '1.b'    | -1     | -1
+        '1.1'    | '1.a'    | -1     | -1
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jon Peterson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jonpeterson.jackson.module.versioning
+
+
+import com.fasterxml.jackson.databind.DeserializationFeature
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import static com.github.jonpeterson.jackson.module.versioning.VersioningModuleTest.Car
+import static com.github.jonpeterson.jackson.module.versioning.VersioningModuleTest.DefaultDeserializeToCar
+import static com.github.jonpeterson.jackson.module.versioning.VersioningInstrumentation.Operation.DESERIALIZATION
+
+class VersionedModelMigratorTest extends Specification {
+
+    static final String V1 = '{"model": "honda:civic", "year": 2016, "new": "true", "modelVersion": "1"}'
+    static final String V2 = '{"make": "honda", "model": "civic", "year": 2016, "new": "false", "modelVersion": "2"}'
+    static final String V3 = '{ "modelVersion" : "3", "make":"honda",  "model": "civic", "year": 2016, "used": false, "extra": [1, 2] }'
+
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+
+    def instrumentation = new StripedVersioningInstrumentation()
+    def mapper = new ObjectMapper()
+        .registerModule(new VersioningModule(instrumentation))
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+
+
+    def 'migrate lines'() {
+        setup:
+        def input = folder.newFile('cars.ndjson')
+        def output = new File(folder.root, 'migrated.ndjson')
+        input.text = "$V1\n$V3\n\n$V2\r\n$V3"
+
+        when:
+        def report = new VersionedModelMigrator(new VersioningModule(), Car).setThreads(3).migrateLines(input, output)
+        def lines = output.readLines()
+
+        then:
+        report.sourceVersionCounts == [(ModelVersion.of('1')): 1L, (ModelVersion.of('2')): 1L, (ModelVersion.of('3')): 2L]
+        report.convertedCount == 2
+        report.copiedCount == 2
+
+        and: 'current documents are copied byte for byte'
+        lines.size() == 4
+        lines[1] == V3
+        lines[3] == V3
+
+        and: 'converted documents are read without converting'
+        lines.collect { mapper.readValue(it, Car) }.every { car -> car.make == 'honda' && car.model == 'civic' && car.year == 2016 }
+        instrumentation.getModelStats(Car).getTreePathCount(DESERIALIZATION) == 0
+        mapper.readTree(lines[0]).get('modelVersion').asText() == '3'
+        mapper.readValue(lines[2], Car).used
+        !mapper.readValue(lines[0], Car).used
+    }
+
+    def 'dry run'() {
+        setup:
+        def input = folder.newFile('cars.ndjson')
+        def output = new File(folder.root, 'migrated.ndjson')
+        def checkpoint = new File(folder.root, 'checkpoint')
+        input.text = ([V1, V2, V3, V3, V3, '{"make": "honda"}'] * 10).join('\n')
+
+        when:
+        def report = new VersionedModelMigrator(new VersioningModule(), DefaultDeserializeToCar).setDryRun(true).setCheckpointFile(checkpoint).migrateLines(input, output)
+
+        then:
+        report.sourceVersionCounts == [(ModelVersion.of('1')): 20L, (ModelVersion.of('2')): 10L, (ModelVersion.of('3')): 30L]
+        report.convertedCount == 30
+        report.documentCount == 60
+
+        and: 'nothing is written'
+        !output.exists()
+        !checkpoint.exists()
+
+        when: 'a document has no version'
+        new VersionedModelMigrator(new VersioningModule(), Car).setDryRun(true).migrateLines(input, output)
+
+        then:
+        def e = thrown(IOException)
+        e.message.contains('line ending at offset')
+    }
+
+    def 'resume from checkpoint'() {
+        setup:
+        def input = folder.newFile('cars.ndjson')
+        def output = new File(folder.root, 'migrated.ndjson')
+        def checkpoint = new File(folder.root, 'checkpoint')
+        def broken = '{"year": 2016, "new": "true", "modelVersion": "1"}'
+        def documents = (0..<50).collect { it % 2 ? V3 : V1 }
+        input.text = (documents[0..<37] + broken + documents[37..-1]).join('\n')
+        def migrator = new VersionedModelMigrator(new VersioningModule(), Car).setThreads(4).setCheckpointFile(checkpoint).setCheckpointInterval(5)
+
+        when:
+        migrator.migrateLines(input, output)
+
+        then:
+        def e = thrown(IOException)
+        e.message.startsWith('failed to migrate')
+
+        and: 'everything before the broken document was kept'
+        output.readLines().size() == 37
+
+        when:
+        input.text = (documents[0..<37] + V1 + documents[37..-1]).join('\n')
+        def report = migrator.migrateLines(input, output)
+        def lines = output.readLines()
+
+        then:
+        report.documentCount == 51
+        report.sourceVersionCounts == [(ModelVersion.of('1')): 26L, (ModelVersion.of('3')): 25L]
+        lines.size() == 51
+        lines.findAll { it == V3 }.size() == 25
+        lines.collect { mapper.readValue(it, Car) }.every { it.make == 'honda' && it.model == 'civic' }
+        instrumentation.getModelStats(Car).getTreePathCount(DESERIALIZATION) == 0
+    }
+
+    def 'migrate directory #description'() {
+        setup:
+        def input = folder.newFolder('cars')
+        def files = ['a.json': V1, 'b/c.json': V3, 'b/d.json': V2, 'b/e/f.json': V3, 'notes.txt': 'not a document']
+        files.each { path, text ->
+            def file = new File(input, path)
+            file.parentFile.mkdirs()
+            file.text = text
+        }
+        def output = inPlace ? input : new File(folder.root, 'migrated')
+
+        when:
+        def report = new VersionedModelMigrator(new VersioningModule(), Car).setThreads(2).migrateDirectory(input, output)
+
+        then:
+        report.convertedCount == 2
+        report.copiedCount == 2
+        new File(output, 'b/c.json').text == V3
+        new File(output, 'b/e/f.json').text == V3
+        ['a.json', 'b/d.json'].every { path ->
+            def car = mapper.readValue(new File(output, path), Car)
+            car.make == 'honda' && car.model == 'civic'
+        }
+        instrumentation.getModelStats(Car).getTreePathCount(DESERIALIZATION) == 0
+        new File(output, 'notes.txt').exists() == inPlace
+        !output.listFiles().any { it.name.endsWith('.migrating') }
+
+        where:
+        description    | inPlace
+        'to another'   | false
+        'in place'     | true
+    }
+}
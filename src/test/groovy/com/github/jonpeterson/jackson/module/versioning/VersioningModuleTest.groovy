@@ -26,11 +26,28 @@ package com.github.jonpeterson.jackson.module.versioning
 import com.fasterxml.jackson.annotation.JsonIgnore
 import com.fasterxml.jackson.annotation.JsonSubTypes
 import com.fasterxml.jackson.annotation.JsonTypeInfo
+import com.fasterxml.jackson.core.JsonEncoding
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonProcessingException
+import com.fasterxml.jackson.core.JsonToken
+import com.fasterxml.jackson.databind.DeserializationContext
+import com.fasterxml.jackson.databind.DeserializationFeature
+import com.fasterxml.jackson.databind.JsonDeserializer
 import com.fasterxml.jackson.databind.JsonMappingException
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize
 import com.fasterxml.jackson.databind.node.JsonNodeFactory
 import com.fasterxml.jackson.databind.node.ObjectNode
+import spock.lang.IgnoreIf
 import spock.lang.Specification
+
+import javax.tools.DiagnosticCollector
+import javax.tools.JavaFileObject
+import javax.tools.ToolProvider
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 import spock.lang.Unroll
 
 class VersioningModuleTest extends Specification {
@@ -127,6 +144,18 @@ class VersioningModuleTest extends Specification {
     static class DefaultSourceVersionFieldSerializeToCar extends SourceVersionFieldSerializeToCar {
     }
 
+    @JsonVersionedModel(currentVersion = '3',
+                        toCurrentConverterClass = ToCurrentCarConverter,
+                        toPastConverterClass = ToPastCarConverter)
+    static class ConvertOnDemandCar extends Car {
+
+        @JsonSerializeToVersion
+        public String s2v
+
+        // shadows the model version property; must never make it to the output
+        public String modelVersion = 'bogus'
+    }
+
     static class MultipleSerializeToCar1 extends Car {
 
         @JsonSerializeToVersion
@@ -177,6 +206,25 @@ class VersioningModuleTest extends Specification {
         String somethingHondaSpecific
     }
 
+    @JsonVersionedModel(currentVersion = '3',
+                        toCurrentConverterClass = StepwiseCarConverter,
+                        toPastConverterClass = StepwiseCarConverter)
+    static class StepwiseCar extends Car {
+
+        @JsonSerializeToVersion
+        public String s2v
+    }
+
+    @JsonVersionedModel(currentVersion = '3.1',
+                        toCurrentConverterClass = DebugConverter,
+                        toPastConverterClass = DebugConverter,
+                        compatibleVersionRanges = @VersionRange(from = '3', to = '3.2'))
+    static class RangedCar extends Car {
+
+        @JsonSerializeToVersion
+        public String s2v
+    }
+
 
     /***********************************\
     |* Test versioned model converters *|
@@ -227,6 +275,324 @@ class VersioningModuleTest extends Specification {
     }
 
 
+    @JsonVersionedModel(currentVersion = '3',
+                        toCurrentConverterClass = CountingCarConverter,
+                        toPastConverterClass = CountingCarConverter)
+    static class SharedConverterCar extends Car {
+
+        @JsonSerializeToVersion
+        public String s2v
+    }
+
+    static class CountingCarConverter implements VersionedModelConverter {
+        static final instances = new java.util.concurrent.atomic.AtomicInteger()
+
+        final String name
+
+        CountingCarConverter() {
+            this("instance-${instances.incrementAndGet()}")
+        }
+
+        CountingCarConverter(String name) {
+            this.name = name
+        }
+
+        @Override
+        def ObjectNode convert(ObjectNode modelData, String modelVersion, String targetModelVersion, JsonNodeFactory nodeFactory) {
+            modelData.put(targetModelVersion == '3' ? '_debugPreDeserializationVersion' : '_debugPreSerializationVersion', name)
+        }
+    }
+
+    static class FailingConverter implements VersionedModelConverter {
+
+        FailingConverter() {
+            throw new IllegalStateException('converter setup failed')
+        }
+
+        @Override
+        def ObjectNode convert(ObjectNode modelData, String modelVersion, String targetModelVersion, JsonNodeFactory nodeFactory) {
+            modelData
+        }
+    }
+
+    @JsonVersionedModel(currentVersion = '3',
+                        toCurrentConverterClass = TransformCarConverter,
+                        toPastConverterClass = TransformCarConverter)
+    static class TransformCar {
+        String make
+        String model
+        String color
+        Engine engine
+        int year
+
+        // have to prevent getter and is-getter due to Jackson 2.2 bug
+        public boolean used
+
+        @JsonSerializeToVersion
+        public String s2v
+    }
+
+    static class Engine {
+        int cylinders
+        String fuel
+    }
+
+    static class FusingConverter extends StepwiseVersionedModelConverter {
+        static final List<FieldTransform> TRANSFORMS = [
+            FieldTransform.builder().rename('maker', 'make').addDefault('color', 'unknown').build(),
+            FieldTransform.builder().wrap('engine', 'cylinders', 'fuel').drop('vin').build(),
+            FieldTransform.builder().rename('make', 'brand').build(),
+            FieldTransform.builder().unwrap('specs').build()
+        ]
+
+        FusingConverter() {
+            TRANSFORMS.eachWithIndex { transform, i -> addTransform("${i + 1}" as String, "${i + 2}" as String, transform) }
+        }
+    }
+
+    static class TransformCarConverter extends StepwiseVersionedModelConverter {
+
+        TransformCarConverter() {
+            // version 1 called 'make' 'maker', had a 'vin' and had no 'color'
+            addTransform('1', '2', FieldTransform.builder().rename('maker', 'make').drop('vin').addDefault('color', 'unknown').build())
+            addTransform('2', '1', FieldTransform.builder().rename('make', 'maker').drop('color').addDefault('vin', 'none').build())
+
+            // version 1-2 had top-level engine properties and nested 'year' and 'used' in 'specs'
+            addTransform('2', '3', FieldTransform.builder().wrap('engine', 'cylinders', 'fuel').unwrap('specs').build())
+            addTransform('3', '2', FieldTransform.builder().unwrap('engine').wrap('specs', 'year', 'used').build())
+        }
+    }
+
+    @JsonVersionedModel(currentVersion = '4',
+                        toPastConverterClass = CountingStepConverter)
+    static class FanOutModel {
+        String name
+    }
+
+    static class CountingStepConverter extends StepwiseVersionedModelConverter {
+        static final AtomicInteger stepCount = new AtomicInteger()
+
+        CountingStepConverter() {
+            [['4', '3'], ['3', '2'], ['2', '1'], ['4', '2b']].each { from, to ->
+                addStep(from, to, { ObjectNode modelData, JsonNodeFactory nodeFactory ->
+                    stepCount.incrementAndGet()
+                    modelData.put("to$to".toString(), true)
+                } as StepwiseVersionedModelConverter.Step)
+            }
+        }
+    }
+
+    @JsonVersionedModel(currentVersion = '3',
+                        toPastConverterClass = CountingPastCarConverter,
+                        defaultSerializeToVersion = '1',
+                        cacheSerialized = true)
+    static class CachedCar {
+        String make
+        String model
+        int year
+    }
+
+    static class StampedCachedCar extends CachedCar implements VersionStamped {
+        Integer revision
+
+        @Override
+        Object versionStamp() {
+            return revision
+        }
+    }
+
+    static class CountingPastCarConverter implements VersionedModelConverter {
+        static final AtomicInteger conversionCount = new AtomicInteger()
+
+        @Override
+        ObjectNode convert(ObjectNode modelData, String modelVersion, String targetModelVersion, JsonNodeFactory nodeFactory) {
+            conversionCount.incrementAndGet()
+            modelData.put('model', "${modelData.remove('make').asText()}:${modelData.get('model').asText()}".toString())
+        }
+    }
+
+    @JsonVersionedModel(currentVersion = '2',
+                        toCurrentConverterClass = NestedNodeConverter,
+                        toPastConverterClass = NestedNodeConverter,
+                        defaultSerializeToVersion = '1')
+    static class NestedNode {
+        String label
+        NestedNode child
+    }
+
+    static class NestedNodeConverter implements VersionedModelConverter {
+
+        @Override
+        ObjectNode convert(ObjectNode modelData, String modelVersion, String targetModelVersion, JsonNodeFactory nodeFactory) {
+            // version 1 called 'label' 'name'
+            def (from, to) = targetModelVersion == '1' ? ['label', 'name'] : ['name', 'label']
+            modelData.put(to, modelData.remove(from))
+            return modelData
+        }
+    }
+
+    @JsonVersionedModel(currentVersion = '3',
+                        toCurrentConverterClass = CountingToCurrentCarConverter,
+                        cacheConverted = true)
+    static class CachedInputCar extends Car {
+
+        @JsonSerializeToVersion(defaultToSource = true)
+        public String s2v
+    }
+
+    static class CountingToCurrentCarConverter extends ToCurrentCarConverter {
+        static final AtomicInteger conversionCount = new AtomicInteger()
+
+        @Override
+        def ObjectNode convert(ObjectNode modelData, String modelVersion, String targetModelVersion, JsonNodeFactory nodeFactory) {
+            conversionCount.incrementAndGet()
+            return super.convert(modelData, modelVersion, targetModelVersion, nodeFactory)
+        }
+    }
+
+    @JsonVersionedModel(currentVersion = '2',
+                        toCurrentConverterClass = ScopedCarConverter,
+                        toPastConverterClass = ScopedCarConverter,
+                        defaultDeserializeToVersion = '1')
+    static class ScopedCar {
+        String make
+        String model
+        List<Integer> mileage
+        Engine engine
+
+        @JsonSerializeToVersion
+        public String s2v
+    }
+
+    static class ScopedCarConverter extends ModelVersionAwareConverter implements FieldScopedConverter {
+        static final List<Set<String>> seenFields = Collections.synchronizedList([])
+
+        @Override
+        Set<String> getFieldNames(ModelVersion modelVersion, ModelVersion targetModelVersion) {
+            ['make', 'maker'] as Set
+        }
+
+        @Override
+        ObjectNode convert(ObjectNode modelData, ModelVersion modelVersion, ModelVersion targetModelVersion, JsonNodeFactory nodeFactory) {
+            seenFields << (modelData.fieldNames().collect() as Set)
+
+            // version 1 called 'make' 'maker'
+            if(targetModelVersion.value == '2')
+                modelData.set('make', modelData.remove('maker'))
+            else
+                modelData.set('maker', modelData.remove('make'))
+            modelData
+        }
+    }
+
+    @JsonVersionedModel(currentVersion = '2',
+                        toCurrentConverterClass = ScopedCarConverter)
+    static class HugeScopedCar {
+        String make
+
+        @JsonDeserialize(using = SummingDeserializer)
+        long mileage
+    }
+
+    // not JsonDeserializer<Long>, whose bridge method would refer to types missing from older Jackson versions
+    static class SummingDeserializer extends JsonDeserializer<Object> {
+
+        @Override
+        Object deserialize(JsonParser parser, DeserializationContext context) {
+            long sum = 0
+            while(parser.nextToken() != JsonToken.END_ARRAY)
+                sum += parser.longValue
+            sum
+        }
+    }
+
+    // run in a JVM of its own with a small heap
+    static class HugeScopedCarReader {
+
+        static void main(String[] args) {
+            def module = new VersioningModule()
+            if(args[1] != 'none')
+                module.setSpillThreshold(args[1] as long, null)
+            def car = new ObjectMapper().registerModule(module).readValue(new File(args[0]), HugeScopedCar)
+            println "$car.make $car.mileage"
+        }
+    }
+
+    @JsonVersionedModel(currentVersion = '3',
+                        toCurrentConverterClass = BatchCarConverter,
+                        toPastConverterClass = BatchCarConverter)
+    static class BatchCar extends Car {
+
+        @JsonSerializeToVersion(defaultToSource = true)
+        public String s2v
+    }
+
+    static class BatchCarGarage {
+        List<BatchCar> cars
+    }
+
+    static class BatchCarConverter implements BatchVersionedModelConverter {
+        static final List<Integer> batchSizes = Collections.synchronizedList([])
+        static final AtomicInteger singleCount = new AtomicInteger()
+
+        private final toCurrent = new ToCurrentCarConverter()
+        private final toPast = new ToPastCarConverter()
+
+        @Override
+        def ObjectNode convert(ObjectNode modelData, String modelVersion, String targetModelVersion, JsonNodeFactory nodeFactory) {
+            singleCount.incrementAndGet()
+            return (targetModelVersion == '3' ? toCurrent : toPast).convert(modelData, modelVersion, targetModelVersion, nodeFactory)
+        }
+
+        @Override
+        ObjectNode[] convertBatch(ObjectNode[] modelData, ModelVersion modelVersion, ModelVersion targetModelVersion, JsonNodeFactory nodeFactory) {
+            batchSizes << modelData.length
+            def converter = targetModelVersion.value == '3' ? toCurrent : toPast
+            return modelData.collect { converter.convert(it, modelVersion.value, targetModelVersion.value, nodeFactory) } as ObjectNode[]
+        }
+    }
+
+    static class DebugConverter extends ModelVersionAwareConverter {
+
+        @Override
+        ObjectNode convert(ObjectNode modelData, ModelVersion modelVersion, ModelVersion targetModelVersion, JsonNodeFactory nodeFactory) {
+            // only records which direction the conversion went in
+            modelData.put(targetModelVersion.value == '3.1' ? '_debugPreDeserializationVersion' : '_debugPreSerializationVersion', modelVersion.value)
+        }
+    }
+
+    static class StepwiseCarConverter extends StepwiseVersionedModelConverter {
+
+        StepwiseCarConverter() {
+            // version 1 had a single 'model' field that combined 'make' and 'model' with a colon delimiter
+            addStep('1', '2', { ObjectNode modelData, JsonNodeFactory nodeFactory ->
+                def makeAndModel = modelData.get('model').asText().split(':')
+                modelData.put('make', makeAndModel[0])
+                modelData.put('model', makeAndModel[1])
+            } as StepwiseVersionedModelConverter.Step, 'make', 'model')
+            addStep('2', '1', { ObjectNode modelData, JsonNodeFactory nodeFactory ->
+                modelData.put('model', "${modelData.remove('make').asText()}:${modelData.get('model').asText()}" as String)
+            } as StepwiseVersionedModelConverter.Step, 'make', 'model')
+
+            // version 1-2 had a 'new' text field instead of a boolean 'used' field
+            addStep('2', '3', { ObjectNode modelData, JsonNodeFactory nodeFactory ->
+                modelData.put('used', !Boolean.parseBoolean(modelData.remove('new').asText()))
+            } as StepwiseVersionedModelConverter.Step, 'new', 'used')
+            addStep('3', '2', { ObjectNode modelData, JsonNodeFactory nodeFactory ->
+                modelData.put('new', !modelData.remove('used').asBoolean() as String)
+            } as StepwiseVersionedModelConverter.Step, 'new', 'used')
+
+            // version 4 doesn't declare its fields so the whole model is converted as a tree
+            addStep('3', '4', { ObjectNode modelData, JsonNodeFactory nodeFactory ->
+                modelData
+            } as StepwiseVersionedModelConverter.Step)
+            addStep('4', '3', { ObjectNode modelData, JsonNodeFactory nodeFactory ->
+                modelData
+            } as StepwiseVersionedModelConverter.Step)
+        }
+    }
+
+
     /**************\
     |* Test cases *|
     \**************/
@@ -399,6 +765,23 @@ class VersioningModuleTest extends Specification {
         FieldSerializeToCar  | '4'                | [_version: '4', make: 'honda', model: 'civic', used: false, year: 2016, _debugPreDeserializationVersion: null, _debugPreSerializationVersion: '3']
     }
 
+    @Unroll
+    def 'serialize with and without conversion: #serializeToVersion'() {
+        when:
+        def serialized = mapper.writeValueAsString(new ConvertOnDemandCar(make: 'honda', model: 'civic', used: false, year: 2016, s2v: serializeToVersion))
+
+        then:
+        serialized.count('"modelVersion"') == 1
+        !serialized.contains('s2v')
+        mapper.readValue(serialized, Map) == expected
+
+        where:
+        serializeToVersion | expected
+        null               | [modelVersion: '3', make: 'honda', model: 'civic', used: false, year: 2016, _debugPreDeserializationVersion: null, _debugPreSerializationVersion: null]
+        '3'                | [modelVersion: '3', make: 'honda', model: 'civic', used: false, year: 2016, _debugPreDeserializationVersion: null, _debugPreSerializationVersion: null]
+        '2'                | [modelVersion: '2', make: 'honda', model: 'civic', new: 'true', year: 2016, _debugPreDeserializationVersion: null, _debugPreSerializationVersion: '3']
+    }
+
     @Unroll
     def 'serialize with source version #clazz.simpleName'() {
         when:
@@ -416,6 +799,72 @@ class VersioningModuleTest extends Specification {
         SourceVersionMethodSerializeToCar | [_version: '1', model: 'toyota:camry', new: 'false', year: 2013, _debugPreDeserializationVersion: '1', _debugPreSerializationVersion: '3']
     }
 
+    @Unroll
+    def 'deserialize with version property at the #position: #clazz.simpleName #version'() {
+        when:
+        def car = mapper.readValue(json, clazz)
+
+        then:
+        with(car) {
+            make == 'honda'
+            model == 'civic'
+            !used
+            year == 2016
+            _debugPreDeserializationVersion == (version == '3' ? null : version)
+        }
+        !(car instanceof SourceVersionFieldSerializeToCar) || car.s2v == version
+
+        where:
+        position | clazz                                   | version | json
+        'start'  | Car                                     | '1'     | '{"modelVersion": "1", "model": "honda:civic", "year": 2016, "new": "true"}'
+        'middle' | Car                                     | '1'     | '{"model": "honda:civic", "modelVersion": "1", "year": 2016, "new": "true"}'
+        'end'    | Car                                     | '1'     | '{"model": "honda:civic", "year": 2016, "new": "true", "modelVersion": "1"}'
+        'start'  | Car                                     | '3'     | '{"modelVersion": "3", "make": "honda", "model": "civic", "year": 2016, "used": false}'
+        'middle' | Car                                     | '3'     | '{"make": "honda", "model": "civic", "modelVersion": "3", "year": 2016, "used": false}'
+        'end'    | Car                                     | '3'     | '{"make": "honda", "model": "civic", "year": 2016, "used": false, "modelVersion": "3"}'
+        'start'  | DefaultDeserializeToCar                 | '3'     | '{"modelVersion": "3", "make": "honda", "model": "civic", "year": 2016, "used": false}'
+        'middle' | DefaultDeserializeToCar                 | '3'     | '{"make": "honda", "model": "civic", "modelVersion": "3", "year": 2016, "used": false}'
+        'end'    | DefaultDeserializeToCar                 | '3'     | '{"make": "honda", "model": "civic", "year": 2016, "used": false, "modelVersion": "3"}'
+        'start'  | SourceVersionFieldSerializeToCar        | '1'     | '{"_version": "1", "model": "honda:civic", "year": 2016, "new": "true"}'
+        'middle' | SourceVersionFieldSerializeToCar        | '1'     | '{"model": "honda:civic", "_version": "1", "year": 2016, "new": "true"}'
+        'end'    | SourceVersionFieldSerializeToCar        | '1'     | '{"model": "honda:civic", "year": 2016, "new": "true", "_version": "1"}'
+        'start'  | DefaultSourceVersionFieldSerializeToCar | '3'     | '{"modelVersion": "3", "make": "honda", "model": "civic", "year": 2016, "used": false}'
+        'middle' | DefaultSourceVersionFieldSerializeToCar | '3'     | '{"make": "honda", "model": "civic", "modelVersion": "3", "year": 2016, "used": false}'
+        'end'    | DefaultSourceVersionFieldSerializeToCar | '3'     | '{"make": "honda", "model": "civic", "year": 2016, "used": false, "modelVersion": "3"}'
+    }
+
+    @Unroll
+    def 'deserialize source version over a serialize-to version in the input: #json'() {
+        expect:
+        mapper.readValue(json, DefaultSourceVersionFieldSerializeToCar).s2v == version
+
+        where:
+        version | json
+        '3'     | '{"s2v": "1", "modelVersion": "3", "make": "honda", "model": "civic", "year": 2016, "used": false}'
+        '3'     | '{"modelVersion": "3", "make": "honda", "model": "civic", "year": 2016, "used": false, "s2v": "1"}'
+        '1'     | '{"modelVersion": "1", "model": "honda:civic", "year": 2016, "new": "true", "s2v": "2"}'
+    }
+
+    def 'deserialize current version inside a larger document'() {
+        when:
+        def carsByType = mapper.readValue(
+            '''{
+              |  "cars": [
+              |    {"make": "honda", "model": "civic", "modelVersion": "3", "year": 2016, "used": false},
+              |    {"make": "toyota", "model": "camry", "year": 2012, "used": true, "modelVersion": "3"}
+              |  ],
+              |  "type": "sedan"
+              |}'''.stripMargin(),
+            CarsByType
+        )
+
+        then:
+        carsByType.type == 'sedan'
+        carsByType.cars*.make == ['honda', 'toyota']
+        carsByType.cars*.year == [2016, 2012]
+        carsByType.cars*.used == [false, true]
+    }
+
     @Unroll
     def 'missing version'() {
         when: 'no version specified'
@@ -479,4 +928,1097 @@ class VersioningModuleTest extends Specification {
             _debugPreDeserializationVersion == '2'
         }
     }
-}
\ No newline at end of file
+
+    @Unroll
+    def 'stepwise converter: #version'() {
+        when:
+        def car = mapper.readValue(json, StepwiseCar)
+
+        then:
+        with(car) {
+            make == 'honda'
+            model == 'civic'
+            !used
+            year == 2016
+        }
+
+        when:
+        car.s2v = version
+
+        then:
+        mapper.readValue(mapper.writeValueAsString(car), Map) == mapper.readValue(json, Map) + [_debugPreDeserializationVersion: null, _debugPreSerializationVersion: null]
+
+        where:
+        version | json
+        '1'     | '{"model": "honda:civic", "year": 2016, "new": "true", "modelVersion": "1"}'
+        '2'     | '{"make": "honda", "model": "civic", "year": 2016, "new": "true", "modelVersion": "2"}'
+        '3'     | '{"make": "honda", "model": "civic", "year": 2016, "used": false, "modelVersion": "3"}'
+        '4'     | '{"make": "honda", "model": "civic", "year": 2016, "used": false, "modelVersion": "4"}'
+    }
+
+    def 'stepwise converter paths'() {
+        given:
+        def converter = new StepwiseCarConverter()
+
+        expect: 'paths are cached'
+        converter.getPath('1', '4').is(converter.getPath('1', '4'))
+        converter.getSteps(ModelVersion.of('1'), ModelVersion.of('4')).is(converter.getSteps(ModelVersion.of('1'), ModelVersion.of('4')))
+
+        and: 'paths take the fewest steps'
+        converter.getPath('1', '3').steps.length == 2
+        converter.getPath('1', '4').steps.length == 3
+        converter.getPath('4', '2').steps.length == 2
+
+        and: 'declared fields are combined along the path'
+        converter.getFieldNames(ModelVersion.of('1'), ModelVersion.of('3')) == ['make', 'model', 'new', 'used'] as Set
+        converter.getFieldNames(ModelVersion.of('3'), ModelVersion.of('2')) == ['new', 'used'] as Set
+        converter.getFieldNames(ModelVersion.of('1'), ModelVersion.of('4')) == null
+
+        and: 'steps that are not field transforms have no transforms'
+        converter.getTransforms(ModelVersion.of('1'), ModelVersion.of('3')) == null
+
+        and: 'versions without steps between them have no path'
+        !converter.hasPath(ModelVersion.of('1'), ModelVersion.of('5'))
+
+        when:
+        converter.getPath('1', '5')
+
+        then:
+        thrown IllegalArgumentException
+    }
+
+    @Unroll
+    def 'deserialize unknown source version: #json'() {
+        when:
+        mapper.readValue(json, StepwiseCar)
+
+        then:
+        def e = thrown(JsonMappingException)
+        e.message.startsWith("no conversion path from version '5' to '3'")
+        e.location != null
+
+        where:
+        json << [
+            '{"make": "honda", "model": "civic", "year": 2016, "used": false, "modelVersion": "5"}',
+            '{"modelVersion": "5", "make": "honda", "model": "civic", "year": 2016, "used": false}'
+        ]
+    }
+
+    @Unroll
+    def 'compatible version range: #version'() {
+        when:
+        def car = mapper.readValue("{\"make\": \"honda\", \"model\": \"civic\", \"year\": 2016, \"used\": false, \"modelVersion\": \"$version\"}", RangedCar)
+
+        then:
+        car._debugPreDeserializationVersion == (converted ? version : null)
+
+        when:
+        car._debugPreDeserializationVersion = null
+        car.s2v = version
+
+        then:
+        mapper.readValue(mapper.writeValueAsString(car), Map) == [
+            modelVersion: version,
+            make: 'honda',
+            model: 'civic',
+            used: false,
+            year: 2016,
+            _debugPreDeserializationVersion: null,
+            _debugPreSerializationVersion: converted ? '3.1' : null
+        ]
+
+        where:
+        version | converted
+        '2'     | true
+        '3'     | false
+        '3.0.5' | false
+        '3.1'   | false
+        '3.2'   | false
+        '3.2.1' | true
+        '3.10'  | true
+    }
+
+    def 'instrumentation'() {
+        setup:
+        def instrumentation = new StripedVersioningInstrumentation()
+        def mapper = new ObjectMapper().registerModule(new VersioningModule(instrumentation))
+        def v1Json = '{"model": "honda:civic", "year": 2016, "new": "true", "modelVersion": "1"}'
+        def v3Json = '{"make": "honda", "model": "civic", "year": 2016, "used": false, "modelVersion": "3"}'
+
+        when:
+        mapper.readValue(v1Json, ConvertOnDemandCar)
+        mapper.readValue(v1Json, ConvertOnDemandCar)
+        mapper.readValue(v3Json, ConvertOnDemandCar)
+        mapper.writeValueAsString(new ConvertOnDemandCar(make: 'honda', model: 'civic', used: false, year: 2016, s2v: '2'))
+        mapper.writeValueAsString(new ConvertOnDemandCar(make: 'honda', model: 'civic', used: false, year: 2016))
+        def stats = instrumentation.getModelStats(ConvertOnDemandCar)
+
+        then:
+        instrumentation.modelStats.keySet() == [ConvertOnDemandCar] as Set
+        stats.getFastPathCount(VersioningInstrumentation.Operation.DESERIALIZATION) == 1
+        stats.getTreePathCount(VersioningInstrumentation.Operation.DESERIALIZATION) == 2
+        stats.getFastPathCount(VersioningInstrumentation.Operation.SERIALIZATION) == 1
+        stats.getTreePathCount(VersioningInstrumentation.Operation.SERIALIZATION) == 1
+        stats.sourceVersionCounts == [(ModelVersion.of('1')): 2L, (ModelVersion.of('3')): 1L]
+        // whole version 1 documents plus the version 3 document up to its version; parsers differ in where they report
+        //   the current location by a character or so
+        Math.abs(stats.bytesBuffered - (2 * v1Json.length() + v3Json.indexOf('"3"'))) <= 3
+        stats.untrackedCount == 0
+
+        stats.conversionLatency.count == 3
+        stats.conversionLatency.bucketCounts.sum() == 3
+        stats.conversionLatency.getPercentileNanos(100) >= stats.conversionLatency.totalNanos / 3
+        stats.conversionLatencies.collectEntries { pair, histogram -> [(pair.toString()): histogram.count] } == ['1->3': 2L, '3->2': 1L]
+    }
+
+    def 'converters shared across the module'() {
+        setup:
+        CountingCarConverter.instances.set(0)
+        def module = new VersioningModule()
+        def mappers = [new ObjectMapper().registerModule(module), new ObjectMapper().registerModule(module)]
+
+        when:
+        def cars = mappers.collect { it.readValue('{"make": "honda", "model": "civic", "year": 2016, "used": false, "modelVersion": "2"}', SharedConverterCar) }
+        def serialized = mappers.collect { it.readValue(it.writeValueAsString(new SharedConverterCar(make: 'honda', s2v: '2')), Map) }
+
+        then:
+        CountingCarConverter.instances.get() == 1
+        cars*._debugPreDeserializationVersion == ['instance-1', 'instance-1']
+        serialized*._debugPreSerializationVersion == ['instance-1', 'instance-1']
+    }
+
+    def 'pre-built converters'() {
+        setup:
+        CountingCarConverter.instances.set(0)
+        def mapper = new ObjectMapper().registerModule(new VersioningModule().setConverterFactory(
+            new DefaultVersionedModelConverterFactory().register(CountingCarConverter, new CountingCarConverter('injected'))
+        ))
+
+        when:
+        def car = mapper.readValue('{"make": "honda", "model": "civic", "year": 2016, "used": false, "modelVersion": "2"}', SharedConverterCar)
+
+        then:
+        CountingCarConverter.instances.get() == 0
+        car._debugPreDeserializationVersion == 'injected'
+        mapper.readValue(mapper.writeValueAsString(new SharedConverterCar(make: 'honda', s2v: '2')), Map)._debugPreSerializationVersion == 'injected'
+    }
+
+    def 'converter constructor failure'() {
+        when:
+        new DefaultVersionedModelConverterFactory().getConverter(FailingConverter)
+
+        then:
+        def e = thrown(RuntimeException)
+        e.message == "unable to create instance of converter '${FailingConverter.name}'"
+        e.cause instanceof IllegalStateException
+        e.cause.message == 'converter setup failed'
+    }
+
+    @Unroll
+    def 'field transforms: #description'() {
+        setup:
+        def instrumentation = new StripedVersioningInstrumentation()
+        def mapper = new ObjectMapper().registerModule(new VersioningModule(instrumentation))
+
+        when:
+        def cars = mapper.readValue("[$json, $json]", TransformCar[])
+
+        then:
+        cars.size() == 2
+        cars.every { car ->
+            car.make == 'honda' && car.model == 'civic' && car.color == color && car.year == 2016 && !car.used &&
+                car.engine?.cylinders == 4 && car.engine?.fuel == 'gas'
+        }
+
+        and: 'converted without building a tree'
+        instrumentation.getModelStats(TransformCar).getTreePathCount(VersioningInstrumentation.Operation.DESERIALIZATION) == 0
+
+        where:
+        description                | json                                                                                                                                            | color
+        'version 1'                | '{"maker": "honda", "model": "civic", "vin": "123", "cylinders": 4, "fuel": "gas", "specs": {"year": 2016, "used": false}, "modelVersion": "1"}' | 'unknown'
+        'version 1 with default'   | '{"modelVersion": "1", "color": "red", "specs": {"used": false, "year": 2016}, "maker": "honda", "fuel": "gas", "model": "civic", "cylinders": 4}' | 'red'
+        'version 2'                | '{"make": "honda", "model": "civic", "color": "red", "specs": {"year": 2016, "used": false}, "cylinders": 4, "fuel": "gas", "modelVersion": "2"}' | 'red'
+        'version 2 without specs'  | '{"make": "honda", "model": "civic", "color": "red", "specs": null, "year": 2016, "used": false, "cylinders": 4, "fuel": "gas", "modelVersion": "2"}' | 'red'
+        'version 3'                | '{"make": "honda", "model": "civic", "color": "red", "engine": {"cylinders": 4, "fuel": "gas"}, "year": 2016, "used": false, "modelVersion": "3"}' | 'red'
+    }
+
+    @Unroll
+    def 'field transforms serialize to version #version'() {
+        setup:
+        def instrumentation = new StripedVersioningInstrumentation()
+        def mapper = new ObjectMapper().registerModule(new VersioningModule(instrumentation))
+        def car = new TransformCar(make: 'honda', model: 'civic', color: 'red', engine: new Engine(cylinders: 4, fuel: 'gas'), year: 2016, used: false, s2v: version)
+
+        when:
+        def serialized = mapper.readValue(mapper.writeValueAsString(car), Map)
+
+        then:
+        serialized == expected
+
+        and: 'streaming and tree conversions agree'
+        def tree = (ObjectNode)new ObjectMapper().valueToTree(car)
+        tree.remove('s2v') != null
+        def converted = new TransformCarConverter().convert(tree, '3', version, JsonNodeFactory.instance)
+        mapper.treeToValue(converted.put('modelVersion', version), Map) == expected
+
+        and: 'converted without building a tree'
+        instrumentation.getModelStats(TransformCar).getTreePathCount(VersioningInstrumentation.Operation.SERIALIZATION) == 0
+
+        where:
+        version | expected
+        '3'     | [modelVersion: '3', make: 'honda', model: 'civic', color: 'red', engine: [cylinders: 4, fuel: 'gas'], year: 2016, used: false]
+        '2'     | [modelVersion: '2', make: 'honda', model: 'civic', color: 'red', cylinders: 4, fuel: 'gas', specs: [year: 2016, used: false]]
+        '1'     | [modelVersion: '1', maker: 'honda', model: 'civic', cylinders: 4, fuel: 'gas', specs: [year: 2016, used: false], vin: 'none']
+    }
+
+    @Unroll
+    def 'field transform paths agree: #description'() {
+        setup:
+        def transform = FieldTransform.builder().wrap('address', 'street').addDefault('address', mapper.createObjectNode()).build()
+        def expected = mapper.readTree(output)
+
+        when:
+        def tree = transform.convert((ObjectNode)mapper.readTree(json), JsonNodeFactory.instance)
+        def parsed = mapper.readTree(new FieldTransformingParser(mapper.factory.createParser(json), transform))
+        def buffer = VersionedModelUtils.createTokenBuffer(mapper)
+        mapper.writeTree(new FieldTransformingGenerator(buffer, transform), mapper.readTree(json))
+        def generated = mapper.readTree(buffer.asParser())
+
+        then:
+        tree == expected
+        parsed == expected
+        generated == expected
+
+        where:
+        description                     | json                                       | output
+        'wrapped property'              | '{"name": "a", "street": "main"}'          | '{"name": "a", "address": {"street": "main"}}'
+        'default'                       | '{"name": "a"}'                            | '{"name": "a", "address": {}}'
+        'property named like a wrapper' | '{"address": "old", "street": "main"}'     | '{"address": {"street": "main"}}'
+        'replaced by the default'       | '{"name": "a", "address": "old"}'          | '{"name": "a", "address": {}}'
+    }
+
+    @Unroll
+    def 'field transform wrapper name conflicts: #description'() {
+        when:
+        builder.build()
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        description | builder
+        'rename'    | FieldTransform.builder().rename('location', 'address').wrap('address', 'street')
+        'unwrap'    | FieldTransform.builder().unwrap('address').wrap('address', 'street')
+    }
+
+    def 'field transform fusion'() {
+        setup:
+        def converter = new FusingConverter()
+        def json = '{"maker": "honda", "vin": "123", "cylinders": 4, "fuel": "gas", "specs": {"year": 2016, "maker": "none"}}'
+
+        when:
+        def fused = converter.convert((ObjectNode)mapper.readTree(json), ModelVersion.of('1'), ModelVersion.of('5'), JsonNodeFactory.instance)
+        def unfused = FusingConverter.TRANSFORMS.inject((ObjectNode)mapper.readTree(json)) { tree, transform -> transform.convert(tree, JsonNodeFactory.instance) }
+        def fusedParser = converter.getTransforms(ModelVersion.of('1'), ModelVersion.of('5')).inject(mapper.factory.createParser(json)) { parser, transform -> new FieldTransformingParser(parser, transform) }
+        def unfusedParser = FusingConverter.TRANSFORMS.inject(mapper.factory.createParser(json)) { parser, transform -> new FieldTransformingParser(parser, transform) }
+
+        then: 'adjacent transforms on different properties are fused unless the later one unwraps'
+        converter.getPath('1', '5').steps.length == 3
+        converter.getPath('1', '3').steps.length == 1
+
+        and: 'fused and unfused transforms convert the same'
+        fused == unfused
+        mapper.readTree(fusedParser) == unfused
+        mapper.readTree(unfusedParser) == unfused
+        unfused == mapper.readTree('{"brand": "honda", "color": "unknown", "engine": {"cylinders": 4, "fuel": "gas"}, "year": 2016, "maker": "none"}')
+    }
+
+    def 'bulk read array'() {
+        setup:
+        def mapper = new ObjectMapper().registerModule(new VersioningModule())
+        def executor = Executors.newFixedThreadPool(4)
+        def records = (0..<200).collect {
+            it % 2 ? "{\"model\": \"honda:civic\", \"year\": ${2000 + it}, \"new\": \"true\", \"modelVersion\": \"1\"}" :
+                "{\"make\": \"honda\", \"model\": \"civic\", \"year\": ${2000 + it}, \"used\": true, \"modelVersion\": \"3\"}"
+        }
+
+        when:
+        def iterator = new VersionedModelBulkReader<Car>(mapper, Car, executor, 8).readArray(new ByteArrayInputStream("[${records.join(',')}]".getBytes('UTF-8')))
+        def cars = iterator.collect()
+        iterator.close()
+
+        then:
+        cars.size() == 200
+        cars.eachWithIndex { car, i ->
+            assert car.make == 'honda' && car.model == 'civic' && car.year == 2000 + i && car.used == !(i % 2)
+            assert car._debugPreDeserializationVersion == (i % 2 ? '1' : null)
+        }
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    def 'bulk read lines'() {
+        setup:
+        def mapper = new ObjectMapper().registerModule(new VersioningModule())
+        def executor = Executors.newFixedThreadPool(4)
+        def lines = (0..<200).collect {
+            it % 2 ? "{\"model\": \"honda:civic\", \"year\": ${2000 + it}, \"new\": \"false\", \"modelVersion\": \"1\"}" :
+                "{\"make\": \"honda\", \"model\": \"civic\", \"year\": ${2000 + it}, \"new\": \"false\", \"modelVersion\": \"2\"}"
+        }
+
+        when:
+        def iterator = new VersionedModelBulkReader<Car>(mapper, Car, executor, 3).readLines(new ByteArrayInputStream("${lines.join('\n')}\r\n\n".getBytes('UTF-8')))
+        def cars = iterator.collect()
+        iterator.close()
+
+        then:
+        cars.size() == 200
+        cars.eachWithIndex { car, i ->
+            assert car.make == 'honda' && car.model == 'civic' && car.year == 2000 + i && car.used
+            assert car._debugPreDeserializationVersion == (i % 2 ? '1' : '2')
+        }
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    def 'bulk read failures'() {
+        setup:
+        def mapper = new ObjectMapper().registerModule(new VersioningModule())
+        def executor = Executors.newFixedThreadPool(2)
+        def json = '{"make": "honda", "model": "civic", "year": 2016, "used": true, "modelVersion": "3"}'
+
+        when:
+        def iterator = new VersionedModelBulkReader<Car>(mapper, Car, executor, 4).readLines(new ByteArrayInputStream("$json\n{\"model\": \"honda:civic\"}\n$json".getBytes('UTF-8')))
+
+        then:
+        iterator.next().year == 2016
+
+        when:
+        iterator.next()
+
+        then:
+        def e = thrown(RuntimeException)
+        e.cause instanceof JsonMappingException
+
+        and: 'later records are unaffected'
+        iterator.next().year == 2016
+        !iterator.hasNext()
+
+        when:
+        iterator = new VersionedModelBulkReader<Car>(mapper, Car, executor, 4).readArray(new ByteArrayInputStream("[$json, $json, {".getBytes('UTF-8')))
+
+        then:
+        iterator.next().year == 2016
+        iterator.next().year == 2016
+
+        when:
+        iterator.hasNext()
+
+        then:
+        thrown(RuntimeException)
+
+        when: 'lines are not UTF-8'
+        new VersionedModelBulkReader<Car>(mapper, Car, executor, 4).readLines(new ByteArrayInputStream("$json\n$json".getBytes('UTF-16LE'))).hasNext()
+
+        then:
+        e = thrown(RuntimeException)
+        e.cause instanceof IOException
+        e.cause.message == 'input is not UTF-8 encoded; found a zero byte'
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    def 'fan-out serialization matches individual serialization'() {
+        setup:
+        def mapper = new ObjectMapper().registerModule(new VersioningModule())
+        def versions = ['1', '3', '2', '3']
+
+        expect:
+        [
+            new ConvertOnDemandCar(make: 'honda', model: 'civic', year: 2016, used: false),
+            new TransformCar(make: 'honda', model: 'civic', color: 'red', engine: new Engine(cylinders: 4, fuel: 'gas'), year: 2016, used: true)
+        ].every { model ->
+            def payloads = new VersionedModelFanOutWriter(mapper).writeValueAsBytes(model, *versions)
+            payloads.keySet() as List == versions.unique(false) &&
+                payloads.every { version, payload ->
+                    model.s2v = version
+                    mapper.readValue(payload, Map) == mapper.readValue(mapper.writeValueAsString(model), Map)
+                }
+        }
+    }
+
+    def 'fan-out serialization shares conversion steps'() {
+        setup:
+        def mapper = new ObjectMapper().registerModule(new VersioningModule())
+        CountingStepConverter.stepCount.set(0)
+
+        when:
+        def payloads = new VersionedModelFanOutWriter(mapper).writeValueAsBytes(new FanOutModel(name: 'fan'), '1', '2', '3', '4', '2b')
+            .collectEntries { version, payload -> [version, mapper.readValue(payload, Map)] }
+
+        then:
+        CountingStepConverter.stepCount.get() == 4
+        payloads == [
+            '1': [name: 'fan', to3: true, to2: true, to1: true, modelVersion: '1'],
+            '2': [name: 'fan', to3: true, to2: true, modelVersion: '2'],
+            '3': [name: 'fan', to3: true, modelVersion: '3'],
+            '4': [name: 'fan', modelVersion: '4'],
+            '2b': [name: 'fan', to2b: true, modelVersion: '2b']
+        ]
+
+        when:
+        new VersionedModelFanOutWriter(mapper).writeValueAsBytes(new CarsByType(), '1')
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def 'serialized output cache'() {
+        setup:
+        def module = new VersioningModule()
+        def mapper = new ObjectMapper().registerModule(module)
+        def cache = module.serializedModelCache
+        def car = new CachedCar(make: 'honda', model: 'civic', year: 2016)
+        def expected = [model: 'honda:civic', year: 2016, modelVersion: '1']
+        CountingPastCarConverter.conversionCount.set(0)
+
+        when:
+        def outputs = (1..5).collect { mapper.writeValueAsString(car) }
+
+        then:
+        outputs.unique().size() == 1
+        mapper.readValue(outputs[0], Map) == expected
+        CountingPastCarConverter.conversionCount.get() == 1
+        cache.missCount == 1
+        cache.hitCount == 4
+
+        and: 'raw output keeps its place among sibling values'
+        mapper.readValue(mapper.writeValueAsString([car, [cars: [car, car]]]), List) == [expected, [cars: [expected, expected]]]
+
+        and: 'tokens are replayed through generators that write differently'
+        mapper.readValue(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(car), Map) == expected
+        mapper.readValue(mapper.valueToTree(car).toString(), Map) == expected
+        CountingPastCarConverter.conversionCount.get() == 1
+
+        when: 'a different instance'
+        mapper.writeValueAsString(new CachedCar(make: 'honda', model: 'civic', year: 2016))
+
+        then:
+        CountingPastCarConverter.conversionCount.get() == 2
+    }
+
+    def 'serialized output cache by version stamp'() {
+        setup:
+        def cache = new SerializedModelCache(16)
+        def mapper = new ObjectMapper().registerModule(new VersioningModule().setSerializedModelCache(cache))
+        CountingPastCarConverter.conversionCount.set(0)
+
+        when:
+        def first = mapper.writeValueAsString(new StampedCachedCar(make: 'honda', model: 'civic', year: 2016, revision: 1))
+        def second = mapper.writeValueAsString(new StampedCachedCar(make: 'honda', model: 'civic', year: 2016, revision: 1))
+
+        then:
+        first == second
+        CountingPastCarConverter.conversionCount.get() == 1
+        cache.hitCount == 1
+
+        when:
+        (2..100).each { mapper.writeValueAsString(new StampedCachedCar(make: 'honda', model: 'civic', year: 2016, revision: it)) }
+
+        then:
+        CountingPastCarConverter.conversionCount.get() == 100
+        cache.size() <= 16
+        cache.evictionCount == 100 - cache.size()
+
+        when: 'models without a stamp are not cached'
+        cache.clear()
+        2.times { mapper.writeValueAsString(new StampedCachedCar(make: 'honda', model: 'civic', year: 2016, revision: null)) }
+
+        then:
+        CountingPastCarConverter.conversionCount.get() == 102
+        cache.size() == 0
+    }
+
+    @Unroll
+    def 'nested versioned models: #depth levels'() {
+        setup:
+        def instrumentation = new StripedVersioningInstrumentation()
+        def mapper = new ObjectMapper().registerModule(new VersioningModule(instrumentation))
+        def v1Data = (depth..1).inject(null) { child, level -> [name: "level $level".toString(), child: child, modelVersion: '1'] }
+        def v1Json = mapper.writeValueAsString(v1Data)
+
+        when:
+        def node = mapper.readValue(v1Json, NestedNode)
+        def stats = instrumentation.getModelStats(NestedNode)
+
+        then:
+        def labels = []
+        for(def n = node; n != null; n = n.child)
+            labels << n.label
+        labels == (1..depth).collect { "level $it".toString() }
+        stats.getTreePathCount(VersioningInstrumentation.Operation.DESERIALIZATION) == depth
+
+        and: 'only the outermost model is buffered from the source'
+        Math.abs(stats.bytesBuffered - v1Json.length()) <= 3
+
+        when:
+        def output = mapper.readValue(mapper.writeValueAsString(node), Map)
+
+        then:
+        output == v1Data
+        stats.getTreePathCount(VersioningInstrumentation.Operation.SERIALIZATION) == depth
+
+        and: 'nested models are written the same into trees'
+        mapper.readValue(mapper.valueToTree(node).toString(), Map) == v1Data
+
+        where:
+        depth << [1, 2, 4]
+    }
+
+    @Unroll
+    def 'version sniffing: #clazz.simpleName #json'() {
+        setup:
+        def sniffer = new VersionedModelSniffer(new ObjectMapper().registerModule(new VersioningModule()))
+
+        when:
+        def version = sniffer.sniff(clazz, json.bytes)
+
+        then:
+        version == ModelVersion.of(expectedVersion)
+        sniffer.isConversionRequired(clazz, version) == conversionRequired
+
+        where:
+        clazz                   | json                                                                              | expectedVersion | conversionRequired
+        Car                     | '{"make": "honda", "specs": [{"modelVersion": "9"}], "modelVersion": "1", "x": [}' | '1'             | true
+        Car                     | '{"modelVersion": "3", "make": "honda"}'                                          | '3'             | false
+        DefaultDeserializeToCar | '{"make": "honda", "year": 2016}'                                                 | '1'             | true
+        DefaultSerializeToCar   | '{"_version": "3"}'                                                               | '3'             | true
+        RangedCar               | '{"modelVersion": "3.2"}'                                                         | '3.2'           | false
+        RangedCar               | '{"modelVersion": "3.3"}'                                                         | '3.3'           | true
+    }
+
+    def 'version sniffing from a parser'() {
+        setup:
+        def mapper = new ObjectMapper().registerModule(new VersioningModule())
+        def parser = mapper.factory.createParser('[{"make": "honda", "modelVersion": "2", "year": 2016}]')
+        parser.nextToken()
+        parser.nextToken()
+
+        expect:
+        new VersionedModelSniffer(mapper).sniff(Car, parser) == ModelVersion.of('2')
+        parser.text == '2'
+        parser.nextToken() == JsonToken.FIELD_NAME
+        parser.currentName == 'year'
+    }
+
+    def 'version sniffing errors'() {
+        setup:
+        def sniffer = new VersionedModelSniffer(new ObjectMapper().registerModule(new VersioningModule()))
+
+        when:
+        sniffer.sniff(Car, '[]'.bytes)
+
+        then:
+        thrown(JsonMappingException)
+
+        when:
+        sniffer.sniff(Car, '{"make": "honda"}'.bytes)
+
+        then:
+        thrown(JsonMappingException)
+
+        when:
+        sniffer.sniff(CarsByType, '{}'.bytes)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def 'converted input cache'() {
+        setup:
+        def module = new VersioningModule()
+        def mapper = new ObjectMapper().registerModule(module)
+        def cache = module.convertedModelCache
+        def v1Json = '{"model": "honda:civic", "year": 2016, "new": "true", "modelVersion": "1"}'
+        CountingToCurrentCarConverter.conversionCount.set(0)
+
+        when:
+        def cars = (1..5).collect { mapper.readValue(v1Json, CachedInputCar) }
+
+        then:
+        cars.every { it.make == 'honda' && it.model == 'civic' && it.year == 2016 && !it.used && it.s2v == '1' }
+        cars.toSet().size() == 5
+        CountingToCurrentCarConverter.conversionCount.get() == 1
+        cache.missCount == 1
+        cache.hitCount == 4
+        cache.hitRate == 0.8
+
+        and: 'input is matched by its tokens rather than its bytes'
+        mapper.readValue('{ "model" : "honda:civic" , "year" : 2016 , "new" : "true" , "modelVersion" : "1" }', CachedInputCar).model == 'civic'
+        mapper.readValue('[' + v1Json + ', ' + v1Json + ']', CachedInputCar[]).length == 2
+        CountingToCurrentCarConverter.conversionCount.get() == 1
+
+        when: 'different input'
+        def car = mapper.readValue('{"model": "honda:civic", "year": 2017, "new": "true", "modelVersion": "1"}', CachedInputCar)
+
+        then:
+        car.year == 2017
+        CountingToCurrentCarConverter.conversionCount.get() == 2
+        cache.size() == 2
+    }
+
+    @Unroll
+    def 'chunked input: #chunkSize byte chunks'() {
+        setup:
+        def mapper = new ObjectMapper().registerModule(new VersioningModule()).configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+        def json = '{"model": "honda:civic", "year": 2016, "specs": {"a": [1, 2.5]}, "new": "true", "modelVersion": "1"}'.getBytes('UTF-8')
+        def feeder = new VersionedModelFeeder<Car>(mapper, Car)
+
+        when:
+        def versions = json.toList().collate(chunkSize).collect { chunk ->
+            feeder.feed(ByteBuffer.wrap(chunk as byte[]))
+            return feeder.modelVersion
+        }
+        def car = feeder.end()
+
+        then:
+        car.make == 'honda'
+        car.model == 'civic'
+        car.year == 2016
+        !car.used
+        car._debugPreDeserializationVersion == '1'
+
+        and: 'the version is known as soon as it has been parsed when chunks are parsed as they arrive'
+        def versionEnd = new String(json, 'UTF-8').indexOf('"1"') + 2
+        versions.findIndexOf { it != null } == (feeder.incremental ? versionEnd.intdiv(chunkSize) : -1)
+        feeder.modelVersion == (feeder.incremental ? ModelVersion.of('1') : null)
+
+        where:
+        chunkSize << [1, 7, 1000]
+    }
+
+    def 'chunked input errors'() {
+        setup:
+        def mapper = new ObjectMapper().registerModule(new VersioningModule())
+
+        when:
+        def feeder = new VersionedModelFeeder<Car>(mapper, Car)
+        feeder.feed('{"make": "honda", "mod'.bytes, 0, 22)
+        feeder.end()
+
+        then:
+        thrown(JsonProcessingException)
+
+        when:
+        feeder = new VersionedModelFeeder<Car>(mapper, Car)
+        feeder.feed('[1, 2]'.bytes, 0, 6)
+        feeder.end()
+
+        then:
+        thrown(JsonProcessingException)
+
+        when:
+        feeder = new VersionedModelFeeder<Car>(mapper, Car)
+        feeder.feed('{"modelVersion": "3"}'.bytes, 0, 21)
+        feeder.end()
+        feeder.feed('{}'.bytes, 0, 2)
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    @Unroll
+    def 'partial materialization: version property #position'() {
+        setup:
+        ScopedCarConverter.seenFields.clear()
+
+        when:
+        def car = mapper.readValue(json, ScopedCar)
+
+        then: 'only the declared fields are given to the converter'
+        with(car) {
+            make == 'honda'
+            model == 'civic'
+            mileage == [100, 200, 300]
+            engine.cylinders == 4
+            engine.fuel == 'gas'
+        }
+        ScopedCarConverter.seenFields == [['maker'] as Set]
+
+        when:
+        car.s2v = '1'
+        def serialized = mapper.readValue(mapper.writeValueAsString(car), Map)
+
+        then:
+        serialized == [maker: 'honda', model: 'civic', mileage: [100, 200, 300], engine: [cylinders: 4, fuel: 'gas'], modelVersion: '1']
+        ScopedCarConverter.seenFields[1] == ['make'] as Set
+
+        when: 'inside a larger document'
+        def cars = mapper.readValue("[$json, $json]" as String, ScopedCar[])
+
+        then:
+        cars*.make == ['honda', 'honda']
+        cars*.mileage == [[100, 200, 300], [100, 200, 300]]
+
+        where:
+        position | json
+        'first'  | '{"modelVersion": "1", "maker": "honda", "model": "civic", "mileage": [100, 200, 300], "engine": {"cylinders": 4, "fuel": "gas"}}'
+        'middle' | '{"maker": "honda", "mileage": [100, 200, 300], "modelVersion": "1", "model": "civic", "engine": {"cylinders": 4, "fuel": "gas"}}'
+        'last'   | '{"engine": {"cylinders": 4, "fuel": "gas"}, "mileage": [100, 200, 300], "model": "civic", "maker": "honda", "modelVersion": "1"}'
+        'absent' | '{"engine": {"cylinders": 4, "fuel": "gas"}, "mileage": [100, 200, 300], "model": "civic", "maker": "honda"}'
+    }
+
+    @Unroll
+    def 'annotation processor: #description'() {
+        setup:
+        def dir = Files.createTempDirectory('processor').toFile()
+        def sourceFile = new File(dir, 'Model.java')
+        sourceFile.text = """
+            package test;
+            import com.github.jonpeterson.jackson.module.versioning.*;
+            @JsonVersionedModel(currentVersion = "$version"$attributes)
+            public class Model {
+                $body
+                @JsonVersionedModel(currentVersion = "1")
+                public static class Nested {
+                }
+            }
+        """
+
+        def compiler = ToolProvider.systemJavaCompiler
+        def diagnostics = new DiagnosticCollector<JavaFileObject>()
+        def fileManager = compiler.getStandardFileManager(diagnostics, null, null)
+        def task = compiler.getTask(null, fileManager, diagnostics, ['-classpath', System.getProperty('java.class.path'), '-d', dir.path], null, fileManager.getJavaFileObjects(sourceFile))
+        task.processors = [new VersionedModelProcessor()]
+
+        when:
+        def success = task.call()
+        def registry = new File(dir, VersionedModelRegistry.RESOURCE)
+
+        then:
+        success == errors.isEmpty()
+        diagnostics.diagnostics.findAll { it.kind == javax.tools.Diagnostic.Kind.ERROR }*.getMessage(null) == errors
+        diagnostics.diagnostics.findAll { it.kind == javax.tools.Diagnostic.Kind.WARNING }*.getMessage(null).findAll { it.contains('DefaultVersionedModelConverterFactory') }.size() == warnings
+        !success || registry.readLines() == ['test.Model', 'test.Model$Nested']
+
+        cleanup:
+        dir.deleteDir()
+
+        where:
+        description                   | version | attributes                                                 | body                                                                                                  | errors                                                                                                          | warnings
+        'valid model'                 | '2'     | ''                                                         | '@JsonSerializeToVersion public String s2v; @JsonSerializeToVersion public String getS2v() { return s2v; }' | []                                                                                                              | 0
+        'empty current version'       | ''      | ''                                                         | ''                                                                                                    | ['currentVersion must not be empty']                                                                            | 0
+        'wrong serializeToVersion'    | '2'     | ''                                                         | '@JsonSerializeToVersion public int s2v;'                                                             | ['@JsonSerializeToVersion must be on a field or a getter method that returns a String']                          | 0
+        'two serializeToVersions'     | '2'     | ''                                                         | '@JsonSerializeToVersion public String a; @JsonSerializeToVersion public String b;'                   | ['@JsonSerializeToVersion must be present on at most one field or method']                                       | 0
+        'abstract comparator'         | '2'     | ', versionComparatorClass = Model.Comparator.class'        | 'public static abstract class Comparator implements java.util.Comparator<ModelVersion> {}'           | ["versionComparatorClass 'test.Model.Comparator' must be a concrete class with a no-argument constructor"]      | 0
+        'abstract converter'          | '2'     | ', toCurrentConverterClass = ModelVersionAwareConverter.class' | ''                                                                                                | []                                                                                                              | 1
+    }
+
+    def 'warm up registered models'() {
+        setup:
+        def dir = Files.createTempDirectory('registry').toFile()
+        def registry = new File(dir, VersionedModelRegistry.RESOURCE)
+        registry.parentFile.mkdirs()
+        registry.text = classNames.join('\n')
+
+        def thread = Thread.currentThread()
+        def classLoader = thread.contextClassLoader
+        thread.contextClassLoader = new URLClassLoader([dir.toURI().toURL()] as URL[], classLoader)
+        CountingCarConverter.instances.set(0)
+
+        when:
+        def module = new VersioningModule().setWarmUpRegisteredModels(warmUp)
+        def mapper = new ObjectMapper().registerModule(module)
+
+        then: 'converters are created at registration'
+        CountingCarConverter.instances.get() == instances
+        mapper.readValue('{"make": "honda", "modelVersion": "2"}', SharedConverterCar).make == 'honda'
+        CountingCarConverter.instances.get() == 1
+
+        cleanup:
+        thread.contextClassLoader = classLoader
+        dir.deleteDir()
+
+        where:
+        warmUp | classNames                                                   | instances
+        false  | [SharedConverterCar.name]                                    | 0
+        true   | [SharedConverterCar.name]                                    | 1
+        true   | ['# comment', 'com.example.Deleted', SharedConverterCar.name] | 1
+    }
+
+    def 'warm up fails on misconfigured models'() {
+        setup:
+        def dir = Files.createTempDirectory('registry').toFile()
+        def registry = new File(dir, VersionedModelRegistry.RESOURCE)
+        registry.parentFile.mkdirs()
+        registry.text = WrongTypeSerializeToCar.name
+
+        def thread = Thread.currentThread()
+        def classLoader = thread.contextClassLoader
+        thread.contextClassLoader = new URLClassLoader([dir.toURI().toURL()] as URL[], classLoader)
+
+        when:
+        new ObjectMapper().registerModule(new VersioningModule().setWarmUpRegisteredModels(true))
+
+        then:
+        thrown RuntimeException
+
+        cleanup:
+        thread.contextClassLoader = classLoader
+        dir.deleteDir()
+    }
+
+    @Unroll
+    def 'batch conversion of collections: #description'() {
+        setup:
+        BatchCarConverter.batchSizes.clear()
+        BatchCarConverter.singleCount.set(0)
+        def executor = splitSize ? Executors.newFixedThreadPool(2) : null
+        def mapper = new ObjectMapper().registerModule(new VersioningModule().setBatchConversionExecutor(executor, splitSize ?: 100))
+        def v1 = '{"model": "honda:civic", "year": 2016, "new": "true", "modelVersion": "1"}'
+        def v2 = '{"make": "toyota", "model": "camry", "year": 2012, "new": "false", "modelVersion": "2"}'
+        def v3 = '{"make": "mazda", "model": "6", "year": 2017, "used": false, "modelVersion": "3"}'
+        def json = "[$v1, $v2, $v3, $v1, null, $v2, $v1, $v1, $v1]"
+
+        when:
+        def cars = mapper.readValue("{\"cars\": $json}" as String, BatchCarGarage).cars
+
+        then: 'models are converted a batch per source version'
+        cars*.make == ['honda', 'toyota', 'mazda', 'honda', null, 'toyota', 'honda', 'honda', 'honda']
+        cars*.s2v == ['1', '2', '3', '1', null, '2', '1', '1', '1']
+        cars.findAll()*._debugPreDeserializationVersion == ['1', '2', null, '1', '2', '1', '1', '1']
+        BatchCarConverter.batchSizes.sort() == deserializeBatches
+        BatchCarConverter.singleCount.get() == 0
+
+        when:
+        BatchCarConverter.batchSizes.clear()
+        def serialized = mapper.readValue(mapper.writeValueAsString(new BatchCarGarage(cars: cars)), Map).cars
+
+        then: 'models are converted a batch per target version'
+        serialized == cars.collect { it == null ? null : mapper.readValue(mapper.writeValueAsString(it), Map) }
+        serialized*.modelVersion == ['1', '2', '3', '1', null, '2', '1', '1', '1']
+        serialized[0].model == 'honda:civic'
+        BatchCarConverter.batchSizes.sort() == serializeBatches
+        BatchCarConverter.singleCount.get() == 7
+
+        cleanup:
+        executor?.shutdown()
+
+        where:
+        description      | splitSize | deserializeBatches | serializeBatches
+        'calling thread' | null      | [2, 5]             | [2, 5]
+        'split batches'  | 2         | [1, 2, 2, 2]       | [1, 2, 2, 2]
+    }
+
+    @Unroll
+    def 'tree input and output: #clazz.simpleName'() {
+        setup:
+        def instrumentation = new StripedVersioningInstrumentation()
+        def mapper = new ObjectMapper().registerModule(new VersioningModule(instrumentation))
+        def tree = mapper.readTree(json)
+        def original = tree.deepCopy()
+
+        when:
+        def fromTree = mapper.treeToValue(tree, clazz)
+        def fromJson = mapper.readValue(json, clazz)
+        def stats = instrumentation.getModelStats(clazz)
+
+        then: 'models are converted from the tree without changing it'
+        mapper.writeValueAsString(fromTree) == mapper.writeValueAsString(fromJson)
+        tree == original
+        stats.getTreePathCount(VersioningInstrumentation.Operation.DESERIALIZATION) == 2 * treePaths
+
+        expect: 'converted models are written straight into trees'
+        VersionedModelUtils.valueToTree(mapper, fromTree) == mapper.readTree(mapper.writeValueAsString(fromTree))
+        VersionedModelUtils.valueToTree(mapper, [fromTree, null]) == mapper.readTree(mapper.writeValueAsString([fromTree, null]))
+        VersionedModelUtils.valueToTree(mapper, null) == null
+
+        where:
+        clazz                             | treePaths | json
+        SourceVersionFieldSerializeToCar  | 1         | '{"model": "honda:civic", "year": 2016, "new": "true", "_version": "1"}'
+        ScopedCar                         | 1         | '{"maker": "honda", "mileage": [100, 200, 300], "modelVersion": "1", "model": "civic", "engine": {"cylinders": 4, "fuel": "gas"}}'
+        NestedNode                        | 3         | '{"name": "a", "modelVersion": "1", "child": {"name": "b", "modelVersion": "1", "child": {"name": "c", "modelVersion": "1"}}}'
+        Car                               | 0         | '{"make": "honda", "model": "civic", "year": 2016, "used": false, "modelVersion": "3"}'
+    }
+
+    // writer attributes were added in Jackson 2.3
+    @IgnoreIf({ new ObjectMapper().version().minorVersion < 3 })
+    @Unroll
+    def 'serialize to version from writer attributes: #description'() {
+        setup:
+        def car = new FieldSerializeToCar(make: 'honda', model: 'civic', used: false, year: 2016, s2v: fieldVersion)
+        def writer = mapper.writer()
+        attributes.each { key, value -> writer = writer.withAttribute(key, value) }
+
+        expect:
+        mapper.readValue(writer.writeValueAsString([car, car]), List).collect { it._version } == [expected, expected]
+        car.s2v == fieldVersion
+
+        where:
+        description                  | fieldVersion | attributes                                                                                                            | expected
+        'field fallback'             | '1'          | [:]                                                                                                                   | '1'
+        'model class over field'     | '1'          | [(SerializeToVersionAttributes.forModel(FieldSerializeToCar)): '2']                                                   | '2'
+        'all models over default'    | null         | [(SerializeToVersionAttributes.ALL_MODELS): ModelVersion.of('1')]                                                     | '1'
+        'model class over all'       | null         | [(SerializeToVersionAttributes.ALL_MODELS): '1', (SerializeToVersionAttributes.forModel(FieldSerializeToCar)): '']    | '3'
+        'other model class'          | '2'          | [(SerializeToVersionAttributes.forModel(Car)): '1']                                                                   | '2'
+    }
+
+    @Unroll
+    def 'spilled model data: #threshold byte threshold'() {
+        setup:
+        def spillDirectory = Files.createTempDirectory('spill').toFile()
+        def spillingMapper = new ObjectMapper().registerModule(new VersioningModule().setSpillThreshold(threshold, spillDirectory))
+        def scopedJson = '{"engine": {"cylinders": 4, "fuel": "gas"}, "mileage": [100, 200, 300], "model": "civic", "maker": "honda", "modelVersion": "1"}'
+        def nestedJson = '{"name": "a", "modelVersion": "1", "child": {"name": "b", "modelVersion": "1", "child": {"name": "c", "modelVersion": "1"}}}'
+
+        expect: 'models read and write the same as when kept in memory'
+        [[scopedJson, ScopedCar], [nestedJson, NestedNode], [nestedJson, NestedNode[]]].every { json, clazz ->
+            if(clazz.array)
+                json = "[$json, $json]" as String
+            spillingMapper.writeValueAsString(spillingMapper.readValue(json, clazz)) == mapper.writeValueAsString(mapper.readValue(json, clazz))
+        }
+        spillingMapper.writeValueAsString(new ScopedCar(make: 'honda', model: 'civic', mileage: [100], s2v: '1')) == mapper.writeValueAsString(new ScopedCar(make: 'honda', model: 'civic', mileage: [100], s2v: '1'))
+
+        and: 'temporary files are removed'
+        spillDirectory.list() == [] as String[]
+
+        cleanup:
+        spillDirectory.deleteDir()
+
+        where:
+        threshold << [0, 20, 100, Long.MAX_VALUE]
+    }
+
+    def 'spilled model data keeps value types'() {
+        setup:
+        def spillDirectory = Files.createTempDirectory('spill').toFile()
+        def write = { ModelDataBuffer buffer ->
+            buffer.writeStartObject()
+            buffer.writeNumberField('decimal', new BigDecimal('1.10'))
+            buffer.writeFieldName('integer')
+            buffer.writeNumber(new BigInteger('123456789012345678901234567890'))
+            buffer.writeNumberField('float', 1.5f)
+            buffer.writeNumberField('nan', Double.NaN)
+            buffer.writeBinaryField('photo', [1, 2, 3] as byte[])
+            buffer.writeEndObject()
+            buffer
+        }
+        def read = { ModelDataBuffer buffer ->
+            def parser = buffer.asParser()
+            def tokens = []
+            for(def token = parser.nextToken(); token != null; token = parser.nextToken())
+                tokens << [token, parser.currentName, token.numeric ? parser.numberType : null, token.numeric ? parser.numberValue : token == JsonToken.VALUE_EMBEDDED_OBJECT ? parser.embeddedObject as List : parser.text]
+            tokens
+        }
+        def inMemory = write(new ModelDataBuffer(mapper))
+        def spilled = write(new ModelDataBuffer(mapper, new ModelDataSpill(0, spillDirectory)))
+
+        expect: 'spilled tokens read back the same as tokens kept in memory'
+        spilled.tokens == null
+        read(spilled) == read(inMemory)
+
+        when: 'a nested model hands over its data'
+        def nested = new ModelDataBuffer(mapper, new ModelDataSpill(100, spillDirectory))
+        nested.writeStartObject()
+        def modelContext = nested.outputContext
+        nested.writeFieldName('child')
+        nested.writeModelData(mapper.createObjectNode().put('name', 'x' * 200))
+        def spilledContext = nested.outputContext
+        nested.writeEndObject()
+
+        then: 'its data counts toward the threshold'
+        nested.tokens == null
+
+        and: 'generators wrapping the buffer see the same output context after it spills'
+        spilledContext.is(modelContext)
+        mapper.readTree(nested.asParser()) == mapper.readTree('{"child": {"name": "' + 'x' * 200 + '"}}')
+
+        cleanup:
+        [inMemory, spilled, nested]*.close()
+        spillDirectory.deleteDir()
+    }
+
+    @Unroll
+    def 'spilled model data larger than the heap: #threshold'() {
+        setup:
+        def heapMegabytes = 32
+        def mileageCount = 20000000
+        def document = File.createTempFile('huge-car', '.json')
+        def generator = new ObjectMapper().factory.createGenerator(document, JsonEncoding.UTF8)
+        generator.writeStartObject()
+        generator.writeStringField('maker', 'honda')
+        generator.writeArrayFieldStart('mileage')
+        for(int i = 0; i < mileageCount; i++)
+            generator.writeNumber(i)
+        generator.writeEndArray()
+        generator.writeStringField('modelVersion', '1')
+        generator.writeEndObject()
+        generator.close()
+
+        def classpath = [VersioningModule, ObjectMapper, JsonParser, JsonIgnore, GroovyObject, HugeScopedCarReader].collect {
+            new File(it.protectionDomain.codeSource.location.toURI()).path
+        }.unique().join(File.pathSeparator)
+
+        when:
+        def process = new ProcessBuilder(new File(System.getProperty('java.home'), 'bin/java').path, "-Xmx${heapMegabytes}m" as String, '-cp', classpath, HugeScopedCarReader.name, document.path, threshold)
+            .redirectErrorStream(true)
+            .start()
+        def output = process.inputStream.text
+
+        then:
+        document.length() > 4L * heapMegabytes * 1024 * 1024
+        (process.waitFor() == 0) == succeeds
+        output.contains(expected)
+
+        cleanup:
+        document.delete()
+
+        where:
+        threshold | succeeds | expected
+        '1048576' | true     | 'honda 199999990000000'
+        'none'    | false    | 'OutOfMemoryError'
+    }
+
+    @Unroll
+    def 'binary data format: #factory.formatName'() {
+        setup:
+        def binaryMapper = new ObjectMapper(factory).registerModule(new VersioningModule())
+        def models = [
+            new FieldSerializeToCar(make: 'honda', model: 'civic', used: false, year: 2016, s2v: '1'),
+            new FieldSerializeToCar(make: 'honda', model: 'civic', used: false, year: 2016, s2v: '3'),
+            new CachedCar(make: 'honda', model: 'civic', year: 2016),
+            new ScopedCar(make: 'honda', model: 'civic', mileage: [100, 200], engine: new Engine(cylinders: 4, fuel: 'gas'), s2v: '1'),
+            [new FieldSerializeToCar(make: 'toyota', model: 'camry', year: 2012, s2v: '2'), null]
+        ]
+
+        expect: 'models are written and read back the same as with JSON'
+        models.every { model ->
+            def data = binaryMapper.writeValueAsBytes(model)
+            def json = mapper.writeValueAsBytes(model)
+            binaryMapper.readTree(data) == mapper.readTree(json) &&
+                (model instanceof List || mapper.writeValueAsString(binaryMapper.readValue(data, model.class)) == mapper.writeValueAsString(mapper.readValue(json, model.class)))
+        }
+
+        and: 'generators without a codec are written to the same way'
+        models.every { model ->
+            def output = new ByteArrayOutputStream()
+            def generator = factory.copy().createGenerator(output)
+            binaryMapper.writeValue(generator, model)
+            generator.close()
+            binaryMapper.readTree(output.toByteArray()) == binaryMapper.readTree(binaryMapper.writeValueAsBytes(model))
+        }
+
+        where:
+        factory << ['com.fasterxml.jackson.dataformat.smile.SmileFactory', 'com.fasterxml.jackson.dataformat.cbor.CBORFactory'].findResults { className ->
+            // CBOR was added in Jackson 2.4
+            try {
+                Class.forName(className).newInstance()
+            } catch(ClassNotFoundException e) {
+                null
+            }
+        }
+    }
+}